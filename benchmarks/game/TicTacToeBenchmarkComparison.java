@@ -0,0 +1,250 @@
+package game;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compares two JMH result files written with -rf json, e.g. a stored
+ * baseline against the results of the current tree, and reports every
+ * benchmark that got slower.
+ *
+ * A result is a regression when it is worse than the baseline by more than
+ * the threshold percentage and by more than the two scores' error margins
+ * together, so run-to-run noise is not reported. The exit status is 1 when
+ * there is a regression, for use in scripts.
+ */
+public class TicTacToeBenchmarkComparison {
+
+    /**
+     * Score of one benchmark with one set of parameters.
+     */
+    private static class Score {
+
+        final double value;
+        final double error;
+        final String unit;
+
+        Score(double value, double error, String unit) {
+            this.value = value;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        // Throughput units (ops/time) are better when higher, times per op when lower
+        boolean higherIsBetter() { return this.unit.startsWith("ops/"); }
+    }
+
+    private TicTacToeBenchmarkComparison() {
+    }
+
+    /**
+     * Reads the scores of a JMH JSON result file.
+     *
+     * @param file
+     * @return score by "benchmark params"
+     * @throws IOException if the file cannot be read or is not JMH JSON output
+     */
+    static Map<String, Score> readResults(Path file) throws IOException {
+        Object json;
+        try {
+            json = new JsonReader(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).read();
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + " is not valid JSON: " + e.getMessage());
+        }
+        if (!(json instanceof List))
+            throw new IOException(file + " is not a JMH result file.");
+        Map<String, Score> scores = new TreeMap<>();
+        for (Object item : (List<?>) json) {
+            Map<?, ?> result = (Map<?, ?>) item;
+            Map<?, ?> metric = (Map<?, ?>) result.get("primaryMetric");
+            String name = (String) result.get("benchmark");
+            if (name == null || metric == null)
+                throw new IOException(file + " is not a JMH result file.");
+            name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+            StringBuilder key = new StringBuilder(name);
+            Object params = result.get("params");
+            if (params != null) {
+                for (Map.Entry<?, ?> param : new TreeMap<>((Map<?, ?>) params).entrySet()) {
+                    key.append(' ').append(param.getKey()).append('=').append(param.getValue());
+                }
+            }
+            scores.put(key.toString(), new Score(number(metric.get("score")), number(metric.get("scoreError")),
+                    (String) metric.get("scoreUnit")));
+        }
+        return scores;
+    }
+
+    // JMH writes "NaN" as a string, e.g. for the error of a single iteration
+    private static double number(Object value) {
+        if (value instanceof Double) return (Double) value;
+        try {
+            return Double.parseDouble(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /** Prints the change of every benchmark found in both files
+     *
+     * @param args baseline file, results file and regression threshold in
+     *             percent (default 5)
+     * @throws IOException
+     */
+    public static void main(String args[]) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: TicTacToeBenchmarkComparison baseline.json results.json [threshold%]");
+            System.exit(2);
+        }
+        Map<String, Score> baseline = readResults(Paths.get(args[0]));
+        Map<String, Score> results = readResults(Paths.get(args[1]));
+        double threshold = (args.length > 2) ? Double.parseDouble(args[2]) : 5.0;
+
+        int regressions = 0;
+        System.out.printf("%-60s %14s %14s %9s%n", "Benchmark", "Baseline", "Result", "Change");
+        for (Map.Entry<String, Score> entry : results.entrySet()) {
+            Score before = baseline.get(entry.getKey());
+            Score after = entry.getValue();
+            if (before == null || !before.unit.equals(after.unit)) {
+                System.out.printf("%-60s %14s %14.3f %9s  %s%n", entry.getKey(), "-", after.value, "", after.unit);
+                continue;
+            }
+            double change = 100.0 * (after.value - before.value) / before.value;
+            double worse = after.higherIsBetter() ? -change : change;
+            double noise = (Double.isNaN(before.error) ? 0 : before.error) + (Double.isNaN(after.error) ? 0 : after.error);
+            boolean regression = worse > threshold && Math.abs(after.value - before.value) > noise;
+            if (regression) regressions++;
+            System.out.printf("%-60s %14.3f %14.3f %+8.1f%%  %s%s%n", entry.getKey(), before.value, after.value,
+                    change, after.unit, regression ? "  REGRESSION" : "");
+        }
+        System.out.printf("%d regression(s) over %.1f%%%n", regressions, threshold);
+        if (regressions > 0) System.exit(1);
+    }
+
+    /**
+     * Minimal JSON reader for JMH result files: objects become maps, arrays
+     * lists, numbers doubles.
+     */
+    private static class JsonReader {
+
+        private final String text;
+        private int position;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        Object read() throws IllegalArgumentException {
+            Object value = readValue();
+            skipWhitespace();
+            if (this.position != this.text.length()) throw error("trailing characters");
+            return value;
+        }
+
+        private Object readValue() {
+            skipWhitespace();
+            if (this.position >= this.text.length()) throw error("unexpected end");
+            char c = this.text.charAt(this.position);
+            if (c == '{') return readObject();
+            if (c == '[') return readArray();
+            if (c == '"') return readString();
+            if (this.text.startsWith("true", this.position)) { this.position += 4; return Boolean.TRUE; }
+            if (this.text.startsWith("false", this.position)) { this.position += 5; return Boolean.FALSE; }
+            if (this.text.startsWith("null", this.position)) { this.position += 4; return null; }
+            return readNumber();
+        }
+
+        private Map<String, Object> readObject() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            this.position++;
+            skipWhitespace();
+            if (peek() == '}') { this.position++; return object; }
+            while (true) {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                object.put(key, readValue());
+                skipWhitespace();
+                if (peek() == '}') { this.position++; return object; }
+                expect(',');
+            }
+        }
+
+        private List<Object> readArray() {
+            List<Object> array = new ArrayList<>();
+            this.position++;
+            skipWhitespace();
+            if (peek() == ']') { this.position++; return array; }
+            while (true) {
+                array.add(readValue());
+                skipWhitespace();
+                if (peek() == ']') { this.position++; return array; }
+                expect(',');
+            }
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder s = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') return s.toString();
+                if (c != '\\') {
+                    s.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'b': s.append('\b'); break;
+                    case 'f': s.append('\f'); break;
+                    case 'n': s.append('\n'); break;
+                    case 'r': s.append('\r'); break;
+                    case 't': s.append('\t'); break;
+                    case 'u':
+                        if (this.position + 4 > this.text.length()) throw error("bad escape");
+                        s.append((char) Integer.parseInt(this.text.substring(this.position, this.position + 4), 16));
+                        this.position += 4;
+                        break;
+                    default: s.append(escaped);
+                }
+            }
+        }
+
+        private Double readNumber() {
+            int start = this.position;
+            while (this.position < this.text.length() && "+-0123456789.eE".indexOf(peek()) >= 0) {
+                this.position++;
+            }
+            try {
+                return Double.valueOf(this.text.substring(start, this.position));
+            } catch (NumberFormatException e) {
+                throw error("bad value");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (this.position < this.text.length() && Character.isWhitespace(peek())) {
+                this.position++;
+            }
+        }
+
+        private char peek() {
+            return (this.position < this.text.length()) ? this.text.charAt(this.position) : '\0';
+        }
+
+        private char next() {
+            if (this.position >= this.text.length()) throw error("unexpected end");
+            return this.text.charAt(this.position++);
+        }
+
+        private void expect(char c) {
+            if (next() != c) throw error("expected '" + c + "'");
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + this.position);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package game;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+
+/**
+ * Game position the benchmarks run on: a size x size game played to an
+ * early-game or near-full position without anyone winning.
+ *
+ * Marks are placed in a fixed pseudo-random order, so every run (and every
+ * commit being compared) sees the same position. Moves that would end the
+ * game are skipped. "early" stops after size marks, "full" after 90% of the
+ * grid, or sooner if no more marks can be placed without ending the game.
+ */
+@State(Scope.Thread)
+public class TicTacToeBenchmarkPosition {
+
+    private static final long SEED = 0x5EEDL;
+    private static final int SAMPLE = 256;
+
+    @Param({"3", "15", "100", "1000"})
+    public int size;
+
+    @Param({"early", "full"})
+    public String fill;
+
+    // Marks in a row to win, 0 for a whole row, column or diagonal
+    @Param({"0"})
+    public int numToWin;
+
+    TicTacToeModel model;
+
+    // Cells played to reach the position, in order (row * size + column)
+    int[] moves;
+
+    // Samples of empty and marked cells for the benchmarks to cycle through
+    int[] emptyCells;
+    int[] markedCells;
+    char[] marks;
+    private int nextEmpty;
+    private int nextMarked;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        build(this.size, this.numToWin, this.fill);
+    }
+
+    /**
+     * Plays the game to the requested position.
+     *
+     * @param size
+     * @param numToWin marks in a row to win, 0 for size
+     * @param fill "early" or "full"
+     * @throws IllegalArgumentException
+     */
+    void build(int size, int numToWin, String fill) throws IllegalArgumentException {
+        int cells = size * size;
+        int target;
+        if (fill.equals("early")) {
+            target = size;
+        } else if (fill.equals("full")) {
+            target = cells * 9 / 10;
+        } else {
+            throw new IllegalArgumentException("Fill must be early or full.");
+        }
+        this.model = new TicTacToeModel(size, (numToWin == 0) ? size : numToWin, 'X');
+
+        int[] order = new int[cells];
+        for (int i = 0; i < cells; i++) {
+            order[i] = i;
+        }
+        SplittableRandom random = new SplittableRandom(SEED + size);
+        for (int i = cells - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+
+        // order[0, played) holds the moves; cells that would end the game are
+        // moved behind end and not tried again
+        int played = 0;
+        int end = cells;
+        while (played < target && played < end) {
+            int row = order[played] / size;
+            int column = order[played] % size;
+            if (this.model.takeTurn(row, column) == TicTacToeEnum.IN_PROGRESS) {
+                played++;
+            } else {
+                this.model.undoTurn(row, column);
+                int swap = order[played];
+                order[played] = order[--end];
+                order[end] = swap;
+            }
+        }
+        this.moves = Arrays.copyOf(order, played);
+
+        this.emptyCells = Arrays.copyOfRange(order, played, Math.min(cells, played + SAMPLE));
+        this.markedCells = Arrays.copyOfRange(order, Math.max(0, played - SAMPLE), played);
+        this.marks = new char[this.markedCells.length];
+        for (int i = 0; i < this.marks.length; i++) {
+            this.marks[i] = this.model.getMark(this.markedCells[i] / size, this.markedCells[i] % size);
+        }
+    }
+
+    /**
+     * Plays the position's moves again after a reset().
+     */
+    void replay() {
+        this.model.reset('X');
+        for (int cell : this.moves) {
+            this.model.takeTurn(cell / this.model.getSize(), cell % this.model.getSize());
+        }
+    }
+
+    /**
+     * Returns the next empty cell of the sample, cycling through them.
+     *
+     * @return row * size + column
+     */
+    int nextEmptyCell() {
+        int cell = this.emptyCells[this.nextEmpty];
+        if (++this.nextEmpty == this.emptyCells.length) this.nextEmpty = 0;
+        return cell;
+    }
+
+    /**
+     * Returns the index of the next marked cell of the sample in markedCells
+     * and marks, cycling through them.
+     *
+     * @return index
+     */
+    int nextMarkedIndex() {
+        int index = this.nextMarked;
+        if (++this.nextMarked == this.markedCells.length) this.nextMarked = 0;
+        return index;
+    }
+}
@@ -0,0 +1,53 @@
+package game;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of saving and loading the positions of
+ * TicTacToeBenchmarkPosition with TicTacToeFile, through a temporary file.
+ *
+ * Build and run with:
+ *   mvn -Pbench package
+ *   java -jar target/benchmarks.jar TicTacToeFileBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TicTacToeFileBenchmark {
+
+    /**
+     * Temporary save file, holding the benchmark position once set up.
+     */
+    @State(Scope.Thread)
+    public static class SaveFile {
+
+        Path file;
+
+        @Setup(Level.Trial)
+        public void setUp(TicTacToeBenchmarkPosition p) throws IOException {
+            this.file = Files.createTempFile("tictactoe-benchmark", ".ttt");
+            TicTacToeFile.save(p.model, this.file);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(this.file);
+        }
+    }
+
+    @Benchmark
+    public void save(TicTacToeBenchmarkPosition p, SaveFile f) throws IOException {
+        TicTacToeFile.save(p.model, f.file);
+    }
+
+    @Benchmark
+    public TicTacToeModel load(SaveFile f) throws IOException {
+        return TicTacToeFile.load(f.file);
+    }
+}
@@ -0,0 +1,120 @@
+package game;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the TicTacToeModel hot paths on the positions of
+ * TicTacToeBenchmarkPosition.
+ *
+ * Build and run with:
+ *   mvn -Pbench package
+ *   java -jar target/benchmarks.jar TicTacToeModelBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TicTacToeModelBenchmark {
+
+    /**
+     * Position refilled before every call, for benchmarks that clear it.
+     * The refill is not timed, but JMH's per-call bookkeeping is, which
+     * dominates below about a microsecond (e.g. reset() of a 3 x 3 game).
+     */
+    public static class Refilled extends TicTacToeBenchmarkPosition {
+
+        @Setup(Level.Invocation)
+        public void refill() {
+            replay();
+        }
+    }
+
+    /**
+     * takeTurn() into an empty cell. The move is taken back with undoTurn()
+     * so every call starts from the same position; the time reported
+     * includes the undoTurn(), which only clears the cell and its line
+     * counters.
+     */
+    @Benchmark
+    public TicTacToeEnum takeTurn(TicTacToeBenchmarkPosition p) {
+        int cell = p.nextEmptyCell();
+        int row = cell / p.size;
+        int column = cell % p.size;
+        TicTacToeEnum state = p.model.takeTurn(row, column);
+        p.model.undoTurn(row, column);
+        return state;
+    }
+
+    /**
+     * findWinner() for a mark already on the grid, as checked after it was
+     * played.
+     */
+    @Benchmark
+    public TicTacToeEnum findWinner(TicTacToeBenchmarkPosition p) {
+        int index = p.nextMarkedIndex();
+        int cell = p.markedCells[index];
+        return p.model.findWinner(cell / p.size, cell % p.size, p.marks[index]);
+    }
+
+    /**
+     * Position with an observer attached, so moves publish events.
+     */
+    public static class Observed extends TicTacToeBenchmarkPosition {
+
+        int[] rows;
+        int[] columns;
+        long changes;
+
+        @Setup(Level.Trial)
+        public void observe() {
+            this.model.addView(event -> this.changes += event.getChangeCount());
+            this.rows = new int[this.moves.length];
+            this.columns = new int[this.moves.length];
+            for (int i = 0; i < this.moves.length; i++) {
+                this.rows[i] = this.moves[i] / this.size;
+                this.columns[i] = this.moves[i] % this.size;
+            }
+        }
+    }
+
+    /**
+     * Replays the position's moves after a reset(), notifying the observer
+     * after every takeTurn() as the controller does for each click.
+     */
+    @Benchmark
+    public long replayMoves(Observed p) {
+        p.model.reset('X');
+        p.model.notifyViews();
+        for (int i = 0; i < p.rows.length; i++) {
+            p.model.takeTurn(p.rows[i], p.columns[i]);
+            p.model.notifyViews();
+        }
+        return p.changes;
+    }
+
+    /**
+     * Replays the same moves with takeTurns() and a single notification.
+     */
+    @Benchmark
+    public long replayBatch(Observed p) {
+        p.model.reset('X');
+        p.model.notifyViews();
+        p.model.takeTurns(p.rows, p.columns, p.rows.length);
+        p.model.notifyViews();
+        return p.changes;
+    }
+
+    @Benchmark
+    public TicTacToeModel reset(Refilled p) {
+        p.model.reset('X');
+        return p.model;
+    }
+
+    @Benchmark
+    public String toString(TicTacToeBenchmarkPosition p) {
+        return p.model.toString();
+    }
+}
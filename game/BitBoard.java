@@ -0,0 +1,145 @@
+package game;
+
+import java.util.*;
+
+/**
+ * TicTacToeBoard storing one bitboard per player, with cell (row, column)
+ * at bit (row * size + column). Boards of up to 64 cells fit in a single
+ * long, and for those the winning lines through each cell are precomputed
+ * so that a win check is a few AND/compare operations.
+ */
+public class BitBoard implements TicTacToeBoard {
+
+    private static final long serialVersionUID = 1L;
+    private int size;
+    private long[] xBits;       // Cells marked 'X'
+    private long[] oBits;       // Cells marked 'O'
+    private int numToWin;
+
+    // Winning line masks through each cell, or null for boards over 64 cells
+    private long[][] winMasks;
+
+    /**
+     * Constructor for an empty size x size BitBoard.
+     *
+     * @param size of the square grid
+     * @param numToWin number of adjacent marks needed to win
+     */
+    public BitBoard(int size, int numToWin) {
+        this.size = size;
+        this.numToWin = numToWin;
+        int words = (int) (((long) size * size + 63) >>> 6);
+        this.xBits = new long[words];
+        this.oBits = new long[words];
+        if ((long) size * size <= 64) {
+            this.winMasks = buildWinMasks(size, numToWin);
+        }
+    }
+
+    /**
+     * Precomputes, for every cell, the masks of the winning lines through it.
+     *
+     * @param size
+     * @param numToWin
+     * @return masks indexed by cell
+     */
+    private static long[][] buildWinMasks(int size, int numToWin) {
+        List<List<Long>> perCell = new ArrayList<>();
+        for (int i = 0; i < size * size; i++) {
+            perCell.add(new ArrayList<>());
+        }
+        // Row, column, diagonal and anti-diagonal lines of numToWin cells
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        for (int[] d : directions) {
+            for (int r = 0; r < size; r++) {
+                for (int c = 0; c < size; c++) {
+                    int endRow = r + d[0] * (numToWin - 1);
+                    int endColumn = c + d[1] * (numToWin - 1);
+                    if (endRow < 0 || endRow >= size || endColumn < 0 || endColumn >= size) continue;
+                    long mask = 0L;
+                    for (int n = 0; n < numToWin; n++) {
+                        mask |= 1L << ((r + d[0] * n) * size + (c + d[1] * n));
+                    }
+                    for (int n = 0; n < numToWin; n++) {
+                        perCell.get((r + d[0] * n) * size + (c + d[1] * n)).add(mask);
+                    }
+                }
+            }
+        }
+        long[][] masks = new long[size * size][];
+        for (int i = 0; i < masks.length; i++) {
+            List<Long> cellMasks = perCell.get(i);
+            masks[i] = new long[cellMasks.size()];
+            for (int m = 0; m < cellMasks.size(); m++) {
+                masks[i][m] = cellMasks.get(m);
+            }
+        }
+        return masks;
+    }
+
+    @Override
+    public int getSize() { return this.size; }
+
+    @Override
+    public char getMark(int row, int column) {
+        int index = row * this.size + column;
+        long bit = 1L << index;
+        if ((this.xBits[index >>> 6] & bit) != 0) return 'X';
+        if ((this.oBits[index >>> 6] & bit) != 0) return 'O';
+        return ' ';
+    }
+
+    @Override
+    public void setMark(int row, int column, char mark) {
+        int index = row * this.size + column;
+        int word = index >>> 6;
+        long bit = 1L << index;
+        this.xBits[word] &= ~bit;
+        this.oBits[word] &= ~bit;
+        if (mark == 'X') {
+            this.xBits[word] |= bit;
+        } else if (mark == 'O') {
+            this.oBits[word] |= bit;
+        }
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(this.xBits, 0L);
+        Arrays.fill(this.oBits, 0L);
+    }
+
+    @Override
+    public long[] getMarkedCells() {
+        int count = 0;
+        for (int word = 0; word < this.xBits.length; word++) {
+            count += Long.bitCount(this.xBits[word] | this.oBits[word]);
+        }
+        long[] cells = new long[count];
+        int n = 0;
+        for (int word = 0; word < this.xBits.length; word++) {
+            for (long bits = this.xBits[word] | this.oBits[word]; bits != 0; bits &= bits - 1) {
+                cells[n++] = ((long) word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return cells;
+    }
+
+    @Override
+    public boolean hasWinMasks() { return this.winMasks != null; }
+
+    @Override
+    public boolean isWinningMark(int row, int column, int numToWin) {
+        if (this.winMasks == null || numToWin != this.numToWin) {
+            return TicTacToeBoard.super.isWinningMark(row, column, numToWin);
+        }
+        int index = row * this.size + column;
+        long bit = 1L << index;
+        if (((this.xBits[0] | this.oBits[0]) & bit) == 0) return false;
+        long bits = ((this.xBits[0] & bit) != 0) ? this.xBits[0] : this.oBits[0];
+        for (long mask : this.winMasks[index]) {
+            if ((bits & mask) == mask) return true;
+        }
+        return false;
+    }
+}
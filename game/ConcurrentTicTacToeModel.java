@@ -0,0 +1,425 @@
+package game;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * TicTacToe game that many threads (network handlers, computer players,
+ * views) can share without locks.
+ *
+ * The whole game is an immutable Snapshot held in an AtomicReference.
+ * Reading is one volatile read, and a Snapshot never changes, so every
+ * getter (or a Snapshot from getSnapshot()) sees a whole move or none of
+ * it. A move builds the next Snapshot and commits it with compareAndSet,
+ * retrying only if another move committed first. Snapshots hold
+ * TicTacToePositions, so a move shares the grid with the position before
+ * it, and undo() and redo() only move between positions.
+ *
+ * Observers are kept in a copy-on-write list. Committed changes wait in
+ * the Snapshot until notifyViews(). Any thread may call it, and only one
+ * thread at a time delivers, in the order the changes were committed.
+ */
+public class ConcurrentTicTacToeModel {
+
+    private final int size;
+    private final int numToWin;
+    private final AtomicReference<Snapshot> state;
+    private final List<TicTacToeObserver> views = new CopyOnWriteArrayList<>();
+
+    // Set while a thread is delivering changes to the views
+    private final AtomicBoolean publishing = new AtomicBoolean();
+
+    // compareAndSet failures, i.e. moves that had to be rebuilt
+    private final LongAdder retries = new LongAdder();
+
+    /**
+     * Immutable state of a game after some number of changes: a
+     * TicTacToePosition, the moves undone since it was played, and the
+     * changes not yet delivered to the views.
+     */
+    public static final class Snapshot {
+
+        private final long version;
+        private final TicTacToePosition position;
+        // Positions taken back by undo(), the last one first
+        private final Stack undone;
+
+        // Changes not yet delivered to the views, newest first
+        private final Change pending;
+        private final boolean refreshPending;
+
+        private Snapshot(long version, TicTacToePosition position, Stack undone, Change pending,
+                         boolean refreshPending) {
+            this.version = version;
+            this.position = position;
+            this.undone = undone;
+            this.pending = pending;
+            this.refreshPending = refreshPending;
+        }
+
+        /**
+         * Returns the number of changes committed before this snapshot.
+         *
+         * @return version, starting at 0
+         */
+        public long getVersion() { return this.version; }
+
+        /**
+         * Returns the position of the game, which shares its grid with the
+         * positions before it and can be kept or played from by any thread.
+         *
+         * @return position
+         */
+        public TicTacToePosition getPosition() { return this.position; }
+
+        public char getTurn() { return this.position.getTurn(); }
+
+        public int getMarkCount() { return this.position.getMarkCount(); }
+
+        public TicTacToeEnum getGameState() { return this.position.getGameState(); }
+
+        public int getSize() { return this.position.getSize(); }
+
+        public char getMark(int row, int column) { return this.position.getMark(row, column); }
+
+        public boolean canUndo() { return this.position.getParent() != null; }
+
+        public boolean canRedo() { return this.undone != null; }
+
+        private Snapshot withoutPending() {
+            return new Snapshot(this.version, this.position, this.undone, null, false);
+        }
+
+        @Override
+        public String toString() {
+            return this.position.toString();
+        }
+    }
+
+    /**
+     * Positions taken back, in a list shared between snapshots.
+     */
+    private static final class Stack {
+        final TicTacToePosition position;
+        final Stack next;
+
+        Stack(TicTacToePosition position, Stack next) {
+            this.position = position;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A committed change waiting to be delivered, in a list shared between
+     * snapshots.
+     */
+    private static final class Change {
+        final TicTacToeEvent event;
+        final Change next;
+
+        Change(TicTacToeEvent event, Change next) {
+            this.event = event;
+            this.next = next;
+        }
+    }
+
+    /**Constructor of a size by size game grid won by numToWin adjacent marks
+     * in a row, column or diagonal
+     *
+     * @param size
+     * @param numToWin
+     * @param initialTurn
+     * @throws IllegalArgumentException
+     */
+    public ConcurrentTicTacToeModel(int size, int numToWin, char initialTurn) throws IllegalArgumentException {
+        if (size < 0)
+            throw new IllegalArgumentException("Grid must be a positive size.");
+        if (numToWin < 1 || numToWin > size)
+            throw new IllegalArgumentException("Number to win must be between 1 and " + size + ".");
+        this.size = size;
+        this.numToWin = numToWin;
+        this.state = new AtomicReference<>(new Snapshot(0, TicTacToePosition.start(size, numToWin, initialTurn),
+                null, null, false));
+    }
+
+    public ConcurrentTicTacToeModel(int size, char initialTurn) throws IllegalArgumentException {
+        this(size, size, initialTurn);
+    }
+
+    /**
+     * Returns the current state of the game. It never changes, so several
+     * values read from it always belong to the same move.
+     *
+     * @return snapshot
+     */
+    public Snapshot getSnapshot() { return this.state.get(); }
+
+    public int getSize() { return this.size; }
+
+    public int getNumToWin() { return this.numToWin; }
+
+    public char getTurn() { return this.state.get().getTurn(); }
+
+    public TicTacToeEnum getGameState() { return this.state.get().getGameState(); }
+
+    public int getMarkCount() { return this.state.get().getMarkCount(); }
+
+    public char getMark(int row, int column) { return this.state.get().getMark(row, column); }
+
+    /**
+     * Returns how many moves and resets had to be retried because another
+     * thread committed first.
+     *
+     * @return number of retries
+     */
+    public long getRetryCount() { return this.retries.sum(); }
+
+    /**
+     * Add a TicTacToeView or other observer to the notification list.
+     * May be called from any thread.
+     *
+     * @param view
+     */
+    public void addView(TicTacToeObserver view) {
+        this.views.add(view);
+    }
+
+    /**
+     * Remove a TicTacToeView or other observer from the notification list.
+     *
+     * @param view
+     */
+    public void removeView(TicTacToeObserver view) {
+        this.views.remove(view);
+    }
+
+    public List<TicTacToeObserver> getViews() {
+        return this.views;
+    }
+
+    /**reset() resets the TicTacToe game
+     *
+     * @param initialTurn indicates whether 'X' or 'O' will play first during
+     * the next game
+     */
+    public void reset(char initialTurn) {
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = this.state.get();
+            // A refresh replaces every change before it
+            next = new Snapshot(current.version + 1, TicTacToePosition.start(this.size, this.numToWin, initialTurn),
+                    null, null, !this.views.isEmpty());
+        } while (!commit(current, next));
+    }
+
+    /**takeTurn() places the current player's mark at the desired location
+     *
+     * @param row
+     * @param column
+     * @throws IllegalArgumentException
+     * @return resulting game status
+     */
+    public TicTacToeEnum takeTurn(int row, int column) throws IllegalArgumentException {
+        return takeTurn(row, column, ' ');
+    }
+
+    /**takeTurn() places a player's mark at the desired location, only if it
+     * is still that player's turn when the move is committed. Lets players
+     * on different threads move without taking each other's turns.
+     *
+     * @param row
+     * @param column
+     * @param player 'X' or 'O', or ' ' for whoever's turn it is
+     * @throws IllegalArgumentException if the move is not legal
+     * @return resulting game status
+     */
+    public TicTacToeEnum takeTurn(int row, int column, char player) throws IllegalArgumentException {
+        if (row < 0 || row >= this.size || column < 0 || column >= this.size)
+            throw new IllegalArgumentException("Grid is " + this.size + " by " + this.size);
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = this.state.get();
+            if (player != ' ' && player != current.getTurn() && current.getGameState() == TicTacToeEnum.IN_PROGRESS)
+                throw new IllegalArgumentException("It is " + current.getTurn() + "'s turn.");
+            TicTacToePosition position = current.position.play(row, column);
+            next = new Snapshot(current.version + 1, position, null,
+                    addChange(current.pending, new TicTacToeEvent(row, column, position.getLastMark(), position.getGameState(),
+                            position.getTurn())),
+                    current.refreshPending);
+        } while (!commit(current, next));
+        return next.getGameState();
+    }
+
+    /**undo() takes back the last move, if there is one.
+     *
+     * @throws IllegalArgumentException if no move was played since the last reset
+     * @return game status before the move
+     */
+    public TicTacToeEnum undo() throws IllegalArgumentException {
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = this.state.get();
+            if (!current.canUndo())
+                throw new IllegalArgumentException("Nothing to undo.");
+            TicTacToePosition position = current.position;
+            TicTacToePosition parent = position.getParent();
+            next = new Snapshot(current.version + 1, parent, new Stack(position, current.undone),
+                    addChange(current.pending, new TicTacToeEvent(position.getLastRow(), position.getLastColumn(), ' ',
+                            parent.getGameState(), parent.getTurn())),
+                    current.refreshPending);
+        } while (!commit(current, next));
+        return next.getGameState();
+    }
+
+    /**redo() plays again the last move taken back by undo().
+     *
+     * @throws IllegalArgumentException if no move was taken back since the last move
+     * @return resulting game status
+     */
+    public TicTacToeEnum redo() throws IllegalArgumentException {
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = this.state.get();
+            if (!current.canRedo())
+                throw new IllegalArgumentException("Nothing to redo.");
+            TicTacToePosition position = current.undone.position;
+            next = new Snapshot(current.version + 1, position, current.undone.next,
+                    addChange(current.pending, new TicTacToeEvent(position.getLastRow(), position.getLastColumn(),
+                            position.getLastMark(), position.getGameState(), position.getTurn())),
+                    current.refreshPending);
+        } while (!commit(current, next));
+        return next.getGameState();
+    }
+
+    /**
+     * Returns the pending changes with one more, or as they are if there
+     * are no views to deliver it to.
+     */
+    private Change addChange(Change pending, TicTacToeEvent event) {
+        return this.views.isEmpty() ? pending : new Change(event, pending);
+    }
+
+    private boolean commit(Snapshot current, Snapshot next) {
+        if (this.state.compareAndSet(current, next)) return true;
+        this.retries.increment();
+        return false;
+    }
+
+    /**
+     * Notify views and other observers of the changes committed since the
+     * last notification, in commit order: one event per move, preceded by
+     * a refresh event if the game was reset. If another thread is already
+     * notifying, it delivers these changes too and this call returns at once.
+     */
+    public void notifyViews() {
+        while (hasPending(this.state.get()) && this.publishing.compareAndSet(false, true)) {
+            try {
+                Snapshot current;
+                do {
+                    current = this.state.get();
+                } while (!this.state.compareAndSet(current, current.withoutPending()));
+                deliver(current);
+            } finally {
+                this.publishing.set(false);
+            }
+            // Loop again for changes committed while delivering
+        }
+    }
+
+    private static boolean hasPending(Snapshot snapshot) {
+        return snapshot.pending != null || snapshot.refreshPending;
+    }
+
+    private void deliver(Snapshot snapshot) {
+        List<TicTacToeEvent> events = new ArrayList<>();
+        for (Change change = snapshot.pending; change != null; change = change.next) {
+            events.add(change.event);
+        }
+        Collections.reverse(events);
+        // The refresh is for the new game, before any move in it: its first
+        // mover is the player to move after the reset
+        if (snapshot.refreshPending) {
+            char turn = (events.isEmpty() || events.get(0).getMark() == ' ') ? snapshot.getTurn() : events.get(0).getMark();
+            events.add(0, TicTacToeEvent.refresh(TicTacToeEnum.IN_PROGRESS, turn));
+        }
+        for (TicTacToeObserver view : this.views) {
+            for (TicTacToeEvent event : events) {
+                view.update(event);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.state.get().toString();
+    }
+
+    /** Contention example: several threads play random moves into one game
+     * while another checks that every snapshot it reads is consistent, then
+     * the moves per second and retries are reported.
+     *
+     * @param args threads (default 4), seconds (default 5), size (default 15)
+     *             and numToWin (default 5)
+     * @throws InterruptedException
+     */
+    public static void main(String args[]) throws InterruptedException {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        int size = (args.length > 2) ? Integer.parseInt(args[2]) : 15;
+        int numToWin = (args.length > 3) ? Integer.parseInt(args[3]) : Math.min(5, size);
+
+        ConcurrentTicTacToeModel game = new ConcurrentTicTacToeModel(size, numToWin, 'X');
+        LongAdder events = new LongAdder();
+        game.addView(event -> events.increment());
+        LongAdder moves = new LongAdder();
+        LongAdder torn = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                SplittableRandom random = new SplittableRandom();
+                while (running.get()) {
+                    Snapshot snapshot = game.getSnapshot();
+                    if (snapshot.getGameState() != TicTacToeEnum.IN_PROGRESS) {
+                        game.reset(random.nextBoolean() ? 'X' : 'O');
+                    } else {
+                        try {
+                            game.takeTurn(random.nextInt(size), random.nextInt(size));
+                            moves.increment();
+                        } catch (IllegalArgumentException e) {
+                            // Cell taken or game over since the snapshot was read
+                        }
+                    }
+                    game.notifyViews();
+                }
+            }, "Player " + t));
+        }
+        workers.add(new Thread(() -> {
+            while (running.get()) {
+                Snapshot snapshot = game.getSnapshot();
+                int marks = 0;
+                for (char mark : snapshot.toString().toCharArray()) {
+                    if (mark != ' ') marks++;
+                }
+                if (marks != snapshot.getMarkCount()) torn.increment();
+            }
+        }, "Reader"));
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        System.out.printf("%d threads, %dx%d with %d to win: %d moves (%.0f moves/s), %d retries, %d events, %d torn reads%n",
+                threads, size, size, numToWin, moves.sum(), moves.sum() / (double) seconds, game.getRetryCount(),
+                events.sum(), torn.sum());
+    }
+}
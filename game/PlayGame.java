@@ -1,3 +1,9 @@
+package game;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * Provides the main method to begin execution of TicTacToe game.
  *
@@ -9,11 +15,34 @@ public class PlayGame {
 
     public static void main(String[] args){
 
+        // JMX and periodic reports, when started with -Dtictactoe.metrics=true
+        TicTacToeMetrics.install();
+
+        // Resume the journaled game if the last session ended mid-game
+        Path journalPath = Paths.get(System.getProperty("tictactoe.journal", "tictactoe.journal"));
+        try {
+            TicTacToeModel recovered = TicTacToeJournal.recover(journalPath);
+            if (recovered != null && recovered.getGameState() == TicTacToeEnum.IN_PROGRESS) {
+                game = recovered;
+            }
+        } catch (IOException e) {
+            System.out.println("Recover journal - IOException caught.");
+        }
+
         // Randomize starting player and initialize game board
-        if (((int) Math.random() % 2) == 0) {
-            game = new TicTacToeModel('X');
-        } else {
-            game = new TicTacToeModel('O');
+        if (game == null) {
+            if (((int) Math.random() % 2) == 0) {
+                game = new TicTacToeModel('X');
+            } else {
+                game = new TicTacToeModel('O');
+            }
+        }
+
+        // Journal every move from now on
+        try {
+            new TicTacToeJournal(journalPath, game);
+        } catch (IOException e) {
+            System.out.println("Open journal - IOException caught.");
         }
 
         // Initialize controller
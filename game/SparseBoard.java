@@ -0,0 +1,289 @@
+package game;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * TicTacToeBoard storing only the marked cells, in an open-addressing hash
+ * table from cell (row * size + column, as a long) to mark. Memory and
+ * clear() cost grow with the number of marks rather than with the grid,
+ * so a 100,000 x 100,000 game where a few thousand cells are played costs
+ * a few kilobytes.
+ *
+ * Collisions are resolved by linear probing, and removing a mark shifts
+ * the following entries of its run back, so lookups never meet
+ * tombstones. The table doubles when it is half full.
+ */
+public class SparseBoard implements TicTacToeBoard {
+
+    private static final long serialVersionUID = 1L;
+    private static final long EMPTY = -1L;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size;
+    private long[] keys;    // Cell of each slot, EMPTY if free
+    private byte[] marks;   // 'X' or 'O' of each used slot
+    private int count;      // Used slots
+
+    /**
+     * Constructor for an empty size x size SparseBoard.
+     *
+     * @param size of the square grid
+     */
+    public SparseBoard(int size) {
+        this.size = size;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.marks = new byte[capacity];
+        this.count = 0;
+    }
+
+    /**
+     * Returns the home slot of a cell (Fibonacci hashing, the table length
+     * being a power of two).
+     */
+    private int slotOf(long cell) {
+        return (int) ((cell * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(this.keys.length)));
+    }
+
+    /**
+     * Returns the slot holding a cell, or the free slot ending its probe run.
+     */
+    private int find(long cell) {
+        int mask = this.keys.length - 1;
+        int slot = slotOf(cell);
+        while (this.keys[slot] != EMPTY && this.keys[slot] != cell) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    @Override
+    public int getSize() { return this.size; }
+
+    /**
+     * Returns the number of marked cells.
+     *
+     * @return marks stored
+     */
+    public int getMarkCount() { return this.count; }
+
+    @Override
+    public long[] getMarkedCells() {
+        long[] cells = new long[this.count];
+        int n = 0;
+        for (long key : this.keys) {
+            if (key != EMPTY) cells[n++] = key;
+        }
+        return cells;
+    }
+
+    @Override
+    public char getMark(int row, int column) {
+        int slot = find((long) row * this.size + column);
+        return (this.keys[slot] == EMPTY) ? ' ' : (char) this.marks[slot];
+    }
+
+    @Override
+    public void setMark(int row, int column, char mark) {
+        long cell = (long) row * this.size + column;
+        int slot = find(cell);
+        if (mark == ' ') {
+            if (this.keys[slot] != EMPTY) remove(slot);
+            return;
+        }
+        if (this.keys[slot] == EMPTY) {
+            if (2 * (this.count + 1) > this.keys.length) {
+                grow();
+                slot = find(cell);
+            }
+            this.keys[slot] = cell;
+            this.count++;
+        }
+        this.marks[slot] = (byte) mark;
+    }
+
+    /**
+     * Empties a slot and moves back later entries of its probe run that
+     * could no longer be found past the gap.
+     */
+    private void remove(int slot) {
+        int mask = this.keys.length - 1;
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (this.keys[next] != EMPTY) {
+            int home = slotOf(this.keys[next]);
+            // Move the entry if its home slot is not between the gap and it (cyclically)
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                this.keys[gap] = this.keys[next];
+                this.marks[gap] = this.marks[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.keys[gap] = EMPTY;
+        this.count--;
+    }
+
+    private void grow() {
+        long[] oldKeys = this.keys;
+        byte[] oldMarks = this.marks;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = find(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.marks[slot] = oldMarks[i];
+                this.count++;
+            }
+        }
+    }
+
+    /**
+     * Empties the board in time proportional to the marks it held: a
+     * table grown for a large game is dropped rather than cleared.
+     */
+    @Override
+    public void clear() {
+        if (this.keys.length > INITIAL_CAPACITY) {
+            allocate(INITIAL_CAPACITY);
+        } else {
+            Arrays.fill(this.keys, EMPTY);
+            this.count = 0;
+        }
+    }
+
+    /**
+     * Plays the same random games, with undos, on a sparse and a dense
+     * model and checks that they agree on every cell, the marked cells and
+     * the game state after each change.
+     *
+     * @param games number of games
+     * @param random
+     * @throws IllegalStateException if the models disagree
+     */
+    private static void compareWithBitBoard(int games, SplittableRandom random) throws IllegalStateException {
+        for (int g = 0; g < games; g++) {
+            int size = 3 + random.nextInt(13);
+            int numToWin = Math.min(size, 3 + random.nextInt(3));
+            TicTacToeModel sparse = new TicTacToeModel(size, numToWin, 'X', true);
+            TicTacToeModel dense = new TicTacToeModel(size, numToWin, 'X', false);
+            ArrayDeque<Integer> moves = new ArrayDeque<>();
+            while (sparse.getGameState() == TicTacToeEnum.IN_PROGRESS) {
+                if (!moves.isEmpty() && random.nextInt(4) == 0) {
+                    int cell = moves.pop();
+                    sparse.undoTurn(cell / size, cell % size);
+                    dense.undoTurn(cell / size, cell % size);
+                } else {
+                    int row = random.nextInt(size);
+                    int column = random.nextInt(size);
+                    if (dense.getMark(row, column) != ' ') continue;
+                    sparse.takeTurn(row, column);
+                    dense.takeTurn(row, column);
+                    moves.push(row * size + column);
+                }
+                long[] sparseCells = sparse.getMarkedCells();
+                long[] denseCells = dense.getMarkedCells();
+                Arrays.sort(sparseCells);
+                Arrays.sort(denseCells);
+                if (sparse.getGameState() != dense.getGameState() || !Arrays.equals(sparseCells, denseCells))
+                    throw new IllegalStateException("Sparse and dense games differ in game " + g + ".");
+                for (int row = 0; row < size; row++) {
+                    for (int column = 0; column < size; column++) {
+                        if (sparse.getMark(row, column) != dense.getMark(row, column))
+                            throw new IllegalStateException("Sparse and dense games differ at " + row + "," + column
+                                    + " in game " + g + ".");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes a game in the save format, decodes it again and checks that
+     * nothing changed.
+     *
+     * @param game
+     * @return size of the encoded game in bytes
+     * @throws IOException
+     * @throws IllegalStateException if the decoded game differs
+     */
+    private static int checkRoundTrip(TicTacToeModel game) throws IOException, IllegalStateException {
+        ByteBuffer saved = TicTacToeFile.encode(game);
+        int bytes = saved.remaining();
+        TicTacToeModel copy = TicTacToeFile.decode(saved, "round trip");
+        long[] cells = game.getMarkedCells();
+        long[] copyCells = copy.getMarkedCells();
+        Arrays.sort(cells);
+        Arrays.sort(copyCells);
+        boolean same = copy.getSize() == game.getSize() && copy.getNumToWin() == game.getNumToWin()
+                && copy.getTurn() == game.getTurn() && copy.getGameState() == game.getGameState()
+                && Arrays.equals(cells, copyCells);
+        for (int i = 0; same && i < cells.length; i++) {
+            int row = (int) (cells[i] / game.getSize());
+            int column = (int) (cells[i] % game.getSize());
+            same = copy.getMark(row, column) == game.getMark(row, column);
+        }
+        if (!same)
+            throw new IllegalStateException("Saved game differs from the original.");
+        return bytes;
+    }
+
+    /** Huge board example: checks sparse games against dense ones on random
+     * games with undos, plays random moves around the centre of a
+     * 100,000 x 100,000 game, five in a row to win, checks that the game
+     * survives a save and load, then times reset()
+     *
+     * @param args grid size (default 100000), moves (default 100000) and
+     *             games compared with a dense board (default 3000)
+     * @throws IOException
+     */
+    public static void main(String args[]) throws IOException {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int moves = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+        int compared = (args.length > 2) ? Integer.parseInt(args[2]) : 3000;
+        Runtime runtime = Runtime.getRuntime();
+        SplittableRandom random = new SplittableRandom(1);
+        compareWithBitBoard(compared, random);
+        System.out.println("Sparse and dense boards agree on " + compared + " random games with undos");
+
+        TicTacToeModel game = new TicTacToeModel(size, 5, 'X');
+        int spread = (int) Math.min(size, 4 * Math.sqrt(moves) + 1);
+        int origin = (size - spread) / 2;
+
+        long start = System.nanoTime();
+        int played = 0;
+        int games = 1;
+        while (played < moves) {
+            int row = origin + random.nextInt(spread);
+            int column = origin + random.nextInt(spread);
+            if (game.getMark(row, column) != ' ') continue;
+            game.takeTurn(row, column);
+            played++;
+            if (game.getGameState() != TicTacToeEnum.IN_PROGRESS) {
+                if (played < moves) {
+                    game.reset('X');
+                    games++;
+                }
+            }
+        }
+        long playTime = System.nanoTime() - start;
+        System.gc();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        int marks = game.getMarkCount();
+        int saved = checkRoundTrip(game);
+        start = System.nanoTime();
+        game.reset('X');
+        long resetTime = System.nanoTime() - start;
+        System.out.printf("%dx%d (sparse=%b): %d moves in %d games, %.2f us per move%n", size, size, game.isSparse(),
+                moves, games, playTime / 1e3 / moves);
+        System.out.printf("Heap used: %.1f MB with %d marks on the board; reset: %.1f us; dense bitboard: %.1f MB%n",
+                used / 1e6, marks, resetTime / 1e3, (double) size * size / 4 / 1e6);
+        System.out.printf("Saved and loaded back unchanged in %d bytes%n", saved);
+    }
+}
@@ -0,0 +1,685 @@
+package game;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Computer player searching the game tree with iterative deepening
+ * alpha-beta (negamax), a Zobrist-hashed transposition table and history
+ * heuristic move ordering. Each move is answered within a configurable
+ * time budget with the best move of the deepest completed iteration.
+ *
+ * With more than one thread, every iteration searches the first root move
+ * alone and then splits the remaining root moves over a ForkJoinPool
+ * (Young Brothers Wait at the root). The threads share the transposition
+ * table and the best root value found so far; each keeps its own board
+ * copy and buffers, so the search does not allocate.
+ *
+ * Leaf evaluations are cached by canonical hash, so a position reached in
+ * any of its 8 symmetric forms is only evaluated once. Games with a
+ * tablebase file at TicTacToeTablebase.defaultPath() are played straight
+ * from the tablebase without searching, and openings covered by a book at
+ * TicTacToeOpeningBook.defaultPath() are played from the book. Grids of
+ * more than MAX_SEARCH_CELLS cells are played by TicTacToeGreedyPlayer:
+ * move generation scans the whole grid at every node, so the search would
+ * overrun its time budget there, and its boards would outgrow the heap.
+ */
+public class TicTacToeAI implements TicTacToePlayer {
+
+    public static final int WIN = 1000000;      // Value of a win at the root
+    public static final long MAX_SEARCH_CELLS = 1L << 12;     // 64 x 64
+    private static final int MAX_PLY = 128;
+    private static final int MATE_BOUND = WIN - 1000;
+    private static final int NEIGHBOUR_DISTANCE = 2;
+    private static final int NEIGHBOURS = (2 * NEIGHBOUR_DISTANCE + 1) * (2 * NEIGHBOUR_DISTANCE + 1) - 1;
+    private static final int CHECK_TIME_NODES = 1023;
+    private static final int EVALUATION_CACHE_CAPACITY = 1 << 16;
+
+    private long timeBudgetNanos;
+    private int maxDepth = MAX_PLY;
+    private final TicTacToeTranspositionTable table;
+    private final TicTacToePlayer largeGridPlayer = new TicTacToeGreedyPlayer();
+
+    // Tablebase of the last game played, looked up again when the game changes
+    private boolean useTablebase = true;
+    private TicTacToeTablebase tablebase;
+    private int tablebaseSize = -1;
+    private int tablebaseNumToWin = -1;
+
+    // Opening book of the last game played, looked up again when the game changes
+    private boolean useBook = true;
+    private TicTacToeOpeningBook book;
+    private int bookSize = -1;
+    private int bookNumToWin = -1;
+
+    // Parallel search
+    private int threads = 1;
+    private ForkJoinPool pool;
+    private Searcher[] searchers;
+
+    // Shared per-search state
+    private volatile long deadline;
+    private volatile boolean timeUp;
+
+    // Statistics of the last search
+    private long nodes;
+    private long searchNanos;
+    private int completedDepth;
+    private int lastScore;
+    private long tableProbes;
+    private long tableHits;
+
+    /**
+     * Default constructor: one second per move and a 1M entry table.
+     */
+    public TicTacToeAI() {
+        this(1000, 1 << 20);
+    }
+
+    /**
+     * Constructor for a search-based computer player.
+     *
+     * @param timeBudgetMillis maximum thinking time per move
+     * @param tableCapacity maximum number of transposition table entries
+     * @throws IllegalArgumentException
+     */
+    public TicTacToeAI(long timeBudgetMillis, int tableCapacity) throws IllegalArgumentException {
+        setTimeBudget(timeBudgetMillis);
+        this.table = new TicTacToeTranspositionTable(tableCapacity);
+    }
+
+    /**
+     * Sets the maximum thinking time per move.
+     *
+     * @param timeBudgetMillis
+     * @throws IllegalArgumentException
+     */
+    public void setTimeBudget(long timeBudgetMillis) throws IllegalArgumentException {
+        if (timeBudgetMillis <= 0)
+            throw new IllegalArgumentException("Time budget must be positive.");
+        this.timeBudgetNanos = timeBudgetMillis * 1000000L;
+    }
+
+    /**
+     * Limits the iterative deepening depth, e.g. to time searches to a fixed depth.
+     *
+     * @param maxDepth
+     * @throws IllegalArgumentException
+     */
+    public void setMaxDepth(int maxDepth) throws IllegalArgumentException {
+        if (maxDepth < 1 || maxDepth > MAX_PLY)
+            throw new IllegalArgumentException("Depth must be between 1 and " + MAX_PLY + ".");
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Sets the number of threads searching each move.
+     *
+     * @param threads 1 for a sequential search
+     * @throws IllegalArgumentException
+     */
+    public synchronized void setThreads(int threads) throws IllegalArgumentException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be positive.");
+        if (threads != this.threads) {
+            shutdown();
+            this.threads = threads;
+            this.searchers = null;
+        }
+    }
+
+    /**
+     * Stops the worker threads of a parallel search. They are restarted by the next search.
+     */
+    public synchronized void shutdown() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+            this.pool = null;
+        }
+    }
+
+    /**
+     * Enables or disables playing from tablebase files when one exists for the game.
+     *
+     * @param useTablebase
+     */
+    public synchronized void setUseTablebase(boolean useTablebase) {
+        this.useTablebase = useTablebase;
+    }
+
+    /**
+     * Enables or disables playing from opening book files when one exists for the game.
+     *
+     * @param useBook
+     */
+    public synchronized void setUseBook(boolean useBook) {
+        this.useBook = useBook;
+    }
+
+    @Override
+    public int[] chooseMove(TicTacToeModel model) throws IllegalArgumentException {
+        if (model.getGameState() != TicTacToeEnum.IN_PROGRESS)
+            throw new IllegalArgumentException("Game is over.");
+        TicTacToeTablebase tablebase = findTablebase(model);
+        boolean largeGrid = (long) model.getSize() * model.getSize() > MAX_SEARCH_CELLS;
+        if (tablebase != null || largeGrid) {
+            this.nodes = 0;
+            this.searchNanos = 0;
+            this.completedDepth = 0;
+            this.tableProbes = 0;
+            return largeGrid ? this.largeGridPlayer.chooseMove(model) : tablebase.chooseMove(model);
+        }
+        TicTacToeSearchBoard board = new TicTacToeSearchBoard(model);
+        TicTacToeOpeningBook book = findBook(model);
+        int cell = (book != null) ? book.probe(board) : -1;
+        if (cell >= 0) {
+            this.nodes = 0;
+            this.searchNanos = 0;
+            this.completedDepth = 0;
+            this.tableProbes = 0;
+        } else {
+            cell = search(board);
+        }
+        return new int[] {cell / board.getSize(), cell % board.getSize()};
+    }
+
+    /**
+     * Returns the tablebase of the game of a model, mapping it the first time
+     * the game is seen.
+     *
+     * @param model
+     * @return tablebase, or null if disabled or none exists
+     */
+    private synchronized TicTacToeTablebase findTablebase(TicTacToeModel model) {
+        if (!this.useTablebase) return null;
+        if (model.getSize() != this.tablebaseSize || model.getNumToWin() != this.tablebaseNumToWin) {
+            this.tablebaseSize = model.getSize();
+            this.tablebaseNumToWin = model.getNumToWin();
+            this.tablebase = TicTacToeTablebase.find(this.tablebaseSize, this.tablebaseNumToWin);
+        }
+        return this.tablebase;
+    }
+
+    /**
+     * Returns the opening book of the game of a model, looking for the file
+     * the first time the game is seen.
+     *
+     * @param model
+     * @return opening book, or null if disabled or none exists
+     */
+    private synchronized TicTacToeOpeningBook findBook(TicTacToeModel model) {
+        if (!this.useBook) return null;
+        if (model.getSize() != this.bookSize || model.getNumToWin() != this.bookNumToWin) {
+            this.bookSize = model.getSize();
+            this.bookNumToWin = model.getNumToWin();
+            this.book = TicTacToeOpeningBook.find(this.bookSize, this.bookNumToWin);
+        }
+        return this.book;
+    }
+
+    /**
+     * Searches a position by iterative deepening until the time budget runs
+     * out, the game tree is exhausted or a forced result is found.
+     *
+     * @param board position to search, left unchanged
+     * @return best cell for the player to move
+     */
+    public synchronized int search(TicTacToeSearchBoard board) {
+        long start = System.nanoTime();
+        prepare(board);
+        Searcher main = this.searchers[0];
+
+        int bestMove = -1;
+        int remaining = board.getCellCount() - board.getMarkCount();
+        int depthLimit = Math.min(remaining, this.maxDepth);
+        for (int depth = 1; depth <= depthLimit; depth++) {
+            int score = (this.threads == 1) ? main.negamax(depth, 0, -WIN, WIN) : splitRoot(depth);
+            if (this.timeUp) break;
+            bestMove = main.rootBestMove;
+            this.lastScore = score;
+            this.completedDepth = depth;
+            // Stop once the result is proven
+            if (Math.abs(score) >= MATE_BOUND) break;
+        }
+        if (bestMove < 0) {
+            // Not even depth 1 completed - take the first candidate
+            bestMove = main.generateMoves(0, -1) > 0 ? main.moveBuffers[0][0] : -1;
+        }
+
+        this.searchNanos = System.nanoTime() - start;
+        this.nodes = 0;
+        this.tableProbes = 0;
+        this.tableHits = 0;
+        for (Searcher searcher : this.searchers) {
+            this.nodes += searcher.nodes;
+            this.tableProbes += searcher.probes;
+            this.tableHits += searcher.hits;
+        }
+        return bestMove;
+    }
+
+    /**
+     * Resets the per-search state, reusing searchers when the board size is unchanged.
+     *
+     * @param board
+     */
+    private void prepare(TicTacToeSearchBoard board) {
+        if (this.searchers == null || this.searchers[0].board.getSize() != board.getSize()
+                || this.searchers[0].board.getNumToWin() != board.getNumToWin()) {
+            this.searchers = new Searcher[this.threads];
+            for (int t = 0; t < this.threads; t++) {
+                this.searchers[t] = new Searcher(board.getSize(), board.getNumToWin(),
+                        EVALUATION_CACHE_CAPACITY / this.threads);
+            }
+        }
+        if (this.threads > 1 && this.pool == null) {
+            this.pool = new ForkJoinPool(this.threads);
+        }
+        for (Searcher searcher : this.searchers) {
+            searcher.reset(board);
+        }
+        this.table.nextGeneration();
+        this.completedDepth = 0;
+        this.timeUp = false;
+        this.deadline = System.nanoTime() + this.timeBudgetNanos;
+    }
+
+    /**
+     * Searches one iteration in parallel: the first root move sets the bound,
+     * then the other root moves are dealt out round-robin to the searchers.
+     *
+     * @param depth
+     * @return value of the root position
+     */
+    private int splitRoot(int depth) {
+        Searcher main = this.searchers[0];
+        int count = main.generateMoves(0, main.rootBestMove);
+        int[] moves = main.moveBuffers[0];
+        main.rootBestMove = -1;
+        if (count == 0) return 0;
+
+        // Eldest brother first, with the full window
+        int best = main.searchRootMove(moves[0], depth, -WIN);
+        int bestMove = moves[0];
+        AtomicInteger alpha = new AtomicInteger(best);
+
+        List<ForkJoinTask<int[]>> tasks = new ArrayList<>(this.threads);
+        for (int t = 0; t < this.threads && t + 1 < count; t++) {
+            Searcher searcher = this.searchers[t];
+            int first = t + 1;
+            tasks.add(this.pool.submit(() -> searcher.searchRootMoves(moves, first, count, depth, alpha)));
+        }
+        for (ForkJoinTask<int[]> task : tasks) {
+            int[] result = task.join();
+            if (result[1] >= 0 && result[0] > best) {
+                best = result[0];
+                bestMove = result[1];
+            }
+        }
+        main.rootBestMove = bestMove;
+        return best;
+    }
+
+    /**
+     * Search state owned by one thread: a board copy, move buffers, history
+     * table, evaluation cache and counters, all allocated once and reused
+     * between searches.
+     */
+    private class Searcher {
+
+        private final TicTacToeSearchBoard board;
+        private final int[][] moveBuffers;
+        private final int[] history;
+        private int[] rootMoves;
+        private final TicTacToePositionCache cache;
+        private int rootBestMove = -1;
+        private long nodes;
+        private long probes;
+        private long hits;
+
+        Searcher(int size, int numToWin, int cacheCapacity) {
+            this.board = new TicTacToeSearchBoard(size, numToWin, TicTacToeSearchBoard.X);
+            this.moveBuffers = new int[MAX_PLY + 1][];     // Allocated by generateMoves()
+            this.history = new int[size * size];
+            this.rootMoves = new int[0];
+            this.cache = new TicTacToePositionCache(cacheCapacity);
+        }
+
+        /**
+         * Copies the root position and clears the counters and history.
+         *
+         * @param root
+         */
+        void reset(TicTacToeSearchBoard root) {
+            this.board.copyFrom(root);
+            this.rootBestMove = -1;
+            this.nodes = 0;
+            this.probes = 0;
+            this.hits = 0;
+            // Seed move ordering with a preference for central cells
+            int size = this.board.getSize();
+            for (int cell = 0; cell < this.history.length; cell++) {
+                int dRow = Math.abs(2 * (cell / size) - (size - 1));
+                int dColumn = Math.abs(2 * (cell % size) - (size - 1));
+                this.history[cell] = 2 * size - Math.max(dRow, dColumn);
+            }
+        }
+
+        /**
+         * Searches every stride-th root move starting at first, narrowing the
+         * window with the best value found by any thread.
+         *
+         * @return {best value, best move or -1 if no move improved the bound}
+         */
+        int[] searchRootMoves(int[] moves, int first, int count, int depth, AtomicInteger alpha) {
+            // Take a private copy of the shared move list before it is reused
+            if (this.rootMoves.length < count) this.rootMoves = new int[count];
+            System.arraycopy(moves, 0, this.rootMoves, 0, count);
+            int best = -WIN;
+            int bestMove = -1;
+            for (int i = first; i < count && !timeUp; i += threads) {
+                int bound = alpha.get();
+                int score = searchRootMove(this.rootMoves[i], depth, bound);
+                if (score > bound) {
+                    alpha.accumulateAndGet(score, Math::max);
+                    if (score > best) {
+                        best = score;
+                        bestMove = this.rootMoves[i];
+                    }
+                }
+            }
+            return new int[] {best, bestMove};
+        }
+
+        /**
+         * Searches a single root move with the window (alpha, WIN).
+         *
+         * @return value of the move for the player to move at the root
+         */
+        int searchRootMove(int move, int depth, int alpha) {
+            int score;
+            if (this.board.play(move)) {
+                score = WIN - 1;
+            } else if (this.board.isFull()) {
+                score = 0;
+            } else {
+                score = -negamax(depth - 1, 1, -WIN, -alpha);
+            }
+            this.board.undo();
+            return score;
+        }
+
+        /**
+         * Negamax alpha-beta search of the position for the player to move.
+         *
+         * @param depth remaining depth before the heuristic evaluation
+         * @param ply distance from the root
+         * @param alpha
+         * @param beta
+         * @return value of the position for the player to move
+         */
+        int negamax(int depth, int ply, int alpha, int beta) {
+            if ((++this.nodes & CHECK_TIME_NODES) == 0 && System.nanoTime() - deadline > 0) {
+                timeUp = true;
+            }
+            if (timeUp) return 0;
+
+            int alphaOrig = alpha;
+            long hash = this.board.getHash();
+            int tableMove = -1;
+            this.probes++;
+            long entry = table.probe(hash);
+            if (entry != 0L) {
+                this.hits++;
+                tableMove = TicTacToeTranspositionTable.move(entry);
+                if (ply > 0 && TicTacToeTranspositionTable.depth(entry) >= depth) {
+                    int value = fromTable(TicTacToeTranspositionTable.value(entry), ply);
+                    int flag = TicTacToeTranspositionTable.flag(entry);
+                    if (flag == TicTacToeTranspositionTable.EXACT) return value;
+                    if (flag == TicTacToeTranspositionTable.LOWER && value >= beta) return value;
+                    if (flag == TicTacToeTranspositionTable.UPPER && value <= alpha) return value;
+                }
+            }
+            if (depth == 0) {
+                return evaluate();
+            }
+
+            int count = generateMoves(ply, tableMove);
+            int[] moves = this.moveBuffers[ply];
+            int best = -WIN;
+            int bestMove = -1;
+            for (int i = 0; i < count; i++) {
+                int move = moves[i];
+                int score;
+                if (this.board.play(move)) {
+                    score = WIN - (ply + 1);
+                } else if (this.board.isFull()) {
+                    score = 0;
+                } else {
+                    score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+                }
+                this.board.undo();
+                if (timeUp) return 0;
+
+                if (score > best) {
+                    best = score;
+                    bestMove = move;
+                    if (ply == 0) this.rootBestMove = move;
+                }
+                if (best > alpha) alpha = best;
+                if (alpha >= beta) {
+                    this.history[move] += depth * depth;
+                    break;
+                }
+            }
+
+            int flag = (best <= alphaOrig) ? TicTacToeTranspositionTable.UPPER
+                    : (best >= beta) ? TicTacToeTranspositionTable.LOWER
+                    : TicTacToeTranspositionTable.EXACT;
+            table.store(hash, toTable(best, ply), depth, flag, bestMove);
+            return best;
+        }
+
+        /**
+         * Returns the heuristic value of the position, from the cache when
+         * the position or one of its symmetric images was evaluated before.
+         *
+         * @return value of the position for the player to move
+         */
+        int evaluate() {
+            long key = TicTacToeSymmetry.canonicalHash(this.board);
+            int value = this.cache.get(key);
+            if (value == TicTacToePositionCache.MISSING) {
+                value = Math.max(-MATE_BOUND + 1, Math.min(MATE_BOUND - 1, this.board.evaluate()));
+                this.cache.put(key, value);
+            }
+            return value;
+        }
+
+        /**
+         * Fills the move buffer of a ply with the candidate moves, table move
+         * first and the rest by descending history score. On boards larger
+         * than 8 x 8 only cells near existing marks are considered, and the
+         * buffer is sized from the number of such cells rather than the grid.
+         *
+         * @param ply
+         * @param tableMove best move stored in the table, or -1
+         * @return number of moves in the buffer
+         */
+        int generateMoves(int ply, int tableMove) {
+            boolean local = this.board.getSize() > 8 && this.board.getMarkCount() > 0;
+            int empty = this.board.getCellCount() - this.board.getMarkCount();
+            int capacity = local ? (int) Math.min(empty, (long) this.board.getMarkCount() * NEIGHBOURS + 1) : empty;
+            int[] moves = this.moveBuffers[ply];
+            if (moves == null || moves.length < capacity) {
+                int grown = (moves == null) ? 0 : Math.min(2 * moves.length, this.board.getCellCount());
+                moves = this.moveBuffers[ply] = new int[Math.max(capacity, grown)];
+            }
+            int count = 0;
+            for (int cell = 0; cell < this.board.getCellCount(); cell++) {
+                if (this.board.getMark(cell) != TicTacToeSearchBoard.EMPTY) continue;
+                if (local && cell != tableMove && !this.board.hasNeighbour(cell, NEIGHBOUR_DISTANCE)) continue;
+                // Insertion sort by history score, table move always first
+                int key = (cell == tableMove) ? Integer.MAX_VALUE : this.history[cell];
+                int i = count++;
+                while (i > 0 && ((moves[i - 1] == tableMove) ? Integer.MAX_VALUE : this.history[moves[i - 1]]) < key) {
+                    moves[i] = moves[i - 1];
+                    i--;
+                }
+                moves[i] = cell;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Converts a win/loss value from distance-to-root to distance-to-node for storage.
+     */
+    private static int toTable(int value, int ply) {
+        if (value >= MATE_BOUND) return value + ply;
+        if (value <= -MATE_BOUND) return value - ply;
+        return value;
+    }
+
+    /**
+     * Converts a stored win/loss value back to distance-to-root.
+     */
+    private static int fromTable(int value, int ply) {
+        if (value >= MATE_BOUND) return value - ply;
+        if (value <= -MATE_BOUND) return value + ply;
+        return value;
+    }
+
+    public TicTacToeTranspositionTable getTable() { return this.table; }
+
+    public int getThreads() { return this.threads; }
+
+    public long getNodes() { return this.nodes; }
+
+    public int getCompletedDepth() { return this.completedDepth; }
+
+    public int getLastScore() { return this.lastScore; }
+
+    public double getSearchMillis() { return this.searchNanos / 1e6; }
+
+    /**
+     * Returns the evaluation cache lookups answered from the cache since the searchers were created.
+     *
+     * @return hits summed over all threads
+     */
+    public synchronized long getCacheHits() {
+        long hits = 0;
+        if (this.searchers != null) {
+            for (Searcher searcher : this.searchers) hits += searcher.cache.getHits();
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the evaluation cache lookups that missed since the searchers were created.
+     *
+     * @return misses summed over all threads
+     */
+    public synchronized long getCacheMisses() {
+        long misses = 0;
+        if (this.searchers != null) {
+            for (Searcher searcher : this.searchers) misses += searcher.cache.getMisses();
+        }
+        return misses;
+    }
+
+    /**
+     * Returns the positions evicted from the evaluation cache since the searchers were created.
+     *
+     * @return evictions summed over all threads
+     */
+    public synchronized long getCacheEvictions() {
+        long evictions = 0;
+        if (this.searchers != null) {
+            for (Searcher searcher : this.searchers) evictions += searcher.cache.getEvictions();
+        }
+        return evictions;
+    }
+
+    /**
+     * Returns the search speed of the last move.
+     *
+     * @return nodes searched per second
+     */
+    public double getNodesPerSecond() {
+        return (this.searchNanos == 0) ? 0.0 : this.nodes * 1e9 / this.searchNanos;
+    }
+
+    /**
+     * Returns the fraction of transposition table probes that hit during the last move.
+     *
+     * @return hit rate between 0 and 1
+     */
+    public double getTableHitRate() {
+        return (this.tableProbes == 0) ? 0.0 : (double) this.tableHits / this.tableProbes;
+    }
+
+    /**
+     * Times a fixed-depth search of the empty board with one thread and with
+     * the given number of threads, and prints the speedup of the parallel search.
+     *
+     * @param size
+     * @param numToWin
+     * @param depth
+     * @param threads
+     */
+    public static void compareSpeedup(int size, int numToWin, int depth, int threads) {
+        TicTacToeModel game = new TicTacToeModel(size, numToWin, 'X');
+        double[] millis = new double[2];
+        int[] counts = {1, threads};
+        for (int run = 0; run < 2; run++) {
+            TicTacToeAI ai = new TicTacToeAI(Long.MAX_VALUE / 1000000L, 1 << 22);
+            ai.setMaxDepth(depth);
+            ai.setUseTablebase(false);
+            ai.setUseBook(false);
+            ai.setThreads(counts[run]);
+            int[] move = ai.chooseMove(game);
+            millis[run] = ai.getSearchMillis();
+            System.out.printf("%d thread(s): move (%d,%d) score=%d nodes=%d %.0f nodes/s tt-hit=%.1f%% %.1fms%n",
+                    counts[run], move[0], move[1], ai.getLastScore(), ai.getNodes(), ai.getNodesPerSecond(),
+                    100 * ai.getTableHitRate(), millis[run]);
+            ai.shutdown();
+        }
+        System.out.printf("Speedup: %.2fx%n", millis[0] / millis[1]);
+    }
+
+    /** Self-play tuning example: prints search statistics for every move
+     *
+     * @param args size, numToWin, time budget in milliseconds and threads
+     *             (default 4 4 500 1), or "speedup" size numToWin depth threads
+     */
+    public static void main(String args[]) {
+        if (args.length > 0 && args[0].equals("speedup")) {
+            compareSpeedup(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+            return;
+        }
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        int numToWin = (args.length > 1) ? Integer.parseInt(args[1]) : size;
+        long budget = (args.length > 2) ? Long.parseLong(args[2]) : 500;
+        int threads = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+        TicTacToeModel game = new TicTacToeModel(size, numToWin, 'X');
+        TicTacToeAI ai = new TicTacToeAI(budget, 1 << 22);
+        ai.setUseTablebase(false);
+        ai.setUseBook(false);
+        ai.setThreads(threads);
+        while (game.getGameState() == TicTacToeEnum.IN_PROGRESS) {
+            char player = game.getTurn();
+            int[] move = ai.chooseMove(game);
+            game.takeTurn(move[0], move[1]);
+            System.out.printf("%c (%d,%d) depth=%d score=%d nodes=%d %.0f nodes/s tt-hit=%.1f%% %.1fms%n",
+                    player, move[0], move[1], ai.getCompletedDepth(), ai.getLastScore(), ai.getNodes(),
+                    ai.getNodesPerSecond(), 100 * ai.getTableHitRate(), ai.getSearchMillis());
+        }
+        System.out.printf("Evaluation cache: %d hits, %d misses, %d evictions%n",
+                ai.getCacheHits(), ai.getCacheMisses(), ai.getCacheEvictions());
+        ai.shutdown();
+        System.out.println(game.getGameState());
+    }
+}
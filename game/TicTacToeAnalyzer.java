@@ -0,0 +1,304 @@
+package game;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Headless analysis of the game space of a TicTacToe variant: the number
+ * of distinct positions reachable from the empty grid ('X' first) at each
+ * depth, how many of them end the game and how, and the branching factor
+ * of the rest.
+ *
+ * Positions are told apart by canonical Zobrist hash (TicTacToeSymmetry),
+ * so the 8 symmetric images of a position count once, and each position
+ * is expanded once however many move orders reach it. The hashes are kept
+ * in an off-heap TicTacToePositionSet, leaving the heap to the search
+ * itself. The first splitDepth plies are split into ForkJoinPool tasks;
+ * each task enumerates its subtree depth-first on its own board with
+ * play() and undo(), and adds its counts to the totals when it is done.
+ *
+ * Positions are identified by 64-bit hashes, so two positions could in
+ * principle collide and be counted once; with a few million positions the
+ * chance is around 1 in 10^6.
+ */
+public class TicTacToeAnalyzer {
+
+    public static final String CSV_HEADER =
+            "size,num_to_win,depth,positions,terminal,x_wins,o_wins,draws,moves,branching";
+
+    // Counts kept per depth
+    private static final int POSITIONS = 0;
+    private static final int X_WINS = 1;
+    private static final int O_WINS = 2;
+    private static final int DRAWS = 3;
+    private static final int MOVES = 4;     // Legal moves summed over the positions still in progress
+    private static final int FIELDS = 5;
+
+    private static final int DEFAULT_SPLIT_DEPTH = 3;
+
+    private final int size;
+    private final int numToWin;
+    private final int maxDepth;
+    private final int splitDepth;
+    private final TicTacToePositionSet positions;
+    private final long[][] totals;
+
+    /**
+     * Constructor for the analysis of a game.
+     *
+     * @param size
+     * @param numToWin
+     * @param maxDepth deepest ply to enumerate, size * size for the whole game
+     * @param capacity slots of the position set, at least the number of positions
+     * @throws IllegalArgumentException
+     */
+    public TicTacToeAnalyzer(int size, int numToWin, int maxDepth, int capacity) throws IllegalArgumentException {
+        if (size < 1)
+            throw new IllegalArgumentException("Grid must be a positive size.");
+        if (numToWin < 1 || numToWin > size)
+            throw new IllegalArgumentException("Number to win must be between 1 and " + size + ".");
+        if (maxDepth < 0 || maxDepth > size * size)
+            throw new IllegalArgumentException("Depth must be between 0 and " + size * size + ".");
+        this.size = size;
+        this.numToWin = numToWin;
+        this.maxDepth = maxDepth;
+        this.splitDepth = Math.min(DEFAULT_SPLIT_DEPTH, maxDepth);
+        this.positions = new TicTacToePositionSet(capacity);
+        this.totals = new long[maxDepth + 1][FIELDS];
+    }
+
+    /**
+     * Returns a position set capacity for a game enumerated to a depth:
+     * twice the number of grids with d marks, 'X' having played the first
+     * half, summed over the depths and divided by the 8 symmetries.
+     *
+     * @param size
+     * @param maxDepth
+     * @return capacity, at most TicTacToePositionSet.MAX_CAPACITY
+     */
+    public static int defaultCapacity(int size, int maxDepth) {
+        int cells = size * size;
+        double grids = 0;
+        double choose = 1;      // cells choose depth
+        for (int depth = 0; depth <= maxDepth; depth++) {
+            double split = 1;   // depth choose the marks of 'O'
+            for (int i = 1; i <= depth / 2; i++) {
+                split = split * (depth - depth / 2 + i) / i;
+            }
+            grids += choose * split;
+            choose = choose * (cells - depth) / (depth + 1);
+        }
+        return (int) Math.min(TicTacToePositionSet.MAX_CAPACITY, Math.max(16, 2 * grids / 8));
+    }
+
+    /**
+     * Enumerates the game.
+     *
+     * @param threads parallelism of the ForkJoinPool
+     * @return this analyzer, to read the counts from
+     * @throws IllegalStateException if the position set fills up
+     */
+    public TicTacToeAnalyzer run(int threads) throws IllegalStateException {
+        TicTacToeSearchBoard board = new TicTacToeSearchBoard(this.size, this.numToWin, TicTacToeSearchBoard.X);
+        this.positions.add(TicTacToeSymmetry.canonicalHash(board));
+        long[][] counts = new long[this.maxDepth + 1][FIELDS];
+        counts[0][POSITIONS] = 1;
+        if (this.maxDepth > 0) counts[0][MOVES] = board.getCellCount();
+        addTotals(counts);
+        if (this.maxDepth == 0) return this;
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new Subtree(board));
+        } finally {
+            pool.shutdown();
+        }
+        return this;
+    }
+
+    private synchronized void addTotals(long[][] counts) {
+        for (int depth = 0; depth < counts.length; depth++) {
+            for (int field = 0; field < FIELDS; field++) {
+                this.totals[depth][field] += counts[depth][field];
+            }
+        }
+    }
+
+    /**
+     * Task enumerating the positions reached from one position. Above the
+     * split depth it forks a task per new child; below, it walks the
+     * subtree itself.
+     */
+    private class Subtree extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TicTacToeSearchBoard board;
+
+        Subtree(TicTacToeSearchBoard position) {
+            this.board = new TicTacToeSearchBoard(size, numToWin, position.getToMove());
+            this.board.copyFrom(position);
+        }
+
+        @Override
+        protected void compute() {
+            long[][] counts = new long[maxDepth + 1][FIELDS];
+            if (this.board.getMarkCount() < splitDepth) {
+                List<Subtree> children = new ArrayList<>();
+                for (int cell = 0; cell < this.board.getCellCount(); cell++) {
+                    if (this.board.getMark(cell) != TicTacToeSearchBoard.EMPTY) continue;
+                    if (visit(cell, counts)) children.add(new Subtree(this.board));
+                    this.board.undo();
+                }
+                addTotals(counts);
+                invokeAll(children);
+            } else {
+                enumerate(counts);
+                addTotals(counts);
+            }
+        }
+
+        /**
+         * Enumerates the positions below the board's position, depth-first.
+         *
+         * @param counts of this task, per depth
+         */
+        private void enumerate(long[][] counts) {
+            for (int cell = 0; cell < this.board.getCellCount(); cell++) {
+                if (this.board.getMark(cell) != TicTacToeSearchBoard.EMPTY) continue;
+                if (visit(cell, counts)) enumerate(counts);
+                this.board.undo();
+            }
+        }
+
+        /**
+         * Plays a move and counts the position it leads to, if it has not
+         * been seen before. The caller takes the move back.
+         *
+         * @param cell empty cell
+         * @param counts of this task, per depth
+         * @return true if the position is new, in progress and above the maximum depth
+         */
+        private boolean visit(int cell, long[][] counts) {
+            byte mover = this.board.getToMove();
+            boolean won = this.board.play(cell);
+            if (!positions.add(TicTacToeSymmetry.canonicalHash(this.board))) return false;
+            long[] count = counts[this.board.getMarkCount()];
+            count[POSITIONS]++;
+            if (won) {
+                count[(mover == TicTacToeSearchBoard.X) ? X_WINS : O_WINS]++;
+                return false;
+            }
+            if (this.board.isFull()) {
+                count[DRAWS]++;
+                return false;
+            }
+            if (this.board.getMarkCount() == maxDepth) return false;
+            count[MOVES] += this.board.getCellCount() - this.board.getMarkCount();
+            return true;
+        }
+    }
+
+    /**
+     * Returns the distinct positions found at a depth.
+     *
+     * @param depth number of marks on the grid
+     * @return positions
+     */
+    public long getPositions(int depth) { return this.totals[depth][POSITIONS]; }
+
+    /**
+     * Returns the positions at a depth that end the game.
+     *
+     * @param depth number of marks on the grid
+     * @return wins and draws
+     */
+    public long getTerminal(int depth) {
+        return this.totals[depth][X_WINS] + this.totals[depth][O_WINS] + this.totals[depth][DRAWS];
+    }
+
+    /**
+     * Returns the distinct positions found at every depth.
+     *
+     * @return positions
+     */
+    public long getPositions() { return this.positions.size(); }
+
+    public TicTacToePositionSet getPositionSet() { return this.positions; }
+
+    public int getMaxDepth() { return this.maxDepth; }
+
+    /**
+     * Writes one CSV row per depth, then a total row with depth "all".
+     * Branching is the mean number of legal moves of the positions still in
+     * progress (empty at the last depth enumerated).
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeCsv(Writer out) throws IOException {
+        long[] sum = new long[FIELDS];
+        for (int depth = 0; depth <= this.maxDepth; depth++) {
+            long[] count = this.totals[depth];
+            if (count[POSITIONS] == 0) continue;
+            writeRow(out, Integer.toString(depth), count);
+            for (int field = 0; field < FIELDS; field++) {
+                sum[field] += count[field];
+            }
+        }
+        writeRow(out, "all", sum);
+    }
+
+    private void writeRow(Writer out, String depth, long[] count) throws IOException {
+        long terminal = count[X_WINS] + count[O_WINS] + count[DRAWS];
+        long inProgress = count[POSITIONS] - terminal;
+        String branching = (count[MOVES] == 0) ? "" : String.format(Locale.ROOT, "%.3f", (double) count[MOVES] / inProgress);
+        out.write(this.size + "," + this.numToWin + "," + depth + "," + count[POSITIONS] + "," + terminal + ","
+                + count[X_WINS] + "," + count[O_WINS] + "," + count[DRAWS] + "," + count[MOVES] + "," + branching + "\n");
+    }
+
+    /** Game space analysis example: enumerates each game and streams the
+     * counts to a CSV file as each one finishes
+     *
+     * @param args games as size:numToWin[:maxDepth], comma separated (default
+     *             3:3,4:3,4:4), threads (default cores) and CSV file (default
+     *             analysis.csv, "-" for standard output)
+     * @throws IOException
+     */
+    public static void main(String args[]) throws IOException {
+        String games = (args.length > 0) ? args[0] : "3:3,4:3,4:4";
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String file = (args.length > 2) ? args[2] : "analysis.csv";
+        Writer out = file.equals("-")
+                ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                : Files.newBufferedWriter(Paths.get(file));
+        try {
+            out.write(CSV_HEADER + "\n");
+            out.flush();
+            for (String game : games.split(",")) {
+                String[] fields = game.split(":");
+                int size = Integer.parseInt(fields[0]);
+                int numToWin = (fields.length > 1) ? Integer.parseInt(fields[1]) : size;
+                int maxDepth = (fields.length > 2) ? Integer.parseInt(fields[2]) : size * size;
+                long start = System.nanoTime();
+                TicTacToeAnalyzer analyzer = new TicTacToeAnalyzer(size, numToWin, maxDepth, defaultCapacity(size, maxDepth));
+                analyzer.run(threads);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                analyzer.writeCsv(out);
+                out.flush();
+                System.err.printf("%dx%d, %d to win: %d positions (%.1f MB off-heap) in %.1fs, %.0f positions/s%n",
+                        size, size, numToWin, analyzer.getPositions(), analyzer.getPositionSet().getBytes() / 1e6,
+                        seconds, analyzer.getPositions() / seconds);
+            }
+        } finally {
+            if (file.equals("-")) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package game;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Storage for the marks placed on a square TicTacToe game grid.
+ *
+ * Implementations decide how the cells are laid out in memory; the
+ * TicTacToeModel only ever talks to the grid through this interface.
+ */
+public interface TicTacToeBoard extends Serializable {
+
+    /**
+     * Returns the dimension size of the grid.
+     *
+     * @return size
+     */
+    int getSize();
+
+    /**
+     * Returns the mark at the given cell.
+     *
+     * @param row
+     * @param column
+     * @return ' ', 'X' or 'O'
+     */
+    char getMark(int row, int column);
+
+    /**
+     * Places a mark on the given cell, replacing whatever was there.
+     *
+     * @param row
+     * @param column
+     * @param mark ' ', 'X' or 'O'
+     */
+    void setMark(int row, int column, char mark);
+
+    /**
+     * Empties every cell of the grid.
+     */
+    void clear();
+
+    /**
+     * Returns the cells holding a mark, as (row * size + column) in no
+     * particular order. The default scans the whole grid.
+     *
+     * @return marked cells
+     */
+    default long[] getMarkedCells() {
+        int size = getSize();
+        long[] cells = new long[16];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                if (getMark(row, column) == ' ') continue;
+                if (count == cells.length) cells = Arrays.copyOf(cells, 2 * count);
+                cells[count++] = (long) row * size + column;
+            }
+        }
+        return Arrays.copyOf(cells, count);
+    }
+
+    /**
+     * Indicates whether this board keeps precomputed win masks, in which
+     * case isWinningMark() is a few mask tests instead of a scan.
+     *
+     * @return true if isWinningMark() reads win masks
+     */
+    default boolean hasWinMasks() { return false; }
+
+    /**
+     * Returns true if the mark at the given cell is part of numToWin
+     * adjacent marks of the same player horizontally, vertically or on
+     * either diagonal. The default scans the runs through the cell in all
+     * four directions, looking at most numToWin - 1 cells either side and
+     * stopping at the first cell not held by the player.
+     *
+     * @param row
+     * @param column
+     * @param numToWin number of adjacent marks needed to win
+     * @return true if the mark on (row, column) is part of a winning line
+     */
+    default boolean isWinningMark(int row, int column, int numToWin) {
+        char player = getMark(row, column);
+        if (player == ' ') return false;
+        return countRun(row, column, 0, 1, player, numToWin) >= numToWin      // Horizontal
+                || countRun(row, column, 1, 0, player, numToWin) >= numToWin  // Vertical
+                || countRun(row, column, 1, 1, player, numToWin) >= numToWin  // Upper left to lower right
+                || countRun(row, column, 1, -1, player, numToWin) >= numToWin; // Upper right to lower left
+    }
+
+    /**
+     * Counts the adjacent marks of a player through a cell along one
+     * direction, looking both forwards and backwards.
+     *
+     * @param row
+     * @param column
+     * @param dRow row step of the direction
+     * @param dColumn column step of the direction
+     * @param player 'X' or 'O'
+     * @param numToWin
+     * @return length of the run through (row, column), capped at numToWin
+     */
+    private int countRun(int row, int column, int dRow, int dColumn, char player, int numToWin) {
+        int size = getSize();
+        int count = 1;
+        // Look forwards
+        for (int r = row + dRow, c = column + dColumn;
+             count < numToWin && r >= 0 && r < size && c >= 0 && c < size && getMark(r, c) == player;
+             r += dRow, c += dColumn) {
+            count++;
+        }
+        // Look backwards
+        for (int r = row - dRow, c = column - dColumn;
+             count < numToWin && r >= 0 && r < size && c >= 0 && c < size && getMark(r, c) == player;
+             r -= dRow, c -= dColumn) {
+            count++;
+        }
+        return count;
+    }
+}
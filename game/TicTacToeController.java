@@ -1,53 +1,224 @@
+package game;
 
 import org.xml.sax.helpers.DefaultHandler;
 import javax.swing.*;
 import java.io.*;
+import java.nio.file.Paths;
+import java.util.concurrent.*;
 
 public class TicTacToeController extends DefaultHandler {
 
+    // Every change to a model, and all file I/O and computer moves, runs on
+    // this thread in the order the input arrived; listeners on the Event
+    // Dispatch Thread only queue work here and return
+    private static final ExecutorService MODEL_THREAD = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TicTacToe model");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private TicTacToeModel model;
     private TicTacToeView view;
 
+    // Computer opponent, created on first use, and the mark it plays (' ' when off)
+    private TicTacToePlayer computer;
+    private volatile char computerMark;
+
+    // Tablebase of the game hints were last asked for, kept across games so
+    // that the file is only mapped again when the game changes
+    private static TicTacToeTablebase tablebase;
+    private static int tablebaseSize = -1;
+    private static int tablebaseNumToWin = -1;
+
     public TicTacToeController(TicTacToeModel model) {
+        this(model, null, ' ');
+    }
+
+    /**
+     * Constructor for a game against a computer player.
+     *
+     * @param model
+     * @param computer player used when the computer is switched on or a
+     *                 hint is asked for, or null for a TicTacToeAI created
+     *                 on first use
+     * @param computerMark 'X' or 'O' for the computer to play, ' ' for off
+     */
+    public TicTacToeController(TicTacToeModel model, TicTacToePlayer computer, char computerMark) {
         this.model = model;
+        this.computer = computer;
         this.view = new TicTacToeView(model, model.getSize());
+        TicTacToeMetrics.ACTIVE_GAMES.add(1);
+        TicTacToeMetrics.ACTIVE_CELLS.add((long) model.getSize() * model.getSize());
+        view.setRestartHandler(this::restartGame);
         setActionListeners();
+        setComputerMark(computerMark);
     }
 
-    private void setActionListeners() {
+    /**
+     * Queues work on the model thread. Invalid moves and other
+     * IllegalArgumentExceptions are reported in the view.
+     *
+     * @param task
+     */
+    private void submit(Runnable task) {
+        MODEL_THREAD.execute(() -> {
+            try {
+                task.run();
+            } catch (IllegalArgumentException e) {
+                SwingUtilities.invokeLater(() -> view.showErrorMessage(e.getMessage()));
+            }
+        });
+    }
 
-        // Buttons
-        JButton[][] buttons = view.getButtons();
-        for (int i = 0; i < model.getSize(); i++) {
-            for (int j = 0; j < model.getSize(); j++) {
-                // Add ActionListener to button
-                int inner_i = i;
-                int inner_j = j;
-                buttons[i][j].addActionListener(event -> {
-                    try {
-                        model.takeTurn(inner_i, inner_j);
-                        model.notifyViews();
-                    } catch (IllegalArgumentException e) {
-                        view.showErrorMessage(e.getMessage());
-                    }
-                });
+    /**
+     * Selects which mark the computer plays and lets it move if it is its turn.
+     *
+     * @param computerMark 'X', 'O' or ' ' for off
+     */
+    private void setComputerMark(char computerMark) {
+        this.computerMark = computerMark;
+        view.getComputerOffMenuItem().setSelected(computerMark == ' ');
+        view.getComputerXMenuItem().setSelected(computerMark == 'X');
+        view.getComputerOMenuItem().setSelected(computerMark == 'O');
+        submit(this::playComputerTurns);
+    }
+
+    /**
+     * Plays the computer's moves for as long as it is the computer's turn.
+     * Runs on the model thread.
+     */
+    private void playComputerTurns() {
+        while (computerMark != ' ' && model.getTurn() == computerMark
+                && model.getGameState() == TicTacToeEnum.IN_PROGRESS) {
+            int[] move = getComputer().chooseMove(model);
+            model.takeTurn(move[0], move[1]);
+            model.notifyViews();
+        }
+    }
+
+    /**
+     * Returns the computer player, creating a TicTacToeAI (and its
+     * transposition table) the first time one is needed. Runs on the model
+     * thread.
+     *
+     * @return computer player
+     */
+    private TicTacToePlayer getComputer() {
+        if (computer == null) computer = new TicTacToeAI();
+        return computer;
+    }
+
+    /**
+     * Restarts the game with a random player to start, then lets the
+     * computer move if it starts.
+     */
+    private void restartGame() {
+        char initialTurn = ThreadLocalRandom.current().nextBoolean() ? 'X' : 'O';
+        submit(() -> {
+            model.reset(initialTurn);
+            model.notifyViews();
+            playComputerTurns();
+        });
+    }
+
+    /**
+     * Moves the journal (if any) over to a new model and stops notifying
+     * this game's view, then closes its window and opens a new controller
+     * and view for the new game on the Event Dispatch Thread. Runs on the
+     * model thread.
+     *
+     * @param newModel
+     */
+    private void startNewGame(TicTacToeModel newModel) {
+        TicTacToeJournal journal = model.getJournal();
+        if (journal != null) {
+            try {
+                journal.attach(newModel);
+            } catch (IOException e) {
+                System.out.println("Journal - IOException caught.");
+            }
+        }
+        model.removeView(view);
+        TicTacToeMetrics.ACTIVE_GAMES.add(-1);
+        TicTacToeMetrics.ACTIVE_CELLS.add(-(long) model.getSize() * model.getSize());
+        TicTacToePlayer player = computer;      // Read on the model thread, which creates it
+        SwingUtilities.invokeLater(() -> {
+            view.dispose();
+            // Create new controller, which opens new game grid view
+            new TicTacToeController(newModel, player, computerMark);
+        });
+    }
+
+    /**
+     * Suggests a move to the current player, from the tablebase of the game
+     * when there is one (3 x 3 tablebases are generated on first use), or
+     * from the computer player otherwise. Runs on the model thread.
+     *
+     * @throws IllegalArgumentException if the game is over
+     */
+    private void showHint() throws IllegalArgumentException {
+        if (model.getGameState() != TicTacToeEnum.IN_PROGRESS)
+            throw new IllegalArgumentException("Game is over.");
+        TicTacToeTablebase tablebase = findTablebase(model);
+        int[] move;
+        String outcome = null;
+        if (tablebase != null) {
+            move = tablebase.chooseMove(model);
+            String[] outcomes = {null, "you can force a win", "draw with best play", "you cannot avoid losing"};
+            outcome = outcomes[tablebase.getValue(model)];
+        } else {
+            move = getComputer().chooseMove(model);
+        }
+        String hintOutcome = outcome;
+        SwingUtilities.invokeLater(() -> view.showHint(move[0], move[1], hintOutcome));
+    }
+
+    /**
+     * Returns the tablebase of the game of a model, mapping it (or generating
+     * it, for 3 x 3 grids) the first time hints are asked for that game.
+     *
+     * @param model
+     * @return tablebase, or null if none exists
+     */
+    private static synchronized TicTacToeTablebase findTablebase(TicTacToeModel model) {
+        if (model.getSize() != tablebaseSize || model.getNumToWin() != tablebaseNumToWin) {
+            tablebaseSize = model.getSize();
+            tablebaseNumToWin = model.getNumToWin();
+            tablebase = TicTacToeTablebase.find(tablebaseSize, tablebaseNumToWin);
+            if (tablebase == null && tablebaseSize <= 3) {
+                try {
+                    TicTacToeTablebase.generate(tablebaseSize, tablebaseNumToWin,
+                            TicTacToeTablebase.defaultPath(tablebaseSize, tablebaseNumToWin));
+                    tablebase = TicTacToeTablebase.find(tablebaseSize, tablebaseNumToWin);
+                } catch (IOException e) {
+                    System.out.println("Hint - IOException caught.");
+                }
             }
         }
+        return tablebase;
+    }
+
+    private void setActionListeners() {
+
+        // Grid cells
+        view.getGrid().addCellListener((row, column) -> submit(() -> {
+            model.takeTurn(row, column);
+            model.notifyViews();
+            playComputerTurns();
+        }));
 
         // Save game
         JMenuItem saveMenuItem = view.getSaveMenuItem();
         saveMenuItem.addActionListener(event -> {
             String fileName = view.getFileName();
             if ((fileName != null) && (fileName.length() > 1)) {
-                try {
-                    FileOutputStream file = new FileOutputStream(fileName);
-                    ObjectOutputStream out = new ObjectOutputStream(file);
-                    out.writeObject(model);
-                    out.close();
-                    file.close();
-                } catch (IOException e) {
-                    System.out.println("Save file - IOException caught");
-                }
+                submit(() -> {
+                    try {
+                        TicTacToeFile.save(model, Paths.get(fileName));
+                    } catch (IOException e) {
+                        System.out.println("Save file - IOException caught");
+                    }
+                });
             } else {
                 view.showErrorMessage("Please enter a valid file name.");
             }
@@ -59,22 +230,17 @@ public class TicTacToeController extends DefaultHandler {
             // Get file name to open
             String fileName = view.openFile();
             //
-            TicTacToeModel newModel = null;
             if ((fileName != null) && (fileName.length() > 1)) {
-                try {
-                    FileInputStream file = new FileInputStream(fileName);
-                    ObjectInputStream in = new ObjectInputStream(file);
-                    newModel = (TicTacToeModel) in.readObject();
-                    in.close();
-                    file.close();
-                } catch (IOException e) {
-                    System.out.println("Open file - IOException caught.");
-                } catch (ClassNotFoundException e) {
-                    System.out.println("Open file - ClassNotFoundException caught.");
-                }
-                model.removeView(view);
-                view.dispose();
-                new TicTacToeController(newModel);
+                submit(() -> {
+                    TicTacToeModel newModel;
+                    try {
+                        newModel = TicTacToeFile.load(Paths.get(fileName));
+                    } catch (IOException e) {
+                        System.out.println("Open file - IOException caught.");
+                        throw new IllegalArgumentException("Unable to open game file: " + e.getMessage());
+                    }
+                    startNewGame(newModel);
+                });
             } else {
                 view.showErrorMessage("Unable to open game file. Please enter a valid file name.");
             }
@@ -82,7 +248,7 @@ public class TicTacToeController extends DefaultHandler {
 
         // Restart game
         JMenuItem restartMenuItem = view.getRestartMenuItem();
-        restartMenuItem.addActionListener(event -> view.restartGame());
+        restartMenuItem.addActionListener(event -> restartGame());
 
         // Quit game
         JMenuItem quitMenuItem = view.getQuitMenuItem();
@@ -93,12 +259,38 @@ public class TicTacToeController extends DefaultHandler {
         gridSizeMenuItem.addActionListener(event -> {
             // Prompt user for new grid size
             int size = view.changeGridSize();
-            // Create a new model with new dimensions
-            TicTacToeModel newModel = new TicTacToeModel(size, model.getTurn());
-            // Hide existing window
-            view.setVisible(false);
-            // Create new controller, which opens new game grid view
-            TicTacToeController controller = new TicTacToeController(newModel);
+            submit(() -> {
+                // Create a new model with new dimensions
+                TicTacToeModel newModel = new TicTacToeModel(size, model.getTurn());
+                // Replace the existing window
+                startNewGame(newModel);
+            });
+        });
+
+        // Change number of marks to win and restart
+        JMenuItem numToWinMenuItem = view.getNumToWinMenuItem();
+        numToWinMenuItem.addActionListener(event -> {
+            // Prompt user for new win length
+            int numToWin = view.changeNumToWin();
+            submit(() -> {
+                // Create a new model with the same dimensions
+                TicTacToeModel newModel = new TicTacToeModel(model.getSize(), numToWin, model.getTurn());
+                // Replace the existing window
+                startNewGame(newModel);
+            });
         });
+
+        // Suggest a move
+        JMenuItem hintMenuItem = view.getHintMenuItem();
+        hintMenuItem.addActionListener(event -> submit(this::showHint));
+
+        // Zoom the grid
+        view.getZoomInMenuItem().addActionListener(event -> view.getGrid().zoom(1));
+        view.getZoomOutMenuItem().addActionListener(event -> view.getGrid().zoom(-1));
+
+        // Computer opponent
+        view.getComputerOffMenuItem().addActionListener(event -> setComputerMark(' '));
+        view.getComputerXMenuItem().addActionListener(event -> setComputerMark('X'));
+        view.getComputerOMenuItem().addActionListener(event -> setComputerMark('O'));
     }
 }
@@ -1,3 +1,5 @@
+package game;
+
 /**
  * TicTacToe enumeration class for game status.
  */
@@ -0,0 +1,170 @@
+package game;
+
+/**
+ * Change to a TicTacToe game published to its views: one cell of the grid
+ * changed, a batch of cells changed (TicTacToeModel.takeTurns()), or a
+ * refresh after which the whole grid must be redrawn (e.g. after a reset).
+ *
+ * Events are immutable and carry everything a view shows, including the
+ * player to move next and, for a refresh, every mark on the grid, so a
+ * view on another thread never needs to read the model.
+ */
+public class TicTacToeEvent {
+
+    private final int row;
+    private final int column;
+    private final char mark;
+    private final TicTacToeEnum gameState;
+    private final char turn;
+    private final boolean refresh;
+
+    // Every change of a batch event or every mark of a refresh, null otherwise
+    private final int[] rows;
+    private final int[] columns;
+    private final char[] marks;
+
+    /**
+     * Constructor for the event of a change to one cell.
+     *
+     * @param row
+     * @param column
+     * @param mark 'X' or 'O', or ' ' if a mark was taken back
+     * @param gameState game state after the move
+     * @param turn 'X' or 'O' to play next
+     */
+    public TicTacToeEvent(int row, int column, char mark, TicTacToeEnum gameState, char turn) {
+        this(row, column, mark, gameState, turn, false, null, null, null);
+    }
+
+    private TicTacToeEvent(int row, int column, char mark, TicTacToeEnum gameState, char turn, boolean refresh,
+                           int[] rows, int[] columns, char[] marks) {
+        this.row = row;
+        this.column = column;
+        this.mark = mark;
+        this.gameState = gameState;
+        this.turn = turn;
+        this.refresh = refresh;
+        this.rows = rows;
+        this.columns = columns;
+        this.marks = marks;
+    }
+
+    /**
+     * Creates the event of changes to several cells, in the order they were
+     * made. getRow(), getColumn() and getMark() describe the last change.
+     * The arrays are kept, not copied.
+     *
+     * @param rows
+     * @param columns
+     * @param marks 'X' or 'O' now in each cell
+     * @param gameState game state after the last change
+     * @param turn 'X' or 'O' to play next
+     * @return batch event
+     * @throws IllegalArgumentException
+     */
+    public static TicTacToeEvent batch(int[] rows, int[] columns, char[] marks, TicTacToeEnum gameState, char turn)
+            throws IllegalArgumentException {
+        int last = rows.length - 1;
+        if (last < 0 || columns.length != rows.length || marks.length != rows.length)
+            throw new IllegalArgumentException("A batch needs one row, column and mark per change.");
+        return new TicTacToeEvent(rows[last], columns[last], marks[last], gameState, turn, false, rows, columns, marks);
+    }
+
+    /**
+     * Creates the event of a change to the whole grid, which is now empty.
+     *
+     * @param gameState game state after the change
+     * @param turn 'X' or 'O' to play next
+     * @return refresh event
+     */
+    public static TicTacToeEvent refresh(TicTacToeEnum gameState, char turn) {
+        return refresh(new int[0], new int[0], new char[0], gameState, turn);
+    }
+
+    /**
+     * Creates the event of a change to the whole grid, listing every mark
+     * now on it. The arrays are kept, not copied.
+     *
+     * @param rows
+     * @param columns
+     * @param marks 'X' or 'O' in each cell
+     * @param gameState game state after the change
+     * @param turn 'X' or 'O' to play next
+     * @return refresh event
+     * @throws IllegalArgumentException
+     */
+    public static TicTacToeEvent refresh(int[] rows, int[] columns, char[] marks, TicTacToeEnum gameState, char turn)
+            throws IllegalArgumentException {
+        if (columns.length != rows.length || marks.length != rows.length)
+            throw new IllegalArgumentException("A refresh needs one row, column and mark per mark.");
+        return new TicTacToeEvent(-1, -1, ' ', gameState, turn, true, rows, columns, marks);
+    }
+
+    /**
+     * Returns true if the whole grid changed rather than a single cell.
+     *
+     * @return true for a refresh event
+     */
+    public boolean isRefresh() { return this.refresh; }
+
+    /**
+     * Returns true if several cells changed.
+     *
+     * @return true for a batch event
+     */
+    public boolean isBatch() { return this.rows != null && !this.refresh; }
+
+    /**
+     * Returns the number of cells changed, or for a refresh the number of
+     * marks on the grid.
+     *
+     * @return 1 for a single cell
+     */
+    public int getChangeCount() {
+        return (this.rows != null) ? this.rows.length : 1;
+    }
+
+    /**
+     * Returns the row of a change.
+     *
+     * @param index between 0 and getChangeCount() - 1
+     * @return row
+     */
+    public int getRow(int index) { return (this.rows != null) ? this.rows[index] : this.row; }
+
+    /**
+     * Returns the column of a change.
+     *
+     * @param index between 0 and getChangeCount() - 1
+     * @return column
+     */
+    public int getColumn(int index) { return (this.columns != null) ? this.columns[index] : this.column; }
+
+    /**
+     * Returns the mark a change left in its cell.
+     *
+     * @param index between 0 and getChangeCount() - 1
+     * @return 'X', 'O' or ' '
+     */
+    public char getMark(int index) { return (this.marks != null) ? this.marks[index] : this.mark; }
+
+    public int getRow() { return this.row; }
+
+    public int getColumn() { return this.column; }
+
+    /**
+     * Returns the mark now in the cell.
+     *
+     * @return 'X', 'O' or ' '
+     */
+    public char getMark() { return this.mark; }
+
+    public TicTacToeEnum getGameState() { return this.gameState; }
+
+    /**
+     * Returns the player to move after the change.
+     *
+     * @return 'X' or 'O'
+     */
+    public char getTurn() { return this.turn; }
+}
@@ -0,0 +1,318 @@
+package game;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * Compact, versioned binary save format for TicTacToe games.
+ *
+ * A save file is a 20 byte header followed by the marks:
+ *
+ *   int   magic "TTTS"
+ *   short version (PACKED or SPARSE)
+ *   int   size
+ *   int   numToWin
+ *   byte  turn ('X' or 'O')
+ *   byte  game state (TicTacToeEnum ordinal)
+ *   int   number of marks
+ *
+ * PACKED files hold the grid packed 2 bits per cell (0 empty, 1 'X',
+ * 2 'O'), four cells per byte in row-major order. SPARSE files hold one
+ * record per mark, long cell (row * size + column) and byte mark, in cell
+ * order. Games are saved in whichever is smaller, so a mostly empty huge
+ * grid costs a few bytes per mark instead of a quarter byte per cell.
+ *
+ * Files are read and written through a FileChannel; files over 1 MB are
+ * memory-mapped instead of copied through a buffer.
+ */
+public class TicTacToeFile {
+
+    private static final int MAGIC = 0x54545453;    // "TTTS"
+    private static final short PACKED = 1;
+    private static final short SPARSE = 2;
+    private static final int HEADER_BYTES = 20;
+    private static final int SPARSE_RECORD_BYTES = 9;
+    private static final long MAP_THRESHOLD = 1 << 20;
+
+    private TicTacToeFile() {
+    }
+
+    /**
+     * Writes a game to a file, replacing any existing file.
+     *
+     * @param model
+     * @param file
+     * @throws IOException
+     * @throws IllegalArgumentException if the game is too large for one file mapping
+     */
+    public static void save(TicTacToeModel model, Path file) throws IOException, IllegalArgumentException {
+        long start = TicTacToeMetrics.start();
+        long total = HEADER_BYTES + bodyBytes(model);
+        if (total > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Game is too large to save.");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (total > MAP_THRESHOLD) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, total);
+                writeGame(model, buffer);
+                buffer.force();
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate((int) total);
+                writeGame(model, buffer);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+        TicTacToeMetrics.BYTES_WRITTEN.add(total);
+        TicTacToeMetrics.SAVE.recordSince(start);
+    }
+
+    /**
+     * Reads a game from a file.
+     *
+     * @param file
+     * @return a new TicTacToeModel holding the saved game, with no views
+     * @throws IOException if the file cannot be read or is not a valid save file
+     */
+    public static TicTacToeModel load(Path file) throws IOException {
+        long start = TicTacToeMetrics.start();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long total = channel.size();
+            if (total < HEADER_BYTES)
+                throw new IOException(file + " is not a TicTacToe save file.");
+            ByteBuffer buffer;
+            if (total > MAP_THRESHOLD) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, total);
+            } else {
+                buffer = ByteBuffer.allocate((int) total);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // Keep reading until the whole file is in the buffer
+                }
+                buffer.flip();
+            }
+            TicTacToeModel model = readGame(buffer, file.toString());
+            TicTacToeMetrics.BYTES_READ.add(total);
+            TicTacToeMetrics.LOAD.recordSince(start);
+            return model;
+        }
+    }
+
+    /**
+     * Returns the save file contents of a game, for sending a game over a
+     * connection rather than to a file.
+     *
+     * @param model
+     * @return buffer holding the whole file, ready to be read
+     * @throws IllegalArgumentException if the game is too large for one buffer
+     */
+    static ByteBuffer encode(TicTacToeModel model) throws IllegalArgumentException {
+        long total = HEADER_BYTES + bodyBytes(model);
+        if (total > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Grid is too large to encode.");
+        ByteBuffer buffer = ByteBuffer.allocate((int) total);
+        writeGame(model, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Rebuilds a game from the contents written by encode().
+     *
+     * @param buffer holding exactly the encoded game
+     * @param source name for error messages, e.g. the address it came from
+     * @return a new TicTacToeModel holding the game, with no views
+     * @throws IOException if the contents are not a valid game
+     */
+    static TicTacToeModel decode(ByteBuffer buffer, String source) throws IOException {
+        if (buffer.remaining() < HEADER_BYTES)
+            throw new IOException(source + " is not a TicTacToe game.");
+        return readGame(buffer, source);
+    }
+
+    private static long boardBytes(int size) {
+        return ((long) size * size + 3) / 4;
+    }
+
+    private static boolean isSparse(TicTacToeModel model) {
+        return (long) model.getMarkCount() * SPARSE_RECORD_BYTES < boardBytes(model.getSize());
+    }
+
+    /**
+     * Returns the size of the marks of a game in the smaller encoding.
+     *
+     * @param model
+     * @return bytes after the header
+     */
+    private static long bodyBytes(TicTacToeModel model) {
+        return isSparse(model) ? (long) model.getMarkCount() * SPARSE_RECORD_BYTES : boardBytes(model.getSize());
+    }
+
+    /**
+     * Writes the header and marks of a game at the buffer's position.
+     *
+     * @param model
+     * @param buffer with room for the whole file
+     */
+    private static void writeGame(TicTacToeModel model, ByteBuffer buffer) {
+        int size = model.getSize();
+        boolean sparse = isSparse(model);
+        buffer.putInt(MAGIC);
+        buffer.putShort(sparse ? SPARSE : PACKED);
+        buffer.putInt(size);
+        buffer.putInt(model.getNumToWin());
+        buffer.put((byte) model.getTurn());
+        buffer.put((byte) model.getGameState().ordinal());
+        buffer.putInt(model.getMarkCount());
+
+        if (sparse) {
+            long[] cells = model.getMarkedCells();
+            Arrays.sort(cells);
+            for (long cell : cells) {
+                buffer.putLong(cell);
+                buffer.put((byte) model.getMark((int) (cell / size), (int) (cell % size)));
+            }
+            return;
+        }
+        int packed = 0;
+        int shift = 0;
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                char mark = model.getMark(row, column);
+                packed |= ((mark == 'X') ? 1 : (mark == 'O') ? 2 : 0) << shift;
+                shift += 2;
+                if (shift == 8) {
+                    buffer.put((byte) packed);
+                    packed = 0;
+                    shift = 0;
+                }
+            }
+        }
+        if (shift != 0) buffer.put((byte) packed);
+    }
+
+    /**
+     * Rebuilds a game from the header and marks in a buffer.
+     *
+     * @param buffer positioned at the start of the file
+     * @param file name for error messages
+     * @return loaded game
+     * @throws IOException if the contents are not a valid save file
+     */
+    private static TicTacToeModel readGame(ByteBuffer buffer, String file) throws IOException {
+        if (buffer.getInt() != MAGIC)
+            throw new IOException(file + " is not a TicTacToe save file.");
+        short version = buffer.getShort();
+        if (version != PACKED && version != SPARSE)
+            throw new IOException(file + " has unsupported version " + version + ".");
+        int size = buffer.getInt();
+        int numToWin = buffer.getInt();
+        char turn = (char) buffer.get();
+        int state = buffer.get();
+        int nMarks = buffer.getInt();
+        if (size < 0 || numToWin < 1 || numToWin > size || (turn != 'X' && turn != 'O')
+                || state < 0 || state >= TicTacToeEnum.values().length || nMarks < 0
+                || buffer.remaining() != ((version == SPARSE) ? (long) nMarks * SPARSE_RECORD_BYTES : boardBytes(size)))
+            throw new IOException(file + " is corrupt.");
+
+        TicTacToeModel model = new TicTacToeModel(size, numToWin, turn);
+        if (version == SPARSE) {
+            readMarks(buffer, nMarks, model, file);
+        } else {
+            readPackedCells(buffer, model, file);
+        }
+        if (model.getMarkCount() != nMarks)
+            throw new IOException(file + " is corrupt.");
+        model.restoreState(turn, TicTacToeEnum.values()[state]);
+        return model;
+    }
+
+    /**
+     * Places the marks of a SPARSE file on an empty game.
+     *
+     * @param buffer positioned at the first record
+     * @param nMarks records
+     * @param model
+     * @param file name for error messages
+     * @throws IOException if a record is not a mark on an empty cell of the grid
+     */
+    private static void readMarks(ByteBuffer buffer, int nMarks, TicTacToeModel model, String file) throws IOException {
+        int size = model.getSize();
+        for (int i = 0; i < nMarks; i++) {
+            long cell = buffer.getLong();
+            char mark = (char) buffer.get();
+            if (cell < 0 || cell >= (long) size * size || (mark != 'X' && mark != 'O'))
+                throw new IOException(file + " is corrupt.");
+            int row = (int) (cell / size);
+            int column = (int) (cell % size);
+            if (model.getMark(row, column) != ' ')
+                throw new IOException(file + " is corrupt.");
+            model.restoreMark(row, column, mark);
+        }
+    }
+
+    /**
+     * Places the marks of a PACKED file on an empty game.
+     *
+     * @param buffer positioned at the first packed byte
+     * @param model
+     * @param file name for error messages
+     * @throws IOException if a cell holds an invalid code
+     */
+    private static void readPackedCells(ByteBuffer buffer, TicTacToeModel model, String file) throws IOException {
+        int size = model.getSize();
+        int packed = 0;
+        int shift = 8;
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                if (shift == 8) {
+                    packed = buffer.get();
+                    shift = 0;
+                }
+                int code = (packed >>> shift) & 0x3;
+                shift += 2;
+                if (code == 1) {
+                    model.restoreMark(row, column, 'X');
+                } else if (code == 2) {
+                    model.restoreMark(row, column, 'O');
+                } else if (code != 0) {
+                    throw new IOException(file + " is corrupt.");
+                }
+            }
+        }
+    }
+
+    /** Save/load timing example
+     *
+     * @param args grid size (default 1000) and file name (default game.ttt)
+     * @throws IOException
+     */
+    public static void main(String args[]) throws IOException {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        Path file = Paths.get((args.length > 1) ? args[1] : "game.ttt");
+        TicTacToeModel game = new TicTacToeModel(size, Math.min(5, size), 'X');
+        // Spread marks over every fourth column until the game ends
+        for (int row = 0; row < size && game.getGameState() == TicTacToeEnum.IN_PROGRESS; row++) {
+            for (int column = 0; column < size && game.getGameState() == TicTacToeEnum.IN_PROGRESS; column += 4) {
+                game.takeTurn(row, column);
+            }
+        }
+        long start = System.nanoTime();
+        save(game, file);
+        long saved = System.nanoTime();
+        TicTacToeModel loaded = load(file);
+        long end = System.nanoTime();
+        boolean identical = loaded.getTurn() == game.getTurn() && loaded.getGameState() == game.getGameState();
+        for (int row = 0; row < size && identical; row++) {
+            for (int column = 0; column < size && identical; column++) {
+                identical = loaded.getMark(row, column) == game.getMark(row, column);
+            }
+        }
+        System.out.printf("%dx%d, %d marks, %d bytes: save %.1fms, load %.1fms, identical=%b%n", size, size,
+                loaded.getMarkCount(), Files.size(file), (saved - start) / 1e6, (end - saved) / 1e6, identical);
+    }
+}
@@ -0,0 +1,137 @@
+package game;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computer player looking one move ahead: it completes its own line when
+ * it can, otherwise blocks the opponent's winning move, otherwise plays a
+ * random location next to the marks already on the grid (the centre on an
+ * empty grid).
+ *
+ * Grids of more than TicTacToeAI.MAX_SEARCH_CELLS cells are not copied to
+ * a TicTacToeSearchBoard: only the cells around the marks are looked at,
+ * reading the model, so a move costs time in the number of marks rather
+ * than the size of the grid.
+ */
+public class TicTacToeGreedyPlayer implements TicTacToePlayer {
+
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    private TicTacToeSearchBoard board;     // Reused while the game size is unchanged
+
+    @Override
+    public int[] chooseMove(TicTacToeModel model) throws IllegalArgumentException {
+        if (model.getGameState() != TicTacToeEnum.IN_PROGRESS)
+            throw new IllegalArgumentException("Game is over.");
+        int size = model.getSize();
+        if ((long) size * size > TicTacToeAI.MAX_SEARCH_CELLS) {
+            return chooseLargeGridMove(model);
+        }
+        if (this.board == null || this.board.getSize() != size || this.board.getNumToWin() != model.getNumToWin()) {
+            this.board = new TicTacToeSearchBoard(model);
+        } else {
+            this.board.load(model);
+        }
+        if (this.board.getMarkCount() == 0) {
+            return new int[] {size / 2, size / 2};
+        }
+
+        byte own = this.board.getToMove();
+        byte other = (own == TicTacToeSearchBoard.X) ? TicTacToeSearchBoard.O : TicTacToeSearchBoard.X;
+        int block = -1;
+        int chosen = -1;
+        int candidates = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int cell = 0; cell < this.board.getCellCount(); cell++) {
+            if (this.board.getMark(cell) != TicTacToeSearchBoard.EMPTY) continue;
+            if (this.board.isWinningMove(cell, own)) {
+                return new int[] {cell / size, cell % size};
+            }
+            if (block < 0 && this.board.isWinningMove(cell, other)) {
+                block = cell;
+            }
+            // Reservoir sampling over the cells next to a mark
+            if (this.board.hasNeighbour(cell, 1) && random.nextInt(++candidates) == 0) {
+                chosen = cell;
+            }
+        }
+        int cell = (block >= 0) ? block : chosen;
+        if (cell < 0) {
+            return new TicTacToeRandomPlayer().chooseMove(model);
+        }
+        return new int[] {cell / size, cell % size};
+    }
+
+    /**
+     * Chooses a move on a large grid from the cells next to the marks.
+     * Cells next to several marks are drawn more often.
+     *
+     * @param model game in progress
+     * @return {row, column}
+     */
+    private int[] chooseLargeGridMove(TicTacToeModel model) {
+        int size = model.getSize();
+        long[] marked = model.getMarkedCells();
+        if (marked.length == 0) {
+            return new int[] {size / 2, size / 2};
+        }
+        char own = model.getTurn();
+        char other = (own == 'X') ? 'O' : 'X';
+        int[] block = null;
+        int[] chosen = null;
+        int candidates = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long cell : marked) {
+            int markRow = (int) (cell / size);
+            int markColumn = (int) (cell % size);
+            for (int row = Math.max(0, markRow - 1); row <= Math.min(size - 1, markRow + 1); row++) {
+                for (int column = Math.max(0, markColumn - 1); column <= Math.min(size - 1, markColumn + 1); column++) {
+                    if (model.getMark(row, column) != ' ') continue;
+                    if (isWinningMove(model, row, column, own)) {
+                        return new int[] {row, column};
+                    }
+                    if (block == null && isWinningMove(model, row, column, other)) {
+                        block = new int[] {row, column};
+                    }
+                    // Reservoir sampling over the cells next to a mark
+                    if (random.nextInt(++candidates) == 0) {
+                        chosen = new int[] {row, column};
+                    }
+                }
+            }
+        }
+        if (block != null) return block;
+        if (chosen != null) return chosen;
+        return new TicTacToeRandomPlayer().chooseMove(model);
+    }
+
+    /**
+     * Returns true if a mark on an empty cell would complete numToWin
+     * adjacent marks of the player.
+     *
+     * @param model
+     * @param row of the empty cell
+     * @param column of the empty cell
+     * @param player 'X' or 'O'
+     * @return true for a winning move
+     */
+    private static boolean isWinningMove(TicTacToeModel model, int row, int column, char player) {
+        int size = model.getSize();
+        int numToWin = model.getNumToWin();
+        for (int[] d : DIRECTIONS) {
+            int count = 1;
+            for (int r = row + d[0], c = column + d[1];
+                 count < numToWin && r >= 0 && r < size && c >= 0 && c < size && model.getMark(r, c) == player;
+                 r += d[0], c += d[1]) {
+                count++;
+            }
+            for (int r = row - d[0], c = column - d[1];
+                 count < numToWin && r >= 0 && r < size && c >= 0 && c < size && model.getMark(r, c) == player;
+                 r -= d[0], c -= d[1]) {
+                count++;
+            }
+            if (count >= numToWin) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,291 @@
+package game;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.util.*;
+import java.util.List;
+import javax.swing.*;
+
+/**
+ * Lightweight component painting a TicTacToe grid and its marks with
+ * Java2D, in place of one JButton per cell.
+ *
+ * Only the cells inside the clip are painted, and a move repaints just the
+ * rectangle of its cell, so the cost of painting does not grow with the
+ * grid. The component is meant to sit in a JScrollPane: it implements
+ * Scrollable, and its cell size can be zoomed (Ctrl + mouse wheel) while
+ * keeping the centre of the view in place.
+ *
+ * The component paints its own copy of the marks, kept on the Event
+ * Dispatch Thread with setMark() and clearMarks() as the view receives
+ * the model's events, so painting never reads a model that another
+ * thread is changing.
+ */
+public class TicTacToeGridComponent extends JComponent implements Scrollable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Receives the cells clicked on the grid.
+     */
+    public interface CellListener {
+        void cellClicked(int row, int column);
+    }
+
+    public static final int MIN_CELL_SIZE = 2;
+    public static final int MAX_CELL_SIZE = 200;
+
+    // Largest viewport the component asks for, in pixels
+    private static final int MAX_VIEWPORT = 800;
+
+    private static final Color GRID_COLOR = Color.LIGHT_GRAY;
+    private static final Color X_COLOR = new Color(0x1F4E9C);
+    private static final Color O_COLOR = new Color(0xC0392B);
+
+    private final int size;
+    private final TicTacToeBoard marks;     // Only used on the Event Dispatch Thread
+    private final List<CellListener> cellListeners = new ArrayList<>();
+    private int cellSize;
+
+    // Cell under the mouse when the button was pressed, -1 if none
+    private long pressedCell = -1;
+
+    /**
+     * Constructor for a grid showing a model, starting with a copy of its
+     * marks. The model must not be changed while the copy is taken.
+     *
+     * @param model
+     * @param cellSize initial size of a cell in pixels
+     */
+    public TicTacToeGridComponent(TicTacToeModel model, int cellSize) {
+        this.size = model.getSize();
+        this.marks = model.isSparse() ? new SparseBoard(this.size) : new BitBoard(this.size, model.getNumToWin());
+        for (long cell : model.getMarkedCells()) {
+            int row = (int) (cell / this.size);
+            int column = (int) (cell % this.size);
+            this.marks.setMark(row, column, model.getMark(row, column));
+        }
+        this.cellSize = clampCellSize(cellSize);
+        setBackground(Color.WHITE);
+        setOpaque(true);
+
+        // A click is a press and release on the same cell, like a button
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                pressedCell = (e.getButton() == MouseEvent.BUTTON1) ? cellAt(e.getPoint()) : -1;
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                long cell = cellAt(e.getPoint());
+                if (cell >= 0 && cell == pressedCell) {
+                    for (CellListener listener : cellListeners) {
+                        listener.cellClicked((int) (cell / size), (int) (cell % size));
+                    }
+                }
+                pressedCell = -1;
+            }
+        });
+        addMouseWheelListener(e -> {
+            if (e.isControlDown()) {
+                zoom(-e.getWheelRotation());
+            } else {
+                // Let the scroll pane scroll
+                Container scrollPane = SwingUtilities.getAncestorOfClass(JScrollPane.class, this);
+                if (scrollPane != null) scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(this, e, scrollPane));
+            }
+        });
+    }
+
+    /**
+     * Returns a cell size that shows a whole grid of the given size in
+     * about 600 pixels, between 4 and 100 pixels.
+     *
+     * @param size of the grid
+     * @return cell size in pixels
+     */
+    public static int defaultCellSize(int size) {
+        return Math.max(4, Math.min(100, 600 / Math.max(1, size)));
+    }
+
+    private static int clampCellSize(int cellSize) {
+        return Math.max(MIN_CELL_SIZE, Math.min(MAX_CELL_SIZE, cellSize));
+    }
+
+    public void addCellListener(CellListener listener) {
+        this.cellListeners.add(listener);
+    }
+
+    public void removeCellListener(CellListener listener) {
+        this.cellListeners.remove(listener);
+    }
+
+    public int getCellSize() { return this.cellSize; }
+
+    /**
+     * Changes the mark painted in a cell, without repainting it.
+     *
+     * @param row
+     * @param column
+     * @param mark ' ', 'X' or 'O'
+     */
+    public void setMark(int row, int column, char mark) {
+        this.marks.setMark(row, column, mark);
+    }
+
+    /**
+     * Empties every cell, without repainting.
+     */
+    public void clearMarks() {
+        this.marks.clear();
+    }
+
+    /**
+     * Changes the size of the cells, keeping the point at the centre of the
+     * visible area in the centre.
+     *
+     * @param cellSize new size in pixels, clamped to MIN_CELL_SIZE..MAX_CELL_SIZE
+     */
+    public void setCellSize(int cellSize) {
+        int newSize = clampCellSize(cellSize);
+        if (newSize == this.cellSize) return;
+        Rectangle visible = getVisibleRect();
+        double centreX = (visible.x + visible.width / 2.0) / this.cellSize;
+        double centreY = (visible.y + visible.height / 2.0) / this.cellSize;
+        this.cellSize = newSize;
+        revalidate();
+        // Scroll once the viewport has picked up the new size
+        SwingUtilities.invokeLater(() -> scrollRectToVisible(new Rectangle(
+                (int) (centreX * newSize - visible.width / 2.0), (int) (centreY * newSize - visible.height / 2.0),
+                visible.width, visible.height)));
+        repaint();
+    }
+
+    /**
+     * Zooms in or out by steps of 25%.
+     *
+     * @param steps positive to zoom in, negative to zoom out
+     */
+    public void zoom(int steps) {
+        double scale = Math.pow(1.25, steps);
+        int newSize = (int) Math.round(this.cellSize * scale);
+        // Always move by at least one pixel
+        if (newSize == this.cellSize) newSize += Integer.signum(steps);
+        setCellSize(newSize);
+    }
+
+    /**
+     * Returns the cell at a point of the component.
+     *
+     * @param point
+     * @return row * size + column, or -1 outside the grid
+     */
+    private long cellAt(Point point) {
+        int row = point.y / this.cellSize;
+        int column = point.x / this.cellSize;
+        if (point.x < 0 || point.y < 0 || row >= this.size || column >= this.size) return -1;
+        return (long) row * this.size + column;
+    }
+
+    /**
+     * Repaints the rectangle of one cell only.
+     *
+     * @param row
+     * @param column
+     */
+    public void repaintCell(int row, int column) {
+        repaint(column * this.cellSize, row * this.cellSize, this.cellSize + 1, this.cellSize + 1);
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        int pixels = (int) Math.min(Integer.MAX_VALUE, (long) this.size * this.cellSize + 1);
+        return new Dimension(pixels, pixels);
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        Graphics2D g = (Graphics2D) graphics.create();
+        try {
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) clip = new Rectangle(getSize());
+            g.setColor(getBackground());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+            // Only the cells inside the clip are painted
+            int size = this.size;
+            int cell = this.cellSize;
+            int firstRow = Math.max(0, clip.y / cell);
+            int lastRow = Math.min(size - 1, (clip.y + clip.height) / cell);
+            int firstColumn = Math.max(0, clip.x / cell);
+            int lastColumn = Math.min(size - 1, (clip.x + clip.width) / cell);
+            if (firstRow > lastRow || firstColumn > lastColumn) return;
+
+            if (cell >= 4) {
+                g.setColor(GRID_COLOR);
+                int top = firstRow * cell;
+                int bottom = (lastRow + 1) * cell;
+                int left = firstColumn * cell;
+                int right = (lastColumn + 1) * cell;
+                for (int row = firstRow; row <= lastRow + 1; row++) {
+                    g.drawLine(left, row * cell, right, row * cell);
+                }
+                for (int column = firstColumn; column <= lastColumn + 1; column++) {
+                    g.drawLine(column * cell, top, column * cell, bottom);
+                }
+            }
+
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setStroke(new BasicStroke(Math.max(1f, cell / 12f), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            int inset = Math.max(1, cell / 5);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    char mark = this.marks.getMark(row, column);
+                    if (mark != ' ') paintMark(g, mark, column * cell, row * cell, cell, inset);
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Paints an 'X' or 'O' in a cell, or a filled square when the cell is
+     * too small for the letter to be recognisable.
+     */
+    private static void paintMark(Graphics2D g, char mark, int x, int y, int cell, int inset) {
+        g.setColor((mark == 'X') ? X_COLOR : O_COLOR);
+        if (cell < 8) {
+            g.fillRect(x + 1, y + 1, Math.max(1, cell - 1), Math.max(1, cell - 1));
+        } else if (mark == 'X') {
+            g.drawLine(x + inset, y + inset, x + cell - inset, y + cell - inset);
+            g.drawLine(x + cell - inset, y + inset, x + inset, y + cell - inset);
+        } else {
+            g.drawOval(x + inset, y + inset, cell - 2 * inset, cell - 2 * inset);
+        }
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        Dimension preferred = getPreferredSize();
+        return new Dimension(Math.min(preferred.width, MAX_VIEWPORT), Math.min(preferred.height, MAX_VIEWPORT));
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return this.cellSize;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        int extent = (orientation == SwingConstants.VERTICAL) ? visibleRect.height : visibleRect.width;
+        return Math.max(this.cellSize, extent - this.cellSize);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() { return false; }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() { return false; }
+}
@@ -0,0 +1,73 @@
+package game;
+
+import java.util.*;
+
+/**
+ * Undo and redo over the TicTacToePositions of a game.
+ *
+ * Undo steps back to the parent of the current position and keeps the
+ * position it left for redo; both are O(1). A move played after an undo
+ * starts a new branch and clears the redo list; positions of the old
+ * branch stay valid for anyone still holding them.
+ */
+public class TicTacToeHistory {
+
+    private TicTacToePosition current;
+    private final Deque<TicTacToePosition> undone = new ArrayDeque<>();
+
+    /**
+     * Constructor for a history starting at a position.
+     *
+     * @param start
+     */
+    public TicTacToeHistory(TicTacToePosition start) {
+        this.current = start;
+    }
+
+    public TicTacToePosition getCurrent() { return this.current; }
+
+    /**
+     * Plays the current player's mark and clears the moves undone.
+     *
+     * @param row
+     * @param column
+     * @throws IllegalArgumentException
+     * @return position after the move
+     */
+    public TicTacToePosition play(int row, int column) throws IllegalArgumentException {
+        this.current = this.current.play(row, column);
+        this.undone.clear();
+        return this.current;
+    }
+
+    public boolean canUndo() { return this.current.getParent() != null; }
+
+    public boolean canRedo() { return !this.undone.isEmpty(); }
+
+    /**
+     * Takes back the last move.
+     *
+     * @throws IllegalArgumentException if there is no move to take back
+     * @return position before the move
+     */
+    public TicTacToePosition undo() throws IllegalArgumentException {
+        if (!canUndo())
+            throw new IllegalArgumentException("Nothing to undo.");
+        this.undone.push(this.current);
+        this.current = this.current.getParent();
+        return this.current;
+    }
+
+    /**
+     * Plays again the last move taken back.
+     *
+     * @throws IllegalArgumentException if no move was taken back
+     * @return position after the move
+     */
+    public TicTacToePosition redo() throws IllegalArgumentException {
+        if (!canRedo())
+            throw new IllegalArgumentException("Nothing to redo.");
+        this.current = this.undone.pop();
+        return this.current;
+    }
+}
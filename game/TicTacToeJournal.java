@@ -0,0 +1,358 @@
+package game;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/**
+ * Append-only write-ahead log of the moves of a TicTacToe game.
+ *
+ * Every takeTurn() and reset() of the attached model is appended as a
+ * fixed-size record. Records are collected in a buffer and written and
+ * forced to disk together (group commit): when the batch is full, and
+ * otherwise every commit interval. Every checkpointInterval moves the
+ * whole game is written to a snapshot file (see TicTacToeFile) and the log
+ * restarts empty, so recovery loads the latest snapshot and replays only
+ * the moves made since.
+ *
+ * Journal layout: int magic "TTTJ", short version, byte record size
+ * (4 or 8), int size, int numToWin, byte initial turn, long snapshot
+ * generation (0 for none), then records of two shorts or two ints
+ * (row, column). A reset is recorded as row -1 with the new initial turn
+ * as column. The snapshot of generation g is stored next to the journal
+ * as "<journal>.<g>.snapshot"; the journal is only switched to a new
+ * generation once its snapshot is safely on disk.
+ */
+public class TicTacToeJournal implements Closeable {
+
+    private static final int MAGIC = 0x5454544A;    // "TTTJ"
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final int RESET = -1;
+    private static final int REPLAY_BATCH = 4096;   // Moves per takeTurns() when recovering
+
+    private final Path path;
+    private final int batchRecords;
+    private final int checkpointInterval;
+    private final ScheduledExecutorService committer;
+
+    private TicTacToeModel model;
+    private FileChannel channel;
+    private ByteBuffer pending;
+    private int recordBytes;
+    private long generation;
+    private int sinceCheckpoint;
+
+    /**
+     * Constructor for a journal that records a model from now on. The model's
+     * current position is written as the first snapshot.
+     *
+     * @param path journal file, replaced if it exists
+     * @param model game to record
+     * @param batchRecords records written together at most
+     * @param commitIntervalMillis longest time a record waits before being forced to disk
+     * @param checkpointInterval moves between snapshots
+     * @throws IOException
+     */
+    public TicTacToeJournal(Path path, TicTacToeModel model, int batchRecords, long commitIntervalMillis,
+                            int checkpointInterval) throws IOException {
+        this.path = path;
+        this.batchRecords = batchRecords;
+        this.checkpointInterval = checkpointInterval;
+        this.generation = readGeneration(path);
+        attach(model);
+        this.committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TicTacToeJournal committer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.committer.scheduleWithFixedDelay(this::commitQuietly, commitIntervalMillis,
+                commitIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructor with 256 record batches, a 50 ms commit interval and a
+     * snapshot every 10,000 moves.
+     *
+     * @param path
+     * @param model
+     * @throws IOException
+     */
+    public TicTacToeJournal(Path path, TicTacToeModel model) throws IOException {
+        this(path, model, 256, 50, 10000);
+    }
+
+    /**
+     * Switches the journal to record another game (e.g. after the grid size
+     * changed), starting with a snapshot of its current position.
+     *
+     * @param model
+     * @throws IOException
+     */
+    public synchronized void attach(TicTacToeModel model) throws IOException {
+        if (this.model != null && this.model != model) this.model.setJournal(null);
+        this.model = model;
+        this.recordBytes = (model.getSize() <= Short.MAX_VALUE) ? 4 : 8;
+        checkpoint();
+        model.setJournal(this);
+    }
+
+    /**
+     * Appends a move. Called by TicTacToeModel.takeTurn().
+     *
+     * @param row
+     * @param column
+     */
+    synchronized void append(int row, int column) {
+        putRecord(row, column);
+        if (++this.sinceCheckpoint >= this.checkpointInterval) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                System.out.println("Journal checkpoint - IOException caught.");
+            }
+        }
+    }
+
+    /**
+     * Appends a batch of moves. Called by TicTacToeModel.takeTurns(), after
+     * the whole batch is on the grid, so a checkpoint is only taken once
+     * every move of the batch is logged.
+     *
+     * @param rows
+     * @param columns
+     * @param count moves to append
+     */
+    synchronized void append(int[] rows, int[] columns, int count) {
+        for (int i = 0; i < count; i++) {
+            putRecord(rows[i], columns[i]);
+        }
+        this.sinceCheckpoint += count;
+        if (this.sinceCheckpoint >= this.checkpointInterval) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                System.out.println("Journal checkpoint - IOException caught.");
+            }
+        }
+    }
+
+    /**
+     * Appends the start of a new game. Called by TicTacToeModel.reset().
+     *
+     * @param initialTurn
+     */
+    synchronized void appendReset(char initialTurn) {
+        putRecord(RESET, initialTurn);
+    }
+
+    private void putRecord(int row, int column) {
+        if (this.channel == null) return;
+        if (this.recordBytes == 4) {
+            this.pending.putShort((short) row).putShort((short) column);
+        } else {
+            this.pending.putInt(row).putInt(column);
+        }
+        if (!this.pending.hasRemaining()) commitQuietly();
+    }
+
+    /**
+     * Writes the pending records and forces them to disk.
+     *
+     * @throws IOException
+     */
+    public synchronized void commit() throws IOException {
+        if (this.channel == null || this.pending.position() == 0) return;
+        this.pending.flip();
+        while (this.pending.hasRemaining()) {
+            this.channel.write(this.pending);
+        }
+        this.pending.clear();
+        this.channel.force(false);
+    }
+
+    private void commitQuietly() {
+        try {
+            commit();
+        } catch (IOException e) {
+            System.out.println("Journal commit - IOException caught.");
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current position and restarts the log empty.
+     *
+     * @throws IOException
+     */
+    public synchronized void checkpoint() throws IOException {
+        long next = this.generation + 1;
+        Path snapshot = snapshotPath(this.path, next);
+        Path temporary = Paths.get(snapshot + ".tmp");
+        TicTacToeFile.save(this.model, temporary);
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Switch the journal to the new snapshot in one rename
+        Path journal = Paths.get(this.path + ".tmp");
+        FileChannel newChannel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putShort(VERSION).put((byte) this.recordBytes)
+                .putInt(this.model.getSize()).putInt(this.model.getNumToWin())
+                .put((byte) this.model.getTurn()).putLong(next);
+        header.flip();
+        while (header.hasRemaining()) {
+            newChannel.write(header);
+        }
+        newChannel.force(true);
+        Files.move(journal, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (this.channel != null) this.channel.close();
+        Files.deleteIfExists(snapshotPath(this.path, this.generation));
+        this.channel = newChannel;
+        this.pending = ByteBuffer.allocateDirect(this.batchRecords * this.recordBytes);
+        this.generation = next;
+        this.sinceCheckpoint = 0;
+    }
+
+    /**
+     * Commits the pending records and closes the journal file. The model is
+     * no longer journaled.
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.committer.shutdown();
+        commit();
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+        if (this.model != null) this.model.setJournal(null);
+    }
+
+    private static Path snapshotPath(Path journal, long generation) {
+        return Paths.get(journal + "." + generation + ".snapshot");
+    }
+
+    /**
+     * Returns the snapshot generation of an existing journal.
+     *
+     * @param path
+     * @return generation, or 0 if there is no readable journal
+     */
+    private static long readGeneration(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt(0) != MAGIC) return 0;
+            return header.getLong(16);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Rebuilds the game recorded by a journal: loads its latest snapshot and
+     * replays the moves logged since, without notifying views or journaling
+     * them again. A record torn by a crash at the end of the log is ignored.
+     *
+     * @param path journal file
+     * @return recovered game, or null if there is no journal
+     * @throws IOException if the journal or snapshot is unreadable or inconsistent
+     */
+    public static TicTacToeModel recover(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES)
+                throw new IOException(path + " is not a TicTacToe journal.");
+            ByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (log.getInt() != MAGIC || log.getShort() != VERSION)
+                throw new IOException(path + " is not a TicTacToe journal.");
+            int recordBytes = log.get();
+            int size = log.getInt();
+            int numToWin = log.getInt();
+            char initialTurn = (char) log.get();
+            long generation = log.getLong();
+
+            TicTacToeModel model = (generation > 0)
+                    ? TicTacToeFile.load(snapshotPath(path, generation))
+                    : new TicTacToeModel(size, numToWin, initialTurn);
+            // Moves between resets are replayed in batches
+            int[] rows = new int[REPLAY_BATCH];
+            int[] columns = new int[REPLAY_BATCH];
+            int count = 0;
+            try {
+                while (log.remaining() >= recordBytes) {
+                    int row = (recordBytes == 4) ? log.getShort() : log.getInt();
+                    int column = (recordBytes == 4) ? log.getShort() : log.getInt();
+                    if (row == RESET) {
+                        replay(model, rows, columns, count);
+                        count = 0;
+                        model.reset((char) column);
+                    } else {
+                        rows[count] = row;
+                        columns[count] = column;
+                        if (++count == REPLAY_BATCH) {
+                            replay(model, rows, columns, count);
+                            count = 0;
+                        }
+                    }
+                }
+                replay(model, rows, columns, count);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + " does not match its snapshot: " + e.getMessage());
+            }
+            return model;
+        }
+    }
+
+    /**
+     * Plays a batch of logged moves on a recovered game.
+     *
+     * @param model
+     * @param rows
+     * @param columns
+     * @param count
+     * @throws IllegalArgumentException if a move is illegal or comes after the end of the game
+     */
+    private static void replay(TicTacToeModel model, int[] rows, int[] columns, int count) throws IllegalArgumentException {
+        if (model.takeTurns(rows, columns, count) < count)
+            throw new IllegalArgumentException("Game is over.");
+    }
+
+    /** Recovery timing example: journals a long game, then recovers it
+     *
+     * @param args number of moves (default 10000) and journal file (default game.journal)
+     * @throws IOException
+     */
+    public static void main(String args[]) throws IOException {
+        int moves = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        Path path = Paths.get((args.length > 1) ? args[1] : "game.journal");
+        int size = (int) Math.ceil(Math.sqrt(2.0 * moves));
+        TicTacToeModel game = new TicTacToeModel(size, Math.min(5, size), 'X');
+        TicTacToeJournal journal = new TicTacToeJournal(path, game, 256, 50, Integer.MAX_VALUE);
+        long start = System.nanoTime();
+        int played = 0;
+        for (int cell = 0; played < moves && game.getGameState() == TicTacToeEnum.IN_PROGRESS; cell += 2) {
+            // Every other cell, shifted on odd rows, keeps runs short
+            int row = cell / size;
+            int column = (cell % size + row % 2) % size;
+            if (game.getMark(row, column) != ' ') continue;
+            game.takeTurn(row, column);
+            played++;
+        }
+        journal.close();
+        long journaled = System.nanoTime();
+        TicTacToeModel recovered = recover(path);
+        long end = System.nanoTime();
+        System.out.printf("%d moves on %dx%d: journaled in %.1fms, recovered %d marks in %.1fms, %s%n", played,
+                size, size, (journaled - start) / 1e6, recovered.getMarkCount(), (end - journaled) / 1e6,
+                recovered.getGameState());
+    }
+}
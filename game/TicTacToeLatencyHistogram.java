@@ -0,0 +1,136 @@
+package game;
+
+import java.util.*;
+
+/**
+ * Fixed-size log-linear histogram of latencies in nanoseconds, in the style
+ * of HdrHistogram: every power of two is split into 16 equal buckets, so
+ * any recorded value is reported within 1/16 (about 6%) of its true value.
+ * Recording is a few shifts and an array increment and never allocates.
+ *
+ * Histograms are not thread-safe; give each thread its own and add() them
+ * together for reporting.
+ */
+public class TicTacToeLatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos value to record, negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0L, nanos);
+        this.counts[indexOf(value)]++;
+        this.count++;
+        this.sum += value;
+        if (value > this.max) this.max = value;
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one.
+     *
+     * @param other
+     */
+    public void add(TicTacToeLatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts[i] += other.counts[i];
+        }
+        this.count += other.count;
+        this.sum += other.sum;
+        this.max = Math.max(this.max, other.max);
+    }
+
+    /**
+     * Adds values counted elsewhere per bucket, e.g. by the concurrent
+     * histograms of TicTacToeMetrics.
+     *
+     * @param bucketCounts values per bucket, BUCKETS long
+     * @param sum of the values
+     * @param max largest value
+     */
+    void add(long[] bucketCounts, long sum, long max) {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts[i] += bucketCounts[i];
+            this.count += bucketCounts[i];
+        }
+        this.sum += sum;
+        this.max = Math.max(this.max, max);
+    }
+
+    /**
+     * Removes every recorded value.
+     */
+    public void reset() {
+        Arrays.fill(this.counts, 0L);
+        this.count = 0;
+        this.sum = 0;
+        this.max = 0;
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the highest value that falls in a bucket.
+     */
+    static long highestValueOf(int index) {
+        if (index < 2 * SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the value at or below which the given percentage of the recorded values fall.
+     *
+     * @param percentile between 0 and 100
+     * @return latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        if (this.count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * this.count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) return Math.min(highestValueOf(i), this.max);
+        }
+        return this.max;
+    }
+
+    public long getCount() { return this.count; }
+
+    public long getMax() { return this.max; }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return mean latency in nanoseconds
+     */
+    public double getMean() {
+        return (this.count == 0) ? 0.0 : (double) this.sum / this.count;
+    }
+
+    /**
+     * Formats the usual percentiles in microseconds.
+     *
+     * @return summary line
+     */
+    @Override
+    public String toString() {
+        return String.format("p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus (n=%d)",
+                getPercentile(50) / 1e3, getPercentile(90) / 1e3, getPercentile(99) / 1e3,
+                getPercentile(99.9) / 1e3, this.max / 1e3, this.count);
+    }
+}
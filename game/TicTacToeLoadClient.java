@@ -0,0 +1,262 @@
+package game;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Load generator for TicTacToeServer: opens many connections that play
+ * random games against each other for a while, then reports the moves
+ * per second and the latency of a move, from sending MOVE to receiving
+ * its MOVED reply.
+ *
+ * All connections run on one thread with a Selector. Each connection
+ * keeps its own copy of the grid to pick random empty cells, and queues
+ * for another game as soon as one ends.
+ */
+public class TicTacToeLoadClient {
+
+    private final Selector selector;
+    private final List<Player> players = new ArrayList<>();
+    private final TicTacToeLatencyHistogram moveLatency = new TicTacToeLatencyHistogram();
+    private final SplittableRandom random = new SplittableRandom();
+    private final int size;
+    private final int numToWin;
+    private long moves;
+    private long games;
+    private long errors;
+    private boolean running = true;
+
+    /**
+     * Constructor for a client with a number of connections to a server.
+     *
+     * @param server address of the server
+     * @param connections number of players, an even number plays every one of them
+     * @param size grid size of the games to play
+     * @param numToWin
+     * @throws IOException
+     */
+    public TicTacToeLoadClient(InetSocketAddress server, int connections, int size, int numToWin)
+            throws IOException {
+        this.selector = Selector.open();
+        this.size = size;
+        this.numToWin = numToWin;
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Player player = new Player(channel);
+            if (channel.connect(server)) {
+                player.key = channel.register(this.selector, SelectionKey.OP_READ, player);
+                player.send("PLAY " + size + " " + numToWin);
+            } else {
+                player.key = channel.register(this.selector, SelectionKey.OP_CONNECT, player);
+            }
+            this.players.add(player);
+        }
+    }
+
+    /**
+     * Plays for a while.
+     *
+     * @param millis how long to play
+     * @throws IOException
+     */
+    public void run(long millis) throws IOException {
+        long end = System.nanoTime() + millis * 1000000L;
+        long now;
+        while ((now = System.nanoTime()) - end < 0) {
+            this.selector.select(Math.max(1, (end - now) / 1000000L));
+            Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Player player = (Player) key.attachment();
+                if (!key.isValid()) continue;
+                if (key.isConnectable()) player.connected();
+                if (key.isValid() && key.isReadable()) player.read();
+                if (key.isValid() && key.isWritable()) player.flush();
+            }
+        }
+        this.running = false;
+    }
+
+    /**
+     * Closes every connection.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        for (Player player : this.players) {
+            player.channel.close();
+        }
+        this.selector.close();
+    }
+
+    public long getMoves() { return this.moves; }
+
+    public long getGames() { return this.games; }
+
+    public long getErrors() { return this.errors; }
+
+    public TicTacToeLatencyHistogram getMoveLatency() { return this.moveLatency; }
+
+    /**
+     * One connection playing games.
+     */
+    private class Player {
+
+        final SocketChannel channel;
+        SelectionKey key;
+        private final ByteBuffer input = ByteBuffer.allocate(256);
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        private char mark;
+        private byte[] grid;
+        private int marks;
+        private long sentAt;
+
+        Player(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void connected() throws IOException {
+            this.channel.finishConnect();
+            this.key.interestOps(SelectionKey.OP_READ);
+            send("PLAY " + size + " " + numToWin);
+        }
+
+        void send(String line) throws IOException {
+            this.output.add(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII)));
+            flush();
+        }
+
+        void flush() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = this.output.peek()) != null) {
+                this.channel.write(buffer);
+                if (buffer.hasRemaining()) break;
+                this.output.poll();
+            }
+            this.key.interestOps(this.output.isEmpty()
+                    ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        void read() throws IOException {
+            if (this.channel.read(this.input) < 0) {
+                this.key.cancel();
+                return;
+            }
+            this.input.flip();
+            int start = this.input.position();
+            for (int i = start; i < this.input.limit(); i++) {
+                if (this.input.get(i) == '\n') {
+                    byte[] bytes = new byte[i - start];
+                    this.input.get(start, bytes);
+                    handle(new String(bytes, StandardCharsets.US_ASCII).split(" "));
+                    start = i + 1;
+                }
+            }
+            this.input.position(start);
+            this.input.compact();
+        }
+
+        private void handle(String[] words) throws IOException {
+            switch (words[0]) {
+                case "START":
+                    this.mark = words[1].charAt(0);
+                    this.grid = new byte[size * size];
+                    this.marks = 0;
+                    if (this.mark == 'X') move();
+                    break;
+                case "MOVED":
+                    char mover = words[1].charAt(0);
+                    int row = Integer.parseInt(words[2]);
+                    int column = Integer.parseInt(words[3]);
+                    this.grid[row * size + column] = 1;
+                    this.marks++;
+                    if (mover == this.mark) {
+                        moveLatency.record(System.nanoTime() - this.sentAt);
+                        moves++;
+                    }
+                    if (!words[4].equals(TicTacToeEnum.IN_PROGRESS.name())) {
+                        // Count each game once, from the player who did not make the last move
+                        if (mover != this.mark) games++;
+                        playAgain();
+                    } else if (mover != this.mark) {
+                        move();
+                    }
+                    break;
+                case "LEFT":
+                    playAgain();
+                    break;
+                case "ERROR":
+                    errors++;
+                    break;
+                default:
+                    // WAITING
+            }
+        }
+
+        private void playAgain() throws IOException {
+            if (running) send("PLAY " + size + " " + numToWin);
+        }
+
+        /**
+         * Plays a random empty cell: random probes while the grid is mostly
+         * empty, otherwise the first empty cell from a random start.
+         */
+        private void move() throws IOException {
+            int cells = this.grid.length;
+            int cell = random.nextInt(cells);
+            if (this.marks * 2 < cells) {
+                while (this.grid[cell] != 0) {
+                    cell = random.nextInt(cells);
+                }
+            } else {
+                while (this.grid[cell] != 0) {
+                    cell = (cell + 1) % cells;
+                }
+            }
+            this.sentAt = System.nanoTime();
+            send("MOVE " + (cell / size) + " " + (cell % size));
+        }
+    }
+
+    /** Load test, against a running server or one started in this process
+     *
+     * @param args server host:port or "local" (default local), connections
+     *             (default 1000), seconds (default 10), size (default 3) and
+     *             numToWin (default size)
+     * @throws IOException
+     */
+    public static void main(String args[]) throws IOException {
+        String target = (args.length > 0) ? args[0] : "local";
+        int connections = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+        int size = (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+        int numToWin = (args.length > 4) ? Integer.parseInt(args[4]) : size;
+
+        TicTacToeServer server = null;
+        InetSocketAddress address;
+        if (target.equals("local")) {
+            server = new TicTacToeServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    Runtime.getRuntime().availableProcessors(), Math.max(size, TicTacToeServer.DEFAULT_MAX_SIZE));
+            address = server.getAddress();
+        } else {
+            int colon = target.lastIndexOf(':');
+            address = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+        }
+
+        TicTacToeLoadClient client = new TicTacToeLoadClient(address, connections, size, numToWin);
+        System.out.printf("%d connections to %s, %dx%d games with %d to win, %d s%n", connections, address,
+                size, size, numToWin, seconds);
+        client.run(seconds * 1000L);
+        client.close();
+        if (server != null) server.close();
+        System.out.printf("%d moves (%.0f moves/s), %d games, %d errors%nMove latency: %s%n", client.getMoves(),
+                client.getMoves() / (double) seconds, client.getGames(), client.getErrors(), client.getMoveLatency());
+    }
+}
@@ -0,0 +1,642 @@
+package game;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Computer player using Monte Carlo Tree Search (UCT) for grids too large
+ * for TicTacToeAI to search deeply, such as 15 x 15 or 19 x 19 with five
+ * in a row to win.
+ *
+ * Tree nodes live in a pool of parallel arrays allocated once, so memory
+ * stays flat however long the player thinks; the children of a node take
+ * a contiguous block of the pool. When the pool is full the tree stops
+ * growing and the search carries on with playouts from its leaves. The
+ * subtree of the position reached two moves later is kept for the next
+ * move and slid down to the start of the pool.
+ *
+ * Playouts are played on a scratch TicTacToeSearchBoard owned by each
+ * thread: they take an immediate win, otherwise block the opponent's
+ * immediate win, otherwise play a random cell next to the marks already
+ * on the grid, and allocate nothing. With more than one thread, each
+ * thread counts a visit to every node on its way down before the playout
+ * result is known (virtual loss), so the threads spread over the tree.
+ * Grids of more than TicTacToeAI.MAX_SEARCH_CELLS cells are played by
+ * TicTacToeGreedyPlayer.
+ */
+public class TicTacToeMCTSPlayer implements TicTacToePlayer {
+
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+    private static final int NEIGHBOUR_DISTANCE = 1;
+    private static final int EXPAND_VISITS = 2;     // Visits before a leaf gets children
+    private static final int RANDOM_TRIES = 8;      // Samples looking for a cell next to a mark
+
+    // Node states
+    private static final int UNEXPANDED = 0;
+    private static final int EXPANDING = 1;
+    private static final int EXPANDED = 2;
+
+    private long timeBudgetNanos;
+    private double exploration = 1.0;
+    private final TicTacToePlayer largeGridPlayer = new TicTacToeGreedyPlayer();
+
+    // Node pool
+    private final int capacity;
+    private final int[] moves;           // Cell played to reach the node
+    private final int[] firstChild;
+    private final int[] childCount;
+    private final AtomicIntegerArray states;
+    private final AtomicIntegerArray visits;
+    private final AtomicIntegerArray rewards;    // 2 per win, 1 per draw, for the player who moved
+    private final int[] forward;                 // New index of each node while compacting
+    private final AtomicInteger nextFree = new AtomicInteger();
+    private volatile boolean poolFull;
+
+    // Tree kept between moves
+    private TicTacToeSearchBoard rootBoard;
+    private TicTacToeSearchBoard treeBoard;      // Position of the root of the last search
+    private int root = -1;
+
+    // Search threads
+    private int threads = 1;
+    private ForkJoinPool pool;
+    private Worker[] workers;
+
+    // Statistics of the last search
+    private long playouts;
+    private long searchNanos;
+    private int reusedNodes;
+
+    /**
+     * Default constructor: one second per move and a 1M node pool.
+     */
+    public TicTacToeMCTSPlayer() {
+        this(1000, 1 << 20);
+    }
+
+    /**
+     * Constructor for a tree search player.
+     *
+     * @param timeBudgetMillis maximum thinking time per move
+     * @param capacity maximum number of tree nodes
+     * @throws IllegalArgumentException
+     */
+    public TicTacToeMCTSPlayer(long timeBudgetMillis, int capacity) throws IllegalArgumentException {
+        if (capacity < 2)
+            throw new IllegalArgumentException("Node pool must hold at least 2 nodes.");
+        setTimeBudget(timeBudgetMillis);
+        this.capacity = capacity;
+        this.moves = new int[capacity];
+        this.firstChild = new int[capacity];
+        this.childCount = new int[capacity];
+        this.states = new AtomicIntegerArray(capacity);
+        this.visits = new AtomicIntegerArray(capacity);
+        this.rewards = new AtomicIntegerArray(capacity);
+        this.forward = new int[capacity];
+    }
+
+    /**
+     * Sets the maximum thinking time per move.
+     *
+     * @param timeBudgetMillis
+     * @throws IllegalArgumentException
+     */
+    public void setTimeBudget(long timeBudgetMillis) throws IllegalArgumentException {
+        if (timeBudgetMillis <= 0)
+            throw new IllegalArgumentException("Time budget must be positive.");
+        this.timeBudgetNanos = timeBudgetMillis * 1000000L;
+    }
+
+    /**
+     * Sets the UCT exploration constant: higher values try more moves,
+     * lower values search the best moves found so far more deeply.
+     *
+     * @param exploration
+     * @throws IllegalArgumentException
+     */
+    public void setExploration(double exploration) throws IllegalArgumentException {
+        if (!(exploration >= 0))
+            throw new IllegalArgumentException("Exploration must not be negative.");
+        this.exploration = exploration;
+    }
+
+    /**
+     * Sets the number of threads running playouts for each move.
+     *
+     * @param threads 1 to search on the calling thread
+     * @throws IllegalArgumentException
+     */
+    public synchronized void setThreads(int threads) throws IllegalArgumentException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be positive.");
+        if (threads != this.threads) {
+            shutdown();
+            this.threads = threads;
+            this.workers = null;
+        }
+    }
+
+    /**
+     * Stops the worker threads. They are restarted by the next search.
+     */
+    public synchronized void shutdown() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+            this.pool = null;
+        }
+    }
+
+    @Override
+    public synchronized int[] chooseMove(TicTacToeModel model) throws IllegalArgumentException {
+        if (model.getGameState() != TicTacToeEnum.IN_PROGRESS)
+            throw new IllegalArgumentException("Game is over.");
+        int size = model.getSize();
+        if ((long) size * size > TicTacToeAI.MAX_SEARCH_CELLS) {
+            return this.largeGridPlayer.chooseMove(model);
+        }
+        if (this.rootBoard == null || this.rootBoard.getSize() != size
+                || this.rootBoard.getNumToWin() != model.getNumToWin()) {
+            this.rootBoard = new TicTacToeSearchBoard(model);
+            this.treeBoard = new TicTacToeSearchBoard(model);
+            this.workers = null;
+            this.root = -1;
+        } else {
+            this.rootBoard.load(model);
+        }
+        if (this.rootBoard.getMarkCount() == 0) {
+            return new int[] {size / 2, size / 2};
+        }
+        int cell = search();
+        return new int[] {cell / size, cell % size};
+    }
+
+    /**
+     * Runs playouts from the loaded root position until the time budget
+     * runs out.
+     *
+     * @return most visited cell
+     */
+    private int search() {
+        long start = System.nanoTime();
+        long deadline = start + this.timeBudgetNanos;
+        if (this.workers == null) {
+            this.workers = new Worker[this.threads];
+            for (int t = 0; t < this.threads; t++) {
+                this.workers[t] = new Worker(this.rootBoard, t);
+            }
+        }
+        for (Worker worker : this.workers) {
+            worker.playouts = 0;
+        }
+        reuseTree();
+
+        Worker main = this.workers[0];
+        if (this.states.get(this.root) != EXPANDED) {
+            main.board.copyFrom(this.rootBoard);
+            expand(this.root, main);
+        }
+        // A forced win or block needs no playouts
+        if (this.states.get(this.root) == EXPANDED && this.childCount[this.root] > 1) {
+            if (this.threads == 1) {
+                main.run(deadline);
+            } else {
+                runParallel(deadline);
+            }
+        }
+
+        this.playouts = 0;
+        for (Worker worker : this.workers) {
+            this.playouts += worker.playouts;
+        }
+        this.searchNanos = System.nanoTime() - start;
+        this.treeBoard.copyFrom(this.rootBoard);
+        return bestMove();
+    }
+
+    private void runParallel(long deadline) {
+        if (this.pool == null) {
+            this.pool = new ForkJoinPool(this.threads);
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(this.threads);
+        for (Worker worker : this.workers) {
+            tasks.add(() -> {
+                worker.run(deadline);
+                return null;
+            });
+        }
+        for (Future<Void> task : this.pool.invokeAll(tasks)) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Playout worker failed.", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns the most visited child of the root, or the first cell next to
+     * the marks if the pool could not hold the root's children.
+     */
+    private int bestMove() {
+        if (this.states.get(this.root) != EXPANDED) {
+            for (int cell = 0; cell < this.rootBoard.getCellCount(); cell++) {
+                if (this.rootBoard.getMark(cell) == TicTacToeSearchBoard.EMPTY
+                        && this.rootBoard.hasNeighbour(cell, NEIGHBOUR_DISTANCE)) return cell;
+            }
+        }
+        int best = this.firstChild[this.root];
+        for (int c = best + 1; c < this.firstChild[this.root] + this.childCount[this.root]; c++) {
+            if (this.visits.get(c) > this.visits.get(best)) best = c;
+        }
+        return this.moves[best];
+    }
+
+    /**
+     * Makes the node of the loaded root position the root of the tree,
+     * keeping its subtree if the last search reached it, and compacts the
+     * pool so the tree starts at node 0.
+     */
+    private void reuseTree() {
+        int node = (this.root < 0) ? -1 : findDescendant();
+        if (node < 0) {
+            this.moves[0] = -1;
+            this.states.set(0, UNEXPANDED);
+            this.visits.set(0, 0);
+            this.rewards.set(0, 0);
+            this.nextFree.set(1);
+            this.reusedNodes = 0;
+        } else {
+            compact(node);
+            this.reusedNodes = this.nextFree.get();
+        }
+        this.root = 0;
+        this.poolFull = false;
+    }
+
+    /**
+     * Follows the moves played since the last search down the tree.
+     *
+     * @return node of the loaded root position, or -1 if it is not in the tree
+     */
+    private int findDescendant() {
+        TicTacToeSearchBoard tree = this.treeBoard;
+        TicTacToeSearchBoard position = this.rootBoard;
+        if (position.getMarkCount() < tree.getMarkCount()) return -1;
+        for (int cell = 0; cell < tree.getCellCount(); cell++) {
+            byte mark = tree.getMark(cell);
+            if (mark != TicTacToeSearchBoard.EMPTY && mark != position.getMark(cell)) return -1;
+        }
+        int node = this.root;
+        while (tree.getMarkCount() < position.getMarkCount()) {
+            if (this.states.get(node) != EXPANDED) return -1;
+            byte mover = tree.getToMove();
+            int next = -1;
+            for (int c = this.firstChild[node]; c < this.firstChild[node] + this.childCount[node]; c++) {
+                int cell = this.moves[c];
+                if (tree.getMark(cell) == TicTacToeSearchBoard.EMPTY && position.getMark(cell) == mover) {
+                    next = c;
+                    break;
+                }
+            }
+            if (next < 0) return -1;
+            tree.play(this.moves[next]);
+            node = next;
+        }
+        return (tree.getToMove() == position.getToMove()) ? node : -1;
+    }
+
+    /**
+     * Slides the subtree of a node down to the start of the pool, keeping
+     * the order of the nodes. Children are always allocated after their
+     * parent, so one pass in pool order finds the whole subtree and every
+     * node moves to an index no higher than its own.
+     *
+     * @param node new root
+     */
+    private void compact(int node) {
+        int used = this.nextFree.get();
+        Arrays.fill(this.forward, node, used, -1);
+        this.forward[node] = 0;
+        for (int i = node; i < used; i++) {
+            if (this.forward[i] >= 0 && this.states.get(i) == EXPANDED) {
+                Arrays.fill(this.forward, this.firstChild[i], this.firstChild[i] + this.childCount[i], 0);
+            }
+        }
+        int kept = 0;
+        for (int i = node; i < used; i++) {
+            if (this.forward[i] >= 0) this.forward[i] = kept++;
+        }
+        for (int i = node; i < used; i++) {
+            int j = this.forward[i];
+            if (j < 0) continue;
+            this.moves[j] = this.moves[i];
+            this.visits.set(j, this.visits.get(i));
+            this.rewards.set(j, this.rewards.get(i));
+            if (this.states.get(i) == EXPANDED) {
+                this.firstChild[j] = this.forward[this.firstChild[i]];
+                this.childCount[j] = this.childCount[i];
+                this.states.set(j, EXPANDED);
+            } else {
+                // Leaves the full pool could not expand get another chance
+                this.states.set(j, UNEXPANDED);
+            }
+        }
+        this.nextFree.set(kept);
+    }
+
+    /**
+     * Gives a node children for the candidate moves of the worker's board:
+     * only the winning move if there is one, otherwise only the blocks if
+     * the opponent threatens to win, otherwise every empty cell next to a
+     * mark. The caller must have moved the node to EXPANDING.
+     *
+     * @param node
+     * @param worker whose board holds the node's position
+     */
+    private void expand(int node, Worker worker) {
+        TicTacToeSearchBoard board = worker.board;
+        int[] candidates = worker.candidates;
+        byte own = board.getToMove();
+        byte other = (own == TicTacToeSearchBoard.X) ? TicTacToeSearchBoard.O : TicTacToeSearchBoard.X;
+        int n = 0;
+        int win = -1;
+        for (int cell = 0; cell < board.getCellCount(); cell++) {
+            if (board.getMark(cell) != TicTacToeSearchBoard.EMPTY || !board.hasNeighbour(cell, NEIGHBOUR_DISTANCE))
+                continue;
+            if (board.isWinningMove(cell, own)) {
+                win = cell;
+                break;
+            }
+            candidates[n++] = cell;
+        }
+        if (win >= 0) {
+            candidates[0] = win;
+            n = 1;
+        } else {
+            int blocks = 0;
+            for (int i = 0; i < n; i++) {
+                if (board.isWinningMove(candidates[i], other)) candidates[blocks++] = candidates[i];
+            }
+            if (blocks > 0) n = blocks;
+        }
+        if (n == 0 && !board.isFull()) {
+            candidates[n++] = (board.getSize() / 2) * board.getSize() + board.getSize() / 2;
+        }
+
+        int first;
+        do {
+            first = this.nextFree.get();
+            if (first + n > this.capacity) {
+                // Left EXPANDING: the node stays a leaf until the tree is compacted
+                this.poolFull = true;
+                return;
+            }
+        } while (!this.nextFree.compareAndSet(first, first + n));
+        for (int i = 0; i < n; i++) {
+            int child = first + i;
+            this.moves[child] = candidates[i];
+            this.states.set(child, UNEXPANDED);
+            this.visits.set(child, 0);
+            this.rewards.set(child, 0);
+        }
+        this.firstChild[node] = first;
+        this.childCount[node] = n;
+        this.states.set(node, EXPANDED);
+    }
+
+    /**
+     * Returns the child of a node with the highest upper confidence bound;
+     * children not visited yet come first.
+     *
+     * @param node expanded node with children
+     * @return child index
+     */
+    private int select(int node) {
+        double logVisits = Math.log(Math.max(1, this.visits.get(node)));
+        int first = this.firstChild[node];
+        int best = first;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = first; c < first + this.childCount[node]; c++) {
+            int n = this.visits.get(c);
+            if (n == 0) return c;
+            double score = this.rewards.get(c) / (2.0 * n) + this.exploration * Math.sqrt(logVisits / n);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Per-thread search state: a scratch board, buffers and a random
+     * generator, all allocated once.
+     */
+    private class Worker {
+
+        private final TicTacToeSearchBoard board;
+        private final int[] candidates;
+        private final int[] empties;
+        private final int[] path;
+        private final SplittableRandom random;
+        private long playouts;
+
+        Worker(TicTacToeSearchBoard position, int index) {
+            this.board = new TicTacToeSearchBoard(position.getSize(), position.getNumToWin(), position.getToMove());
+            this.candidates = new int[position.getCellCount()];
+            this.empties = new int[position.getCellCount()];
+            this.path = new int[position.getCellCount() + 1];
+            this.random = new SplittableRandom(System.nanoTime() + index);
+        }
+
+        void run(long deadline) {
+            do {
+                iterate();
+                this.playouts++;
+            } while (System.nanoTime() < deadline);
+        }
+
+        /**
+         * Descends the tree from the root, expands the leaf reached if it
+         * has been visited before, plays out the rest of the game and
+         * credits the result to every node on the way.
+         */
+        private void iterate() {
+            TicTacToeSearchBoard board = this.board;
+            board.copyFrom(rootBoard);
+            int node = root;
+            int depth = 0;
+            this.path[depth++] = node;
+            visits.incrementAndGet(node);
+            byte winner = -1;
+            while (winner < 0) {
+                int state = states.get(node);
+                if (state == UNEXPANDED && visits.get(node) >= EXPAND_VISITS && !poolFull
+                        && states.compareAndSet(node, UNEXPANDED, EXPANDING)) {
+                    expand(node, this);
+                    state = states.get(node);
+                }
+                if (state != EXPANDED) break;
+                if (childCount[node] == 0) {
+                    winner = TicTacToeSearchBoard.EMPTY;
+                    break;
+                }
+                node = select(node);
+                visits.incrementAndGet(node);   // Virtual loss until the result is added
+                this.path[depth++] = node;
+                byte mover = board.getToMove();
+                if (board.play(moves[node])) {
+                    winner = mover;
+                } else if (board.isFull()) {
+                    winner = TicTacToeSearchBoard.EMPTY;
+                }
+            }
+            if (winner < 0) {
+                winner = playout();
+            }
+
+            // The root's mover is the player who is not to move there
+            byte mover = (rootBoard.getToMove() == TicTacToeSearchBoard.X) ? TicTacToeSearchBoard.O : TicTacToeSearchBoard.X;
+            for (int i = 0; i < depth; i++) {
+                int reward = (winner == mover) ? 2 : (winner == TicTacToeSearchBoard.EMPTY) ? 1 : 0;
+                if (reward > 0) rewards.addAndGet(this.path[i], reward);
+                mover = (mover == TicTacToeSearchBoard.X) ? TicTacToeSearchBoard.O : TicTacToeSearchBoard.X;
+            }
+        }
+
+        /**
+         * Plays the game on the scratch board to the end.
+         *
+         * @return winner, or EMPTY for a draw
+         */
+        private byte playout() {
+            TicTacToeSearchBoard board = this.board;
+            int n = 0;
+            for (int cell = 0; cell < board.getCellCount(); cell++) {
+                if (board.getMark(cell) == TicTacToeSearchBoard.EMPTY) this.empties[n++] = cell;
+            }
+            while (!board.isFull()) {
+                byte own = board.getToMove();
+                byte other = (own == TicTacToeSearchBoard.X) ? TicTacToeSearchBoard.O : TicTacToeSearchBoard.X;
+                int marks = board.getMarkCount();
+                int cell = (marks >= 2) ? findWinningCell(board.getMove(marks - 2), own) : -1;
+                if (cell >= 0) return own;
+                cell = (marks >= 1) ? findWinningCell(board.getMove(marks - 1), other) : -1;
+                for (int tries = 0; cell < 0 && n > 0; ) {
+                    int i = this.random.nextInt(n);
+                    int c = this.empties[i];
+                    // Cells filled by a block are dropped when they come up
+                    if (board.getMark(c) == TicTacToeSearchBoard.EMPTY
+                            && tries++ < RANDOM_TRIES && !board.hasNeighbour(c, NEIGHBOUR_DISTANCE)) continue;
+                    this.empties[i] = this.empties[--n];
+                    if (board.getMark(c) == TicTacToeSearchBoard.EMPTY) cell = c;
+                }
+                if (cell < 0) break;
+                if (board.play(cell)) return own;
+            }
+            return TicTacToeSearchBoard.EMPTY;
+        }
+
+        /**
+         * Returns an empty cell on a line through a given cell where a mark
+         * would complete a winning run.
+         *
+         * @param through cell the winning run must pass through
+         * @param mark X or O
+         * @return winning cell, or -1 if none
+         */
+        private int findWinningCell(int through, byte mark) {
+            TicTacToeSearchBoard board = this.board;
+            int size = board.getSize();
+            int reach = board.getNumToWin() - 1;
+            int row = through / size;
+            int column = through % size;
+            for (int[] d : DIRECTIONS) {
+                for (int k = -reach; k <= reach; k++) {
+                    int r = row + d[0] * k;
+                    int c = column + d[1] * k;
+                    if (k == 0 || r < 0 || r >= size || c < 0 || c >= size) continue;
+                    int cell = r * size + c;
+                    if (board.getMark(cell) == TicTacToeSearchBoard.EMPTY && board.isWinningMove(cell, mark)) {
+                        return cell;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    public int getThreads() { return this.threads; }
+
+    public int getCapacity() { return this.capacity; }
+
+    public long getPlayouts() { return this.playouts; }
+
+    public double getSearchMillis() { return this.searchNanos / 1e6; }
+
+    /**
+     * Returns the nodes in use after the last search.
+     *
+     * @return nodes in the tree, at most getCapacity()
+     */
+    public int getTreeSize() { return (this.root < 0) ? 0 : this.nextFree.get(); }
+
+    /**
+     * Returns the nodes kept from the previous move at the start of the last search.
+     *
+     * @return nodes reused
+     */
+    public int getReusedNodes() { return this.reusedNodes; }
+
+    /**
+     * Returns the search speed of the last move.
+     *
+     * @return playouts per second
+     */
+    public double getPlayoutsPerSecond() {
+        return (this.searchNanos == 0) ? 0.0 : this.playouts * 1e9 / this.searchNanos;
+    }
+
+    /** Tuning example: prints playouts per second on an opening of each
+     * grid, then the win rate against the greedy and random players
+     *
+     * @param args time budget in milliseconds, games per match and threads
+     *             (default 100 20 1)
+     * @throws InterruptedException
+     */
+    public static void main(String args[]) throws InterruptedException {
+        long budget = (args.length > 0) ? Long.parseLong(args[0]) : 100;
+        long games = (args.length > 1) ? Long.parseLong(args[1]) : 20;
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+        for (int size : new int[] {15, 19}) {
+            TicTacToeModel game = new TicTacToeModel(size, 5, 'X');
+            TicTacToeMCTSPlayer player = new TicTacToeMCTSPlayer(budget, 1 << 20);
+            player.setThreads(threads);
+            TicTacToeGreedyPlayer greedy = new TicTacToeGreedyPlayer();
+            for (int move = 0; move < 10 && game.getGameState() == TicTacToeEnum.IN_PROGRESS; move++) {
+                int[] cell = (game.getTurn() == 'X') ? player.chooseMove(game) : greedy.chooseMove(game);
+                game.takeTurn(cell[0], cell[1]);
+                if (game.getTurn() == 'O' && player.getPlayouts() > 0) {
+                    System.out.printf("%dx%d move %d: %d playouts %.0f playouts/s tree=%d reused=%d %.1fms%n",
+                            size, size, move, player.getPlayouts(), player.getPlayoutsPerSecond(),
+                            player.getTreeSize(), player.getReusedNodes(), player.getSearchMillis());
+                }
+            }
+            player.shutdown();
+
+            for (String opponent : new String[] {"greedy", "random"}) {
+                TicTacToeSimulation simulation = new TicTacToeSimulation(size, 5, () -> {
+                    TicTacToeMCTSPlayer mcts = new TicTacToeMCTSPlayer(budget, 1 << 18);
+                    mcts.setThreads(threads);
+                    return mcts;
+                }, TicTacToeSimulation.playerFactory(opponent));
+                System.out.printf("%dx%d, 5 to win: mcts:%d (X) vs %s (O)%n", size, size, budget, opponent);
+                System.out.println(simulation.run(games, 1));
+            }
+        }
+    }
+}
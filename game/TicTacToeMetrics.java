@@ -0,0 +1,361 @@
+package game;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * Counters, latency histograms and gauges for the hot paths of the game,
+ * readable through JMX and printed periodically as text or JSON.
+ *
+ * Metrics are off unless the JVM is started with -Dtictactoe.metrics=true.
+ * ENABLED is a constant, so when it is false the JIT removes the timing
+ * and recording code altogether. When on, recording never allocates: a
+ * counter is a LongAdder, and a histogram adds to the bucket of
+ * TicTacToeLatencyHistogram's log-linear layout in an AtomicLongArray,
+ * so any number of threads can record at once.
+ *
+ * Timing a call site:
+ *
+ *   long start = TicTacToeMetrics.start();
+ *   ...
+ *   TicTacToeMetrics.TAKE_TURN.recordSince(start);
+ */
+public final class TicTacToeMetrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("tictactoe.metrics");
+
+    // Every metric by name, in name order for reports
+    private static final Map<String, Object> METRICS = new ConcurrentSkipListMap<>();
+
+    public static final Histogram TAKE_TURN = histogram("model.takeTurn");
+    public static final Histogram TAKE_TURNS = histogram("model.takeTurns");
+    public static final Histogram FIND_WINNER = histogram("model.findWinner");
+    public static final Histogram NOTIFY_VIEWS = histogram("model.notifyViews");
+    public static final Histogram VIEW_UPDATE = histogram("view.update");
+    public static final Histogram SAVE = histogram("file.save");
+    public static final Histogram LOAD = histogram("file.load");
+    public static final Counter INVALID_MOVES = counter("model.invalidMoves");
+    public static final Counter EVENTS = counter("model.events");
+    public static final Counter BYTES_WRITTEN = counter("file.bytesWritten");
+    public static final Counter BYTES_READ = counter("file.bytesRead");
+    public static final Gauge ACTIVE_GAMES = gauge("games.active");
+    public static final Gauge ACTIVE_CELLS = gauge("games.cells");
+
+    private static final String OBJECT_NAME = "game:type=TicTacToeMetrics";
+    private static ScheduledExecutorService dumpThread;
+
+    private TicTacToeMetrics() {
+    }
+
+    /**
+     * Monotonically increasing count.
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            if (ENABLED) this.value.increment();
+        }
+
+        public void add(long n) {
+            if (ENABLED) this.value.add(n);
+        }
+
+        public long get() { return this.value.sum(); }
+    }
+
+    /**
+     * Current level of something, e.g. games in progress.
+     */
+    public static final class Gauge {
+        private final AtomicLong value = new AtomicLong();
+
+        public void add(long n) {
+            if (ENABLED) this.value.addAndGet(n);
+        }
+
+        public void set(long n) {
+            if (ENABLED) this.value.set(n);
+        }
+
+        public long get() { return this.value.get(); }
+    }
+
+    /**
+     * Latency histogram that many threads can record into at once.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray counts = new AtomicLongArray(TicTacToeLatencyHistogram.BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records the time since a value returned by TicTacToeMetrics.start().
+         *
+         * @param start
+         */
+        public void recordSince(long start) {
+            if (ENABLED) record(System.nanoTime() - start);
+        }
+
+        /**
+         * Records one latency.
+         *
+         * @param nanos negative values count as 0
+         */
+        public void record(long nanos) {
+            if (!ENABLED) return;
+            long value = Math.max(0L, nanos);
+            this.counts.incrementAndGet(TicTacToeLatencyHistogram.indexOf(value));
+            this.sum.add(value);
+            long current;
+            while (value > (current = this.max.get()) && !this.max.compareAndSet(current, value)) {
+                // Another thread raised the maximum first; try again against it
+            }
+        }
+
+        /**
+         * Copies the values recorded so far. Values recorded during the copy
+         * may be only partly included.
+         *
+         * @return histogram for percentiles and reports
+         */
+        public TicTacToeLatencyHistogram snapshot() {
+            long[] copy = new long[TicTacToeLatencyHistogram.BUCKETS];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = this.counts.get(i);
+            }
+            TicTacToeLatencyHistogram histogram = new TicTacToeLatencyHistogram();
+            histogram.add(copy, this.sum.sum(), this.max.get());
+            return histogram;
+        }
+
+        void reset() {
+            for (int i = 0; i < this.counts.length(); i++) {
+                this.counts.set(i, 0L);
+            }
+            this.sum.reset();
+            this.max.set(0L);
+        }
+    }
+
+    /**
+     * Returns the start time to pass to Histogram.recordSince().
+     *
+     * @return System.nanoTime(), or 0 when metrics are off
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Returns the counter of a name, created on first use.
+     *
+     * @param name
+     * @return counter
+     * @throws IllegalArgumentException if the name is used by another kind of metric
+     */
+    public static Counter counter(String name) throws IllegalArgumentException {
+        return metric(name, Counter.class, new Counter());
+    }
+
+    public static Gauge gauge(String name) throws IllegalArgumentException {
+        return metric(name, Gauge.class, new Gauge());
+    }
+
+    public static Histogram histogram(String name) throws IllegalArgumentException {
+        return metric(name, Histogram.class, new Histogram());
+    }
+
+    private static <T> T metric(String name, Class<T> kind, T created) throws IllegalArgumentException {
+        Object metric = METRICS.putIfAbsent(name, created);
+        if (metric == null) return created;
+        if (!kind.isInstance(metric))
+            throw new IllegalArgumentException("Metric " + name + " is not a " + kind.getSimpleName() + ".");
+        return kind.cast(metric);
+    }
+
+    /**
+     * Clears every counter and histogram; gauges keep their level.
+     */
+    public static void reset() {
+        for (Object metric : METRICS.values()) {
+            if (metric instanceof Counter) ((Counter) metric).value.reset();
+            if (metric instanceof Histogram) ((Histogram) metric).reset();
+        }
+    }
+
+    /**
+     * Formats every metric, one per line. Histograms are in microseconds.
+     *
+     * @return report
+     */
+    public static String toText() {
+        StringBuilder s = new StringBuilder();
+        for (Map.Entry<String, Object> entry : METRICS.entrySet()) {
+            Object metric = entry.getValue();
+            s.append(entry.getKey()).append(' ');
+            if (metric instanceof Histogram) {
+                s.append(((Histogram) metric).snapshot());
+            } else {
+                s.append(valueOf(metric));
+            }
+            s.append('\n');
+        }
+        return s.toString();
+    }
+
+    /**
+     * Formats every metric as one JSON object. Histograms are objects of
+     * count, mean, percentiles and max in nanoseconds.
+     *
+     * @return report
+     */
+    public static String toJson() {
+        StringBuilder s = new StringBuilder("{");
+        for (Map.Entry<String, Object> entry : METRICS.entrySet()) {
+            if (s.length() > 1) s.append(',');
+            s.append('"').append(entry.getKey()).append("\":");
+            Object metric = entry.getValue();
+            if (metric instanceof Histogram) {
+                TicTacToeLatencyHistogram h = ((Histogram) metric).snapshot();
+                s.append(String.format(Locale.ROOT,
+                        "{\"count\":%d,\"mean\":%.1f,\"p50\":%d,\"p90\":%d,\"p99\":%d,\"p999\":%d,\"max\":%d}",
+                        h.getCount(), h.getMean(), h.getPercentile(50), h.getPercentile(90), h.getPercentile(99),
+                        h.getPercentile(99.9), h.getMax()));
+            } else {
+                s.append(valueOf(metric));
+            }
+        }
+        return s.append('}').toString();
+    }
+
+    private static long valueOf(Object metric) {
+        return (metric instanceof Counter) ? ((Counter) metric).get() : ((Gauge) metric).get();
+    }
+
+    /**
+     * Prints a report every period on a daemon thread, replacing any
+     * earlier schedule.
+     *
+     * @param seconds between reports
+     * @param json true for toJson(), false for toText()
+     * @param out where to print
+     */
+    public static synchronized void startDump(long seconds, boolean json, PrintStream out) {
+        stopDump();
+        dumpThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TicTacToe metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumpThread.scheduleAtFixedRate(() -> out.println(json ? toJson() : toText()), seconds, seconds,
+                TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stopDump() {
+        if (dumpThread != null) dumpThread.shutdownNow();
+        dumpThread = null;
+    }
+
+    /**
+     * Starts what the system properties ask for, when metrics are on:
+     * registers the JMX bean, and prints a report every
+     * tictactoe.metrics.dump seconds (as JSON if tictactoe.metrics.json is true).
+     */
+    public static void install() {
+        if (!ENABLED) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) server.registerMBean(new MetricsBean(), name);
+        } catch (JMException e) {
+            System.out.println("Metrics - JMException caught.");
+        }
+        long seconds = Long.getLong("tictactoe.metrics.dump", 0L);
+        if (seconds > 0) startDump(seconds, Boolean.getBoolean("tictactoe.metrics.json"), System.out);
+    }
+
+    /**
+     * JMX view of the metrics: one attribute per counter and gauge, and
+     * name.count, name.mean, name.p50, name.p99 and name.max (nanoseconds)
+     * per histogram, plus a reset operation.
+     */
+    private static class MetricsBean implements DynamicMBean {
+
+        private static final String[] HISTOGRAM_FIELDS = {"count", "mean", "p50", "p99", "max"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object metric = METRICS.get(attribute);
+            if (metric instanceof Counter || metric instanceof Gauge) return valueOf(metric);
+            int dot = attribute.lastIndexOf('.');
+            if (dot > 0 && METRICS.get(attribute.substring(0, dot)) instanceof Histogram) {
+                TicTacToeLatencyHistogram h = ((Histogram) METRICS.get(attribute.substring(0, dot))).snapshot();
+                switch (attribute.substring(dot + 1)) {
+                    case "count": return h.getCount();
+                    case "mean": return h.getMean();
+                    case "p50": return h.getPercentile(50);
+                    case "p99": return h.getPercentile(99);
+                    case "max": return h.getMax();
+                    default:
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Unknown attributes are left out, as the interface allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only.");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if (!actionName.equals("reset"))
+                throw new ReflectionException(new NoSuchMethodException(actionName));
+            reset();
+            return null;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : METRICS.entrySet()) {
+                if (entry.getValue() instanceof Histogram) {
+                    for (String field : HISTOGRAM_FIELDS) {
+                        attributes.add(new MBeanAttributeInfo(entry.getKey() + "." + field,
+                                field.equals("mean") ? "double" : "long", field + " in nanoseconds", true, false, false));
+                    }
+                } else {
+                    attributes.add(new MBeanAttributeInfo(entry.getKey(), "long", entry.getKey(), true, false, false));
+                }
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Clears counters and histograms",
+                    new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(MetricsBean.class.getName(), "TicTacToe metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] {reset}, null);
+        }
+    }
+}
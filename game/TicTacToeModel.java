@@ -1,4 +1,7 @@
+package game;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -6,16 +9,38 @@ import java.util.*;
 public class TicTacToeModel implements Serializable {
 
     private static final long serialVersionUID = 1L;
+
+    // Grids with more cells than this keep only their marks (SparseBoard)
+    public static final long SPARSE_CELLS = 1L << 24;
+
+    // Grids with more cells than this are summarised by toString()
+    public static final long TO_STRING_CELLS = 1L << 20;
+
     private int size; // Dimensions of square grid (size x size)
     private int numToWin;        // Number of adjacent checkers to be winner
     private int nMarks;          // Number of plays made
     private char turn;          // 'X' or 'O'
-    private char[][] grid;      // EMPTY, 'X' or 'O'
+    private TicTacToeBoard board; // EMPTY, 'X' or 'O'
+
+    // Marks placed per player ('X' = 0, 'O' = 1) on each row, column and diagonal,
+    // only kept when the board has no precomputed win masks
+    private int[][] rowCounts;
+    private int[][] columnCounts;
+    private int[] diagonalCounts;
+    private int[] antiDiagonalCounts;
 
     private TicTacToeEnum gameState;
 
-    // View objects subscribed to the Model
-    private List<TicTacToeView> views;
+    // Views and other observers subscribed to the Model (they are not serialized)
+    private transient List<TicTacToeObserver> views;
+
+    // Changes not yet published to the views, kept only while there are views;
+    // refreshPending replaces them all after a reset
+    private transient List<TicTacToeEvent> pendingEvents;
+    private transient boolean refreshPending;
+
+    // Write-ahead log of moves and resets, or null if not journaled
+    private transient TicTacToeJournal journal;
 
 
     /**Default TicTacToe constructor of a 3x3 game grid
@@ -36,12 +61,51 @@ public class TicTacToeModel implements Serializable {
      */
     public TicTacToeModel(int size, char initialTurn) throws IllegalArgumentException{
 
+        this(size, size, initialTurn);
+    }
+
+    /**Constructor of a size by size game grid won by numToWin adjacent marks
+     * in a row, column or diagonal (m,n,k game, e.g. 15 x 15 with 5 to win)
+     *
+     * @param size
+     * @param numToWin
+     * @param initialTurn
+     * @throws IllegalArgumentException
+     */
+    public TicTacToeModel(int size, int numToWin, char initialTurn) throws IllegalArgumentException{
+
+        this(size, numToWin, initialTurn, (long) size * size > SPARSE_CELLS);
+    }
+
+    /**Constructor choosing how the grid is stored: sparse grids keep only
+     * the cells played, so memory and reset() grow with the number of marks
+     * rather than with size x size, at the cost of a hash lookup per cell.
+     *
+     * @param size
+     * @param numToWin
+     * @param initialTurn
+     * @param sparse true for a SparseBoard, false for a BitBoard
+     * @throws IllegalArgumentException
+     */
+    public TicTacToeModel(int size, int numToWin, char initialTurn, boolean sparse) throws IllegalArgumentException{
+
         if(size < 0)
             throw new IllegalArgumentException("Grid must be a positive size.");
+        if(numToWin < 1 || numToWin > size)
+            throw new IllegalArgumentException("Number to win must be between 1 and " + size + ".");
         this.size = size;
-        this.numToWin = size;
-        this.grid = new char[size][size];
+        this.numToWin = numToWin;
+        this.board = sparse ? new SparseBoard(size) : new BitBoard(size, this.numToWin);
+        // Full-line counters only apply when a whole row, column or diagonal is needed,
+        // and are not kept for sparse grids, whose memory must not grow with the size
+        if (!sparse && !this.board.hasWinMasks() && this.numToWin == this.size) {
+            this.rowCounts = new int[2][size];
+            this.columnCounts = new int[2][size];
+            this.diagonalCounts = new int[2];
+            this.antiDiagonalCounts = new int[2];
+        }
         this.views = new ArrayList<>();
+        this.pendingEvents = new ArrayList<>();
         reset(initialTurn);
     }
 
@@ -52,50 +116,103 @@ public class TicTacToeModel implements Serializable {
      */
     public void reset(char initialTurn) {
 
-        for(int i = 0; i < this.size; i++) {
-            for (int j = 0; j < this.size; j++){
-                this.grid[i][j] = ' ';
+        this.board.clear();
+        if (this.rowCounts != null) {
+            for (int p = 0; p < 2; p++) {
+                Arrays.fill(this.rowCounts[p], 0);
+                Arrays.fill(this.columnCounts[p], 0);
+                this.diagonalCounts[p] = 0;
+                this.antiDiagonalCounts[p] = 0;
             }
         }
         this.turn = initialTurn;
         this.nMarks = 0;
         this.gameState = TicTacToeEnum.IN_PROGRESS;
+        this.pendingEvents.clear();
+        this.refreshPending = !this.views.isEmpty();
+        if (this.journal != null) this.journal.appendReset(initialTurn);
     }
 
     /**
-     * Add a TicTacToeView object to the notification list.
+     * Returns the journal recording this game, or null.
+     *
+     * @return journal
+     */
+    public TicTacToeJournal getJournal() { return this.journal; }
+
+    /**
+     * Sets the journal every move and reset is appended to. Use
+     * TicTacToeJournal.attach() rather than calling this directly.
+     *
+     * @param journal or null to stop journaling
+     */
+    void setJournal(TicTacToeJournal journal) { this.journal = journal; }
+
+    /**
+     * Add a TicTacToeView or other observer to the notification list.
      *
      * @param view
      */
-    public void addView(TicTacToeView view){
+    public void addView(TicTacToeObserver view){
         this.views.add(view);
     }
 
     /**
-     * Remove a TicTacToeView object from the notification list.
+     * Remove a TicTacToeView or other observer from the notification list.
      * @param view
      */
-    public void removeView(TicTacToeView view){
+    public void removeView(TicTacToeObserver view){
         this.views.remove(view);
     }
 
     /**
-     * Returns the notification list of TicTacToeView objects.
+     * Returns the notification list of views and other observers.
      *
-     * @return list of subscribed TicTacToeView objects
+     * @return list of subscribed observers
      */
-    public List<TicTacToeView> getViews() {
+    public List<TicTacToeObserver> getViews() {
         return this.views;
     }
 
     /**
-     * Notify TicTacToeView objects of any game state changes and update grid.
+     * Notify views and other observers of the changes made since the last
+     * notification: one event per move, or a single refresh event listing
+     * every mark if the game was reset.
      *
      */
     public void notifyViews(){
-        for (TicTacToeView view: this.views){
-            view.update(getGameState());
+        long start = TicTacToeMetrics.start();
+        // Take the pending changes first, views may change the game while handling them
+        TicTacToeEvent[] events = this.refreshPending
+                ? new TicTacToeEvent[] {refreshEvent()}
+                : this.pendingEvents.toArray(new TicTacToeEvent[0]);
+        this.pendingEvents.clear();
+        this.refreshPending = false;
+        for (TicTacToeObserver view: this.views){
+            for (TicTacToeEvent event: events){
+                view.update(event);
+            }
+        }
+        TicTacToeMetrics.EVENTS.add(events.length);
+        TicTacToeMetrics.NOTIFY_VIEWS.recordSince(start);
+    }
+
+    /**
+     * Returns a refresh event listing the marks now on the grid.
+     *
+     * @return refresh event
+     */
+    private TicTacToeEvent refreshEvent() {
+        long[] cells = this.board.getMarkedCells();
+        int[] rows = new int[cells.length];
+        int[] columns = new int[cells.length];
+        char[] marks = new char[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            rows[i] = (int) (cells[i] / this.size);
+            columns[i] = (int) (cells[i] % this.size);
+            marks[i] = this.board.getMark(rows[i], columns[i]);
         }
+        return TicTacToeEvent.refresh(rows, columns, marks, this.gameState, this.turn);
     }
 
     /**getTurn() returns the current player
@@ -123,6 +240,44 @@ public class TicTacToeModel implements Serializable {
      */
     public int getSize() { return this.size; }
 
+    /**
+     * Returns the number of marks placed so far.
+     *
+     * @return nMarks
+     */
+    public int getMarkCount() { return this.nMarks; }
+
+    /**
+     * Returns the mark at the given location on the game grid.
+     *
+     * @param row
+     * @param column
+     * @return ' ', 'X' or 'O'
+     */
+    public char getMark(int row, int column) { return this.board.getMark(row, column); }
+
+    /**
+     * Returns the number of adjacent marks needed to win.
+     *
+     * @return numToWin
+     */
+    public int getNumToWin() { return this.numToWin; }
+
+    /**
+     * Returns the cells holding a mark, as (row * size + column) in no
+     * particular order, in time proportional to the marks on sparse grids.
+     *
+     * @return marked cells
+     */
+    public long[] getMarkedCells() { return this.board.getMarkedCells(); }
+
+    /**
+     * Returns true if only the marked cells are stored.
+     *
+     * @return true for a sparse grid
+     */
+    public boolean isSparse() { return this.board instanceof SparseBoard; }
+
 
     /**charToEnum facilitates the return of the corresponding ENUM to inform
      * the findWinner() method which updates the game state
@@ -147,15 +302,84 @@ public class TicTacToeModel implements Serializable {
      * @return resulting game status
      */
     public TicTacToeEnum takeTurn(int row, int column) throws IllegalArgumentException {
+        long start = TicTacToeMetrics.start();
+        TicTacToeEnum state;
+        try {
+            state = replayTurn(row, column);
+        } catch (IllegalArgumentException e) {
+            TicTacToeMetrics.INVALID_MOVES.increment();
+            throw e;
+        }
+        if (this.journal != null) this.journal.append(row, column);
+        if (!this.views.isEmpty()) this.pendingEvents.add(new TicTacToeEvent(row, column, getMark(row, column), state, this.turn));
+        TicTacToeMetrics.TAKE_TURN.recordSince(start);
+        return state;
+    }
+
+    /**takeTurns() plays a sequence of moves in one pass, e.g. to replay a
+     * script or catch up with a remote game. Playing stops after the first
+     * move that ends the game. If a move is illegal, the moves before it
+     * are taken back and the game is left unchanged. The views get a
+     * single event listing every changed cell at the next notifyViews().
+     *
+     * @param rows of the moves
+     * @param columns of the moves
+     * @param count number of moves to play from the start of the arrays
+     * @throws IllegalArgumentException
+     * @return number of moves played
+     */
+    public int takeTurns(int[] rows, int[] columns, int count) throws IllegalArgumentException {
+        if (count < 0 || count > rows.length || count > columns.length)
+            throw new IllegalArgumentException("Move count must be between 0 and " + Math.min(rows.length, columns.length));
+        long start = TicTacToeMetrics.start();
+        int played = 0;
+        try {
+            while (played < count) {
+                TicTacToeEnum state = replayTurn(rows[played], columns[played]);
+                played++;
+                if (state != TicTacToeEnum.IN_PROGRESS) break;
+            }
+        } catch (IllegalArgumentException e) {
+            for (int i = played - 1; i >= 0; i--) {
+                unplay(rows[i], columns[i]);
+            }
+            TicTacToeMetrics.INVALID_MOVES.increment();
+            throw new IllegalArgumentException("Move " + played + ": " + e.getMessage());
+        }
+        if (played == 0) return 0;
+        if (this.journal != null) this.journal.append(rows, columns, played);
+        if (!this.views.isEmpty()) {
+            char[] marks = new char[played];
+            for (int i = 0; i < played; i++) {
+                marks[i] = getMark(rows[i], columns[i]);
+            }
+            this.pendingEvents.add(TicTacToeEvent.batch(Arrays.copyOf(rows, played), Arrays.copyOf(columns, played),
+                    marks, this.gameState, this.turn));
+        }
+        TicTacToeMetrics.TAKE_TURNS.recordSince(start);
+        return played;
+    }
+
+    /**replayTurn() validates and applies one move for takeTurn() and
+     * takeTurns(): it is not appended to the journal and no views are
+     * involved.
+     *
+     * @param row
+     * @param column
+     * @throws IllegalArgumentException
+     * @return resulting game status
+     */
+    private TicTacToeEnum replayTurn(int row, int column) throws IllegalArgumentException {
         if(this.gameState != TicTacToeEnum.IN_PROGRESS)
             throw new IllegalArgumentException("Game is over.");
-        if(row < 0 || row > this.size || column < 0 || column > this.size)
+        if(row < 0 || row >= this.size || column < 0 || column >= this.size)
             throw new IllegalArgumentException("Grid is " + this.size + " by " + this.size);
-        if(this.grid[row][column] != ' ')
+        if(this.board.getMark(row, column) != ' ')
             throw new IllegalArgumentException("Location is already full.");
 
         // Legal location - take turn
-        this.grid[row][column] = getTurn();
+        char player = getTurn();
+        this.board.setMark(row, column, player);
         // Increment moves taken
         this.nMarks++;
         // Switch player
@@ -164,136 +388,168 @@ public class TicTacToeModel implements Serializable {
         } else if (getTurn() == 'O') {
             this.turn = 'X';
         }
+        if (this.rowCounts != null) countLines(row, column, player, 1);
         // Determine resulting game state
-        this.gameState = findWinner();
+        long check = TicTacToeMetrics.start();
+        this.gameState = findWinner(row, column, player);
+        TicTacToeMetrics.FIND_WINNER.recordSince(check);
         return this.gameState;
     }
 
-    /** findWinner() iterates through the game grid first by rows,
-     * then by columns, then diagonally, to determine if there is
-     * an incidence of a full consecutive row, column, or diagonal
-     * line of 'X' or 'O' characters.
+    /**undoTurn() takes back the last move, which was played at the given
+     * location: the cell is emptied and the turn and game state go back to
+     * what they were before it. Used to restore a position between the
+     * runs of a benchmark.
      *
-     * @return charToEnum value
+     * @param row of the last move
+     * @param column of the last move
+     * @throws IllegalArgumentException
      */
-    private TicTacToeEnum findWinner(){
-        TicTacToeEnum newGameState;
-
-        // else, search for a winner
-        for (int i = 0; i < this.size; i++){
-            for (int j = 0; j < this.size; j++){
-                if (grid[i][j] != ' '){
-                    newGameState = findWinnerFrom(i,j);
-                    if (newGameState != TicTacToeEnum.IN_PROGRESS)
-                        return newGameState;
-                }
-            }
-        }
-        // If the game board is full, return DRAW
-        if (this.nMarks == (this.size * this.size)) return TicTacToeEnum.DRAW;
-
-        // Game is still in progress
-        return TicTacToeEnum.IN_PROGRESS;
+    void undoTurn(int row, int column) throws IllegalArgumentException {
+        if(this.board.getMark(row, column) == ' ')
+            throw new IllegalArgumentException("Location is empty.");
+        unplay(row, column);
+        if (!this.views.isEmpty()) this.pendingEvents.add(new TicTacToeEvent(row, column, ' ', this.gameState, this.turn));
     }
 
-
-    /** Internal method to determine if there is a game winner
-     * by first searching horizontally, then vertically, then diagonally,
-     * from the indicated starting position on the game grid.
+    /** unplay() empties the cell of the last move and gives the turn back to
+     * the player who made it, without publishing the change.
      *
-     * @param    row
-     * @param    column
-     * @return   IN_PROGRESS, X_WON, 0_WON, DRAW
+     * @param row of the last move
+     * @param column of the last move
      */
-    private TicTacToeEnum findWinnerFrom(int row, int column) {
-        int count;
+    private void unplay(int row, int column) {
+        char player = this.board.getMark(row, column);
+        this.board.setMark(row, column, ' ');
+        this.nMarks--;
+        if (this.rowCounts != null) countLines(row, column, player, -1);
+        this.turn = player;
+        this.gameState = TicTacToeEnum.IN_PROGRESS;
+    }
 
-        // Horizontal check - look left
-        count = 1;
-        for (int c = column - 1; c > 0; c--) {
-            if (this.grid[row][column] == this.grid[row][c]) {
-                count++;
-                if (count == this.numToWin) {
-                    return charToEnum(grid[row][column]);
-                }
-            }
-        }
+    /** restoreMark() places a saved mark without checking for a winner or
+     * switching turns, to rebuild a game read from a save file. The turn and
+     * game state are restored afterwards with restoreState().
+     *
+     * @param row
+     * @param column
+     * @param mark 'X' or 'O'
+     */
+    void restoreMark(int row, int column, char mark) {
+        this.board.setMark(row, column, mark);
+        this.nMarks++;
+        if (this.rowCounts != null) countLines(row, column, mark, 1);
+    }
 
-        // Horizontal check - look right
-        count = 1;
-        for (int c = column + 1; c < this.size; c++) {
-            if (this.grid[row][column] == this.grid[row][c]) {
-                count++;
-                if (count == this.numToWin) {
-                    return charToEnum(grid[row][column]);
-                }
-            }
-        }
+    /** restoreState() sets the turn and game state of a game rebuilt from a
+     * save file.
+     *
+     * @param turn 'X' or 'O' to play next
+     * @param gameState saved game state
+     */
+    void restoreState(char turn, TicTacToeEnum gameState) {
+        this.turn = turn;
+        this.gameState = gameState;
+    }
 
-        // Vertical check - look up
-        count = 1;
-        for (int r = row - 1; r > 0; r--) {
-            if (this.grid[r][column] == this.grid[row][column]) {
-                count++;
-                if (count == this.numToWin) {
-                    return charToEnum(grid[row][column]);
-                }
-            }
-        }
+    /** findWinner() checks the lines passing through the cell just played.
+     * Larger boards played to a full line read the line counters for the
+     * row, column and diagonals; otherwise the board answers, small boards
+     * from their precomputed win masks and the others (including sparse
+     * boards) by scanning the runs through the cell in all four directions.
+     * Only the lines through the last move can have changed, so a move costs
+     * constant or O(numToWin) time regardless of the grid size. The game
+     * itself is not changed.
+     *
+     * @param row of the last move
+     * @param column of the last move
+     * @param player 'X' or 'O' who made the last move
+     * @return charToEnum value
+     */
+    TicTacToeEnum findWinner(int row, int column, char player){
+        boolean won = false;
 
-        // Vertical check - look down
-        count = 1;
-        for (int r = row + 1; r < this.size; r++) {
-            if (this.grid[row][column] == this.grid[r][column]) {
-                count++;
-                if (count == this.numToWin) {
-                    return charToEnum(grid[row][column]);
-                }
-            }
+        if (this.rowCounts != null) {
+            won = hasFullLine(row, column, player);
+        } else {
+            won = this.board.isWinningMark(row, column, this.numToWin);
         }
 
-        // Diagonal check - upper left corner to lower right corner
-        count = 0;
-        for (int r = 0, c = 0; r < this.size; r++){
-            if (this.grid[row][column] == this.grid[r][c]) {
-                count++;
-                if (count == this.numToWin) {
-                    return charToEnum(grid[row][column]);
-                }
-            }
-            c++;
-        }
+        if (won) return charToEnum(player);
 
-        // Diagonal check - upper right corner to lower left corner
-        count = 0;
-        for (int r = 0, c = this.size - 1; r < this.size; r++){
-            if (this.grid[row][column] == this.grid[r][c]) {
-                count++;
-                if (count == this.numToWin) {
-                    return charToEnum(grid[row][column]);
-                }
-            }
-            c--;
-        }
+        // If the game board is full, return DRAW
+        if (this.nMarks == ((long) this.size * this.size)) return TicTacToeEnum.DRAW;
 
-        // No winner detected - the game is still in progress
+        // Game is still in progress
         return TicTacToeEnum.IN_PROGRESS;
     }
 
+    /** Internal method to add a mark to, or remove it from, the counters of
+     * the lines through it.
+     *
+     * @param row
+     * @param column
+     * @param player 'X' or 'O'
+     * @param delta 1 when the mark is placed, -1 when it is taken back
+     */
+    private void countLines(int row, int column, char player, int delta) {
+        int p = (player == 'X') ? 0 : 1;
+        this.rowCounts[p][row] += delta;
+        this.columnCounts[p][column] += delta;
+        if (row == column) this.diagonalCounts[p] += delta;
+        if (row + column == this.size - 1) this.antiDiagonalCounts[p] += delta;
+    }
+
+    /** Internal method to determine if a line through the last move is
+     * completely held by the player, from the line counters.
+     *
+     * @param row of the last move
+     * @param column of the last move
+     * @param player 'X' or 'O' who made the last move
+     * @return true if one of the lines is complete
+     */
+    private boolean hasFullLine(int row, int column, char player) {
+        int p = (player == 'X') ? 0 : 1;
+        return this.rowCounts[p][row] == this.numToWin
+                || this.columnCounts[p][column] == this.numToWin
+                || (row == column && this.diagonalCounts[p] == this.numToWin)
+                || (row + column == this.size - 1 && this.antiDiagonalCounts[p] == this.numToWin);
+    }
 
-    /** toString formats the 2-dimensional TicTacToe grid array as a string
+    /** toString formats the 2-dimensional TicTacToe grid array as a string,
+     * one character per cell row by row. Grids of more than TO_STRING_CELLS
+     * cells are summarised instead.
      *
      * @return TicTacToe board in string formatting
      */
     @Override
     public String toString(){
-        String s = "";
+        long cells = (long) this.size * this.size;
+        if (cells > TO_STRING_CELLS) {
+            return this.size + "x" + this.size + " grid, " + this.numToWin + " to win, " + this.nMarks
+                    + " marks, " + this.gameState + ", " + this.turn + " to play";
+        }
+        StringBuilder s = new StringBuilder((int) cells);
         for (int i = 0; i < this.size; i++){
             for (int j = 0; j < this.size; j++){
-                s += grid[i][j];
+                s.append(board.getMark(i, j));
             }
         }
-        return s;
+        return s.toString();
+    }
+
+
+    /** readObject() restores an empty view list after deserialization,
+     * since views are not saved with the model.
+     *
+     * @param in
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.views = new ArrayList<>();
+        this.pendingEvents = new ArrayList<>();
     }
 
 
@@ -0,0 +1,18 @@
+package game;
+
+/**
+ * Receives the changes made to a TicTacToeModel, e.g. a Swing
+ * TicTacToeView or the spectators of a TicTacToeSpectatorHub.
+ *
+ * update() is called on the thread that changes the model, once per
+ * change, so an observer should hand slow work to another thread.
+ */
+public interface TicTacToeObserver {
+
+    /**
+     * Called for each change published by notifyViews().
+     *
+     * @param event
+     */
+    void update(TicTacToeEvent event);
+}
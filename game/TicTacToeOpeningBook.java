@@ -0,0 +1,291 @@
+package game;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Opening book of a TicTacToe game: the move TicTacToeAI found for every
+ * position of the first plies, computed offline by generate() so the
+ * opening is played without searching.
+ *
+ * Positions are keyed by canonical Zobrist hash (TicTacToeSymmetry), so
+ * one entry serves all 8 symmetric images of a position; the move is
+ * stored as seen on the canonical image and mapped back on lookup. The
+ * keys are sorted, so a lookup is a binary search of the file.
+ *
+ * The file is only mapped (MappedByteBuffer) by the first lookup, and
+ * pages are read as lookups touch them.
+ *
+ * File layout: int magic, int version, int size, int numToWin, int entry
+ * count, int padding, then the sorted keys (long), the moves (int, cells
+ * of the canonical image) and the search scores (int) of the entries.
+ */
+public class TicTacToeOpeningBook {
+
+    private static final int MAGIC = 0x5454544F;    // "TTTO"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final int NEIGHBOUR_DISTANCE = 2;
+
+    private final Path file;
+    private final int size;
+    private final int numToWin;
+    private final TicTacToeSymmetry symmetry;
+    private volatile ByteBuffer entries;    // Mapped by the first lookup
+    private int count;
+    private boolean unreadable;
+
+    private TicTacToeOpeningBook(Path file, int size, int numToWin) {
+        this.file = file;
+        this.size = size;
+        this.numToWin = numToWin;
+        this.symmetry = TicTacToeSymmetry.of(size);
+    }
+
+    /**
+     * Returns the default file name of the opening book of a game, in the
+     * directory given by the tictactoe.book.dir system property (default:
+     * working directory).
+     *
+     * @param size
+     * @param numToWin
+     * @return opening book path
+     */
+    public static Path defaultPath(int size, int numToWin) {
+        return Paths.get(System.getProperty("tictactoe.book.dir", "."),
+                "book-" + size + "x" + size + "-" + numToWin + ".bin");
+    }
+
+    /**
+     * Returns the opening book of a game at its default path. The file is
+     * not read until the first lookup.
+     *
+     * @param size
+     * @param numToWin
+     * @return opening book, or null if the file does not exist
+     */
+    public static TicTacToeOpeningBook find(int size, int numToWin) {
+        Path file = defaultPath(size, numToWin);
+        if (!Files.isRegularFile(file)) return null;
+        return new TicTacToeOpeningBook(file, size, numToWin);
+    }
+
+    /**
+     * Maps a book file and checks that it belongs to the expected game.
+     *
+     * @return mapped entries
+     * @throws IOException if the file cannot be read or is not an opening book of the game
+     */
+    private ByteBuffer map() throws IOException {
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                throw new IOException(this.file + " is not a TicTacToe opening book.");
+            int count = buffer.getInt(16);
+            if (buffer.getInt(8) != this.size || buffer.getInt(12) != this.numToWin || count < 0
+                    || buffer.limit() != HEADER_BYTES + 16L * count)
+                throw new IOException(this.file + " is truncated or belongs to another game.");
+            this.count = count;
+            return buffer;
+        }
+    }
+
+    /**
+     * Looks up the book move of a position.
+     *
+     * @param board position of this book's game
+     * @return cell to play, or -1 if the position is not in the book
+     */
+    public int probe(TicTacToeSearchBoard board) {
+        ByteBuffer entries = this.entries;
+        if (entries == null) {
+            synchronized (this) {
+                if (this.unreadable) return -1;
+                if (this.entries == null) {
+                    try {
+                        this.entries = map();
+                    } catch (IOException e) {
+                        System.out.println("Opening book - IOException caught.");
+                        this.unreadable = true;
+                        return -1;
+                    }
+                }
+                entries = this.entries;
+            }
+        }
+        int transform = TicTacToeSymmetry.canonicalTransform(board);
+        long key = board.getHash(transform);
+        int low = 0;
+        int high = this.count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long found = entries.getLong(HEADER_BYTES + 8 * middle);
+            if (found < key) {
+                low = middle + 1;
+            } else if (found > key) {
+                high = middle - 1;
+            } else {
+                int move = entries.getInt(HEADER_BYTES + 8 * this.count + 4 * middle);
+                int cell = this.symmetry.transform(TicTacToeSymmetry.inverse(transform), move);
+                // A different position with the same hash would point anywhere
+                return (board.getMark(cell) == TicTacToeSearchBoard.EMPTY) ? cell : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up the book move of a game.
+     *
+     * @param model
+     * @return {row, column}, or null if the position is not in the book
+     */
+    public int[] lookup(TicTacToeModel model) {
+        if (!covers(model)) return null;
+        int cell = probe(new TicTacToeSearchBoard(model));
+        return (cell < 0) ? null : new int[] {cell / this.size, cell % this.size};
+    }
+
+    /**
+     * Indicates whether this book is for the game of a model.
+     *
+     * @param model
+     * @return true if the grid size and number to win match
+     */
+    public boolean covers(TicTacToeModel model) {
+        return model.getSize() == this.size && model.getNumToWin() == this.numToWin;
+    }
+
+    /**
+     * Returns the number of positions in the book, mapping the file if needed.
+     *
+     * @return entries, 0 if the file is unreadable
+     */
+    public int getCount() {
+        probe(new TicTacToeSearchBoard(this.size, this.numToWin, TicTacToeSearchBoard.X));
+        return this.count;
+    }
+
+    public int getSize() { return this.size; }
+
+    public int getNumToWin() { return this.numToWin; }
+
+    /**
+     * Searches every position with fewer than depth marks reachable from the
+     * empty grid ('X' or 'O' first), once per symmetry class, and writes the
+     * book file. Only moves within two cells of a mark are followed, as
+     * TicTacToeAI considers, and positions that end the game are skipped.
+     *
+     * @param size
+     * @param numToWin
+     * @param depth plies covered by the book
+     * @param ai player searching each position
+     * @param file
+     * @return number of positions in the book
+     * @throws IOException
+     * @throws IllegalArgumentException
+     */
+    public static int generate(int size, int numToWin, int depth, TicTacToeAI ai, Path file)
+            throws IOException, IllegalArgumentException {
+        if (numToWin < 1 || numToWin > size)
+            throw new IllegalArgumentException("Number to win must be between 1 and " + size + ".");
+        if (depth < 1 || depth > size * size)
+            throw new IllegalArgumentException("Depth must be between 1 and " + size * size + ".");
+        TicTacToeSymmetry symmetry = TicTacToeSymmetry.of(size);
+        SortedMap<Long, int[]> book = new TreeMap<>();
+        for (byte first : new byte[] {TicTacToeSearchBoard.X, TicTacToeSearchBoard.O}) {
+            addPositions(new TicTacToeSearchBoard(size, numToWin, first), depth, ai, symmetry, book);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 16 * book.size());
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(numToWin).putInt(book.size()).putInt(0);
+        int index = 0;
+        for (Map.Entry<Long, int[]> entry : book.entrySet()) {
+            buffer.putLong(HEADER_BYTES + 8 * index, entry.getKey());
+            buffer.putInt(HEADER_BYTES + 8 * book.size() + 4 * index, entry.getValue()[0]);
+            buffer.putInt(HEADER_BYTES + 12 * book.size() + 4 * index, entry.getValue()[1]);
+            index++;
+        }
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        return book.size();
+    }
+
+    /**
+     * Searches a position and the positions below it, depth-first.
+     *
+     * @param board position, left unchanged
+     * @param depth plies covered by the book
+     * @param ai
+     * @param symmetry
+     * @param book entries by canonical hash: {canonical move, score}
+     */
+    private static void addPositions(TicTacToeSearchBoard board, int depth, TicTacToeAI ai,
+                                     TicTacToeSymmetry symmetry, SortedMap<Long, int[]> book) {
+        if (board.getMarkCount() >= depth) return;
+        int transform = TicTacToeSymmetry.canonicalTransform(board);
+        long key = board.getHash(transform);
+        if (book.containsKey(key)) return;
+        int move = ai.search(board);
+        book.put(key, new int[] {symmetry.transform(transform, move), ai.getLastScore()});
+        for (int cell = 0; cell < board.getCellCount(); cell++) {
+            if (board.getMark(cell) != TicTacToeSearchBoard.EMPTY) continue;
+            if (board.getMarkCount() > 0 && !board.hasNeighbour(cell, NEIGHBOUR_DISTANCE)) continue;
+            if (!board.play(cell) && !board.isFull()) {
+                addPositions(board, depth, ai, symmetry, book);
+            }
+            board.undo();
+        }
+    }
+
+    /** Opening book generator: builds the book, then compares the first
+     * move of TicTacToeAI with and without it
+     *
+     * @param args size, numToWin, depth, search time per position in
+     *             milliseconds and threads (default 4 4 4 200 1), and
+     *             optionally the output file
+     * @throws IOException
+     */
+    public static void main(String args[]) throws IOException {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        int numToWin = (args.length > 1) ? Integer.parseInt(args[1]) : size;
+        int depth = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+        long budget = (args.length > 3) ? Long.parseLong(args[3]) : 200;
+        int threads = (args.length > 4) ? Integer.parseInt(args[4]) : 1;
+        Path file = (args.length > 5) ? Paths.get(args[5]) : defaultPath(size, numToWin);
+
+        TicTacToeAI ai = new TicTacToeAI(budget, 1 << 22);
+        ai.setThreads(threads);
+        long start = System.nanoTime();
+        int count = generate(size, numToWin, depth, ai, file);
+        ai.shutdown();
+        System.out.printf("%s: %dx%d, %d to win, %d plies: %d positions (%.1fs)%n", file, size, size, numToWin,
+                depth, count, (System.nanoTime() - start) / 1e9);
+
+        TicTacToeOpeningBook book = new TicTacToeOpeningBook(file, size, numToWin);
+        TicTacToeSearchBoard empty = new TicTacToeSearchBoard(size, numToWin, TicTacToeSearchBoard.X);
+        start = System.nanoTime();
+        int cell = book.probe(empty);
+        long firstProbe = System.nanoTime() - start;
+        int probes = 1000000;
+        start = System.nanoTime();
+        for (int i = 0; i < probes; i++) {
+            cell = book.probe(empty);
+        }
+        double probeNanos = (System.nanoTime() - start) / (double) probes;
+        System.out.printf("First move (%d,%d): first lookup %.1f us (maps the file), then %.0f ns per lookup%n",
+                cell / size, cell % size, firstProbe / 1e3, probeNanos);
+        ai = new TicTacToeAI(budget, 1 << 22);
+        start = System.nanoTime();
+        ai.search(empty);
+        System.out.printf("Searching the first move instead: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+}
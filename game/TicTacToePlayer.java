@@ -0,0 +1,16 @@
+package game;
+
+/**
+ * A computer player able to pick the next move of a TicTacToe game.
+ */
+public interface TicTacToePlayer {
+
+    /**
+     * Chooses a move for the player whose turn it is in the given model.
+     * The model is only read; the caller plays the move with takeTurn().
+     *
+     * @param model game in progress
+     * @return {row, column} of the chosen empty location
+     */
+    int[] chooseMove(TicTacToeModel model);
+}
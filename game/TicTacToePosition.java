@@ -0,0 +1,311 @@
+package game;
+
+/**
+ * Immutable TicTacToe game state. Playing a move returns a new position
+ * and leaves this one unchanged.
+ *
+ * The grid is split into chunks of 64 cells, each a leaf holding two
+ * longs (the 'X' and 'O' bits). The chunks are the leaves of a trie of
+ * 32-way nodes; empty subtrees are null. A move copies one leaf and the
+ * nodes on its path, about 4 objects for a 1000 x 1000 grid, and shares
+ * everything else with the position it was played from. Keeping every
+ * position of a game therefore costs a few hundred bytes per move rather
+ * than a copy of the grid.
+ *
+ * Each position links to the one before it, so going back a move is
+ * O(1). Any position can be played from again to branch off, and a
+ * position can be handed to another thread without copying.
+ */
+public final class TicTacToePosition {
+
+    private static final int CHUNK_BITS = 6;    // 64 cells per leaf
+    private static final int BRANCH_BITS = 5;   // 32 children per node
+    private static final int BRANCH_MASK = (1 << BRANCH_BITS) - 1;
+
+    private final int size;
+    private final int numToWin;
+    private final int depth;     // Levels of nodes above the leaves, 0 when the root is the only leaf
+    private final Object root;   // long[2] leaf, Object[] node, or null for an empty grid
+    private final char turn;
+    private final int nMarks;
+    private final TicTacToeEnum gameState;
+    private final TicTacToePosition parent;
+    private final int lastCell;  // row * size + column of the last move, -1 at the start
+
+    private TicTacToePosition(int size, int numToWin, int depth, Object root, char turn, int nMarks,
+                              TicTacToeEnum gameState, TicTacToePosition parent, int lastCell) {
+        this.size = size;
+        this.numToWin = numToWin;
+        this.depth = depth;
+        this.root = root;
+        this.turn = turn;
+        this.nMarks = nMarks;
+        this.gameState = gameState;
+        this.parent = parent;
+        this.lastCell = lastCell;
+    }
+
+    /**
+     * Returns the empty grid at the start of a game.
+     *
+     * @param size
+     * @param numToWin
+     * @param initialTurn 'X' or 'O'
+     * @return start position
+     * @throws IllegalArgumentException
+     */
+    public static TicTacToePosition start(int size, int numToWin, char initialTurn) throws IllegalArgumentException {
+        if (size < 0)
+            throw new IllegalArgumentException("Grid must be a positive size.");
+        if (numToWin < 1 || numToWin > size)
+            throw new IllegalArgumentException("Number to win must be between 1 and " + size + ".");
+        if (initialTurn != 'X' && initialTurn != 'O')
+            throw new IllegalArgumentException("Turn must be either X or O.");
+        long chunks = ((long) size * size + (1 << CHUNK_BITS) - 1) >>> CHUNK_BITS;
+        int depth = 0;
+        while ((1L << (BRANCH_BITS * depth)) < chunks) {
+            depth++;
+        }
+        return new TicTacToePosition(size, numToWin, depth, null, initialTurn, 0, TicTacToeEnum.IN_PROGRESS,
+                null, -1);
+    }
+
+    /**
+     * Returns the position of a TicTacToeModel. The position has no parent,
+     * since the model keeps no history.
+     *
+     * @param model
+     * @return position with the model's marks, turn and game state
+     */
+    public static TicTacToePosition of(TicTacToeModel model) {
+        TicTacToePosition start = start(model.getSize(), model.getNumToWin(), model.getTurn());
+        Object root = null;
+        int size = model.getSize();
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                char mark = model.getMark(row, column);
+                // The new trie is not shared yet, so it is filled in place
+                if (mark != ' ') root = setCell(root, start.depth, row * size + column, mark, false);
+            }
+        }
+        return new TicTacToePosition(size, model.getNumToWin(), start.depth, root, model.getTurn(),
+                model.getMarkCount(), model.getGameState(), null, -1);
+    }
+
+    /**
+     * Returns a new TicTacToeModel holding this position, e.g. for a
+     * computer player to search.
+     *
+     * @return model with no views
+     */
+    public TicTacToeModel toModel() {
+        TicTacToeModel model = new TicTacToeModel(this.size, this.numToWin, this.turn);
+        for (int row = 0; row < this.size; row++) {
+            for (int column = 0; column < this.size; column++) {
+                char mark = getMark(row, column);
+                if (mark != ' ') model.restoreMark(row, column, mark);
+            }
+        }
+        model.restoreState(this.turn, this.gameState);
+        return model;
+    }
+
+    /**play() places the current player's mark at the desired location
+     *
+     * @param row
+     * @param column
+     * @throws IllegalArgumentException
+     * @return position after the move
+     */
+    public TicTacToePosition play(int row, int column) throws IllegalArgumentException {
+        if (this.gameState != TicTacToeEnum.IN_PROGRESS)
+            throw new IllegalArgumentException("Game is over.");
+        if (row < 0 || row >= this.size || column < 0 || column >= this.size)
+            throw new IllegalArgumentException("Grid is " + this.size + " by " + this.size);
+        if (getMark(row, column) != ' ')
+            throw new IllegalArgumentException("Location is already full.");
+        int cell = row * this.size + column;
+        TicTacToePosition next = new TicTacToePosition(this.size, this.numToWin, this.depth,
+                setCell(this.root, this.depth, cell, this.turn, true), (this.turn == 'X') ? 'O' : 'X',
+                this.nMarks + 1, TicTacToeEnum.IN_PROGRESS, this, cell);
+        TicTacToeEnum state = next.findWinner(row, column, this.turn);
+        if (state == TicTacToeEnum.IN_PROGRESS) return next;
+        return new TicTacToePosition(this.size, this.numToWin, this.depth, next.root, next.turn, next.nMarks,
+                state, this, cell);
+    }
+
+    /**
+     * Returns the position before the last move.
+     *
+     * @return previous position, or null at the start of the game
+     */
+    public TicTacToePosition getParent() { return this.parent; }
+
+    /**
+     * Returns the row of the move that led to this position.
+     *
+     * @return row, or -1 at the start of the game
+     */
+    public int getLastRow() { return (this.lastCell < 0) ? -1 : this.lastCell / this.size; }
+
+    /**
+     * Returns the column of the move that led to this position.
+     *
+     * @return column, or -1 at the start of the game
+     */
+    public int getLastColumn() { return (this.lastCell < 0) ? -1 : this.lastCell % this.size; }
+
+    /**
+     * Returns the mark of the move that led to this position.
+     *
+     * @return 'X' or 'O', or ' ' at the start of the game
+     */
+    public char getLastMark() {
+        if (this.lastCell < 0) return ' ';
+        return (this.turn == 'X') ? 'O' : 'X';
+    }
+
+    public int getSize() { return this.size; }
+
+    public int getNumToWin() { return this.numToWin; }
+
+    public char getTurn() { return this.turn; }
+
+    public int getMarkCount() { return this.nMarks; }
+
+    public TicTacToeEnum getGameState() { return this.gameState; }
+
+    /**
+     * Returns the mark at the given location on the game grid.
+     *
+     * @param row
+     * @param column
+     * @return ' ', 'X' or 'O'
+     */
+    public char getMark(int row, int column) {
+        int cell = row * this.size + column;
+        int chunk = cell >>> CHUNK_BITS;
+        Object node = this.root;
+        for (int level = this.depth; level > 0 && node != null; level--) {
+            node = ((Object[]) node)[(chunk >>> (BRANCH_BITS * (level - 1))) & BRANCH_MASK];
+        }
+        if (node == null) return ' ';
+        long[] leaf = (long[]) node;
+        long bit = 1L << cell;
+        return ((leaf[0] & bit) != 0) ? 'X' : ((leaf[1] & bit) != 0) ? 'O' : ' ';
+    }
+
+    /**
+     * Returns a trie with one cell set, copying the nodes on its path or,
+     * for a trie that is not shared yet, changing them in place.
+     *
+     * @param node root of the trie, or null if empty
+     * @param level levels of nodes above the leaves
+     * @param cell row * size + column
+     * @param mark 'X' or 'O'
+     * @param copy false to change the trie in place
+     * @return root of the new trie
+     */
+    private static Object setCell(Object node, int level, int cell, char mark, boolean copy) {
+        if (level == 0) {
+            long[] leaf = (node == null) ? new long[2] : copy ? ((long[]) node).clone() : (long[]) node;
+            leaf[(mark == 'X') ? 0 : 1] |= 1L << cell;
+            return leaf;
+        }
+        Object[] children = (node == null) ? new Object[1 << BRANCH_BITS] : copy ? ((Object[]) node).clone() : (Object[]) node;
+        int index = ((cell >>> CHUNK_BITS) >>> (BRANCH_BITS * (level - 1))) & BRANCH_MASK;
+        children[index] = setCell(children[index], level - 1, cell, mark, copy);
+        return children;
+    }
+
+    /** findWinner() checks the runs through the cell just played in all four
+     * directions, as TicTacToeModel does for boards without win masks.
+     *
+     * @param row of the last move
+     * @param column of the last move
+     * @param player 'X' or 'O' who made the last move
+     * @return resulting game state
+     */
+    private TicTacToeEnum findWinner(int row, int column, char player) {
+        if (countRun(row, column, 0, 1, player) >= this.numToWin       // Horizontal
+                || countRun(row, column, 1, 0, player) >= this.numToWin   // Vertical
+                || countRun(row, column, 1, 1, player) >= this.numToWin   // Upper left to lower right
+                || countRun(row, column, 1, -1, player) >= this.numToWin) // Upper right to lower left
+            return (player == 'X') ? TicTacToeEnum.X_WON : TicTacToeEnum.O_WON;
+        if (this.nMarks == this.size * this.size) return TicTacToeEnum.DRAW;
+        return TicTacToeEnum.IN_PROGRESS;
+    }
+
+    private int countRun(int row, int column, int dRow, int dColumn, char player) {
+        int count = 1;
+        for (int r = row + dRow, c = column + dColumn;
+             count < this.numToWin && r >= 0 && r < this.size && c >= 0 && c < this.size
+                     && getMark(r, c) == player;
+             r += dRow, c += dColumn) {
+            count++;
+        }
+        for (int r = row - dRow, c = column - dColumn;
+             count < this.numToWin && r >= 0 && r < this.size && c >= 0 && c < this.size
+                     && getMark(r, c) == player;
+             r -= dRow, c -= dColumn) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Formats the grid the same way as TicTacToeModel.toString().
+     *
+     * @return marks in row-major order
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(this.size * this.size);
+        for (int i = 0; i < this.size; i++) {
+            for (int j = 0; j < this.size; j++) {
+                s.append(getMark(i, j));
+            }
+        }
+        return s.toString();
+    }
+
+    /** History memory example: plays random moves, keeping every position,
+     * and compares the heap used with the size of the packed grid
+     *
+     * @param args grid size (default 200) and moves (default 10000)
+     */
+    public static void main(String args[]) {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        int moves = (args.length > 1) ? Integer.parseInt(args[1]) : 10000;
+        Runtime runtime = Runtime.getRuntime();
+        java.util.SplittableRandom random = new java.util.SplittableRandom(1);
+
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        // Long enough runs are never needed to win, so every move is kept
+        TicTacToeHistory history = new TicTacToeHistory(start(size, size, 'X'));
+        long start = System.nanoTime();
+        for (int i = 0; i < moves; i++) {
+            int row, column;
+            do {
+                row = random.nextInt(size);
+                column = random.nextInt(size);
+            } while (history.getCurrent().getMark(row, column) != ' ');
+            history.play(row, column);
+        }
+        long playTime = System.nanoTime() - start;
+        System.gc();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+
+        start = System.nanoTime();
+        while (history.canUndo()) {
+            history.undo();
+        }
+        long undoTime = System.nanoTime() - start;
+        System.out.printf("%d moves on %dx%d: %.1f us per move, %.3f us per undo%n", moves, size, size,
+                playTime / 1e3 / moves, undoTime / 1e3 / moves);
+        System.out.printf("History: %.1f KB (%.0f bytes per move); packed grid: %.1f KB, full copies: %.1f KB%n",
+                (after - before) / 1024.0, (after - before) / (double) moves, size * size / 4 / 1024.0,
+                (double) moves * size * size / 4 / 1024.0);
+    }
+}
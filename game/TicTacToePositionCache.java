@@ -0,0 +1,140 @@
+package game;
+
+import java.util.*;
+
+/**
+ * Bounded cache of position values keyed by canonical hash (see
+ * TicTacToeSymmetry), so the 8 symmetric images of a position share one
+ * entry.
+ *
+ * The cache is 8-way set associative. Each set evicts with the CLOCK
+ * algorithm: a hit marks its slot as referenced, and the set's hand skips
+ * (and clears) referenced slots before evicting the first unreferenced
+ * one, approximating LRU without any per-access bookkeeping. The cache is
+ * not thread-safe; concurrent searches give each thread its own cache.
+ */
+public class TicTacToePositionCache {
+
+    public static final int MISSING = Integer.MIN_VALUE;  // Returned by get() on a miss
+    private static final int WAYS = 8;
+
+    private final long[] keys;
+    private final int[] values;
+    private final boolean[] occupied;
+    private final boolean[] referenced;
+    private final byte[] hands;         // CLOCK hand of each set
+    private final int setMask;
+    private int size;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructor for a cache holding at most capacity positions.
+     *
+     * @param capacity maximum number of entries, rounded down to a power of two (at least 8)
+     */
+    public TicTacToePositionCache(int capacity) {
+        int entries = Math.max(WAYS, Integer.highestOneBit(Math.max(1, capacity)));
+        this.keys = new long[entries];
+        this.values = new int[entries];
+        this.occupied = new boolean[entries];
+        this.referenced = new boolean[entries];
+        this.hands = new byte[entries / WAYS];
+        this.setMask = entries / WAYS - 1;
+    }
+
+    /**
+     * Looks up the value of a position.
+     *
+     * @param key canonical hash of the position
+     * @return cached value, or MISSING
+     */
+    public int get(long key) {
+        int first = setOf(key);
+        for (int i = first; i < first + WAYS; i++) {
+            if (this.occupied[i] && this.keys[i] == key) {
+                this.referenced[i] = true;
+                this.hits++;
+                return this.values[i];
+            }
+        }
+        this.misses++;
+        return MISSING;
+    }
+
+    /**
+     * Stores the value of a position, evicting another position of the same
+     * set if the set is full.
+     *
+     * @param key canonical hash of the position
+     * @param value
+     */
+    public void put(long key, int value) {
+        int first = setOf(key);
+        int free = -1;
+        for (int i = first; i < first + WAYS; i++) {
+            if (this.occupied[i] && this.keys[i] == key) {
+                this.values[i] = value;
+                return;
+            }
+            if (!this.occupied[i] && free < 0) free = i;
+        }
+        if (free < 0) {
+            // Sweep the hand until it finds a slot not referenced since its last pass
+            int set = first / WAYS;
+            int hand = this.hands[set];
+            while (this.referenced[first + hand]) {
+                this.referenced[first + hand] = false;
+                hand = (hand + 1) % WAYS;
+            }
+            free = first + hand;
+            this.hands[set] = (byte) ((hand + 1) % WAYS);
+            this.evictions++;
+        } else {
+            this.size++;
+        }
+        this.keys[free] = key;
+        this.values[free] = value;
+        this.occupied[free] = true;
+        this.referenced[free] = false;
+    }
+
+    /**
+     * Removes every entry and resets the counters.
+     */
+    public void clear() {
+        Arrays.fill(this.occupied, false);
+        Arrays.fill(this.referenced, false);
+        Arrays.fill(this.hands, (byte) 0);
+        this.size = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+    private int setOf(long key) {
+        return (int) ((key ^ (key >>> 32)) & this.setMask) * WAYS;
+    }
+
+    public int getCapacity() { return this.keys.length; }
+
+    public int getSize() { return this.size; }
+
+    public long getHits() { return this.hits; }
+
+    public long getMisses() { return this.misses; }
+
+    public long getEvictions() { return this.evictions; }
+
+    /**
+     * Returns the fraction of lookups that found their position.
+     *
+     * @return hit rate between 0 and 1
+     */
+    public double getHitRate() {
+        long lookups = this.hits + this.misses;
+        return (lookups == 0) ? 0.0 : (double) this.hits / lookups;
+    }
+}
@@ -0,0 +1,95 @@
+package game;
+
+import java.lang.invoke.*;
+import java.nio.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent set of position hashes stored off the Java heap, for
+ * enumerations that must remember far more positions than the heap could
+ * hold as objects.
+ *
+ * The hashes live in a direct ByteBuffer used as an open-addressing table
+ * of longs with linear probing; 0 marks a free slot. A free slot is
+ * claimed with a compare-and-set, so any number of threads may add at
+ * once without locking. Hashes are never removed and the table does not
+ * grow: it must be created large enough, with room to spare since probe
+ * runs lengthen as it fills. The buffer counts against
+ * -XX:MaxDirectMemorySize (by default the maximum heap size).
+ */
+public class TicTacToePositionSet {
+
+    // Largest table a single ByteBuffer can hold
+    public static final int MAX_CAPACITY = 1 << 27;
+
+    private static final VarHandle SLOT = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer slots;
+    private final int mask;
+    private final int maxSize;
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * Constructor for an empty set.
+     *
+     * @param capacity number of slots, rounded up to a power of two
+     * @throws IllegalArgumentException
+     */
+    public TicTacToePositionSet(int capacity) throws IllegalArgumentException {
+        if (capacity < 2 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("Capacity must be between 2 and " + MAX_CAPACITY + ".");
+        int slots = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = ByteBuffer.allocateDirect(slots * Long.BYTES).order(ByteOrder.nativeOrder());
+        this.mask = slots - 1;
+        this.maxSize = slots - slots / 8;
+    }
+
+    /**
+     * Adds a hash to the set.
+     *
+     * @param hash position hash; 0 is stored as 1
+     * @return true if the hash was not in the set yet
+     * @throws IllegalStateException if the set is too full to take more hashes
+     */
+    public boolean add(long hash) throws IllegalStateException {
+        long key = (hash == 0L) ? 1L : hash;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & this.mask;
+        for (int probes = 0; probes <= this.mask; probes++) {
+            long stored = (long) SLOT.getAcquire(this.slots, slot * Long.BYTES);
+            if (stored == key) return false;
+            if (stored == 0L) {
+                if (this.size.sum() >= this.maxSize)
+                    throw new IllegalStateException("Position set is full: raise its capacity above " + capacity() + ".");
+                if (SLOT.compareAndSet(this.slots, slot * Long.BYTES, 0L, key)) {
+                    this.size.increment();
+                    return true;
+                }
+                // Another thread claimed the slot: look at what it stored
+                continue;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        throw new IllegalStateException("Position set is full: raise its capacity above " + capacity() + ".");
+    }
+
+    /**
+     * Returns the number of hashes added.
+     *
+     * @return size
+     */
+    public long size() { return this.size.sum(); }
+
+    /**
+     * Returns the number of slots.
+     *
+     * @return capacity
+     */
+    public int capacity() { return this.mask + 1; }
+
+    /**
+     * Returns the off-heap memory used by the table.
+     *
+     * @return bytes
+     */
+    public long getBytes() { return (long) capacity() * Long.BYTES; }
+}
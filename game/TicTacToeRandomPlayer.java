@@ -0,0 +1,39 @@
+package game;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computer player choosing uniformly at random among the empty locations.
+ */
+public class TicTacToeRandomPlayer implements TicTacToePlayer {
+
+    private static final int SAMPLES = 32;
+
+    @Override
+    public int[] chooseMove(TicTacToeModel model) throws IllegalArgumentException {
+        if (model.getGameState() != TicTacToeEnum.IN_PROGRESS)
+            throw new IllegalArgumentException("Game is over.");
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int size = model.getSize();
+        long cells = (long) size * size;
+        long empty = cells - model.getMarkCount();
+
+        // Sampling finds an empty cell quickly unless the grid is nearly full
+        if (2 * empty >= cells) {
+            for (int i = 0; i < SAMPLES; i++) {
+                long cell = random.nextLong(cells);
+                if (model.getMark((int) (cell / size), (int) (cell % size)) == ' ') {
+                    return new int[] {(int) (cell / size), (int) (cell % size)};
+                }
+            }
+        }
+        // Otherwise pick the n-th empty cell
+        long n = random.nextLong(empty);
+        for (long cell = 0; cell < cells; cell++) {
+            if (model.getMark((int) (cell / size), (int) (cell % size)) == ' ' && n-- == 0) {
+                return new int[] {(int) (cell / size), (int) (cell % size)};
+            }
+        }
+        throw new IllegalArgumentException("Grid is full.");
+    }
+}
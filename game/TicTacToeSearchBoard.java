@@ -0,0 +1,328 @@
+package game;
+
+import java.util.*;
+
+/**
+ * Compact, mutable copy of a TicTacToe position for game-tree searches.
+ *
+ * Cells are indexed (row * size + column) and hold EMPTY, X or O. Moves are
+ * played and undone in place and the Zobrist hash of the position is kept
+ * up to date, so searching never allocates once the board is created. The
+ * hashes of the 8 symmetric images of the position are maintained alongside
+ * (see TicTacToeSymmetry), so the canonical hash is available at any time.
+ */
+public class TicTacToeSearchBoard {
+
+    public static final byte EMPTY = 0;
+    public static final byte X = 1;
+    public static final byte O = 2;
+
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+    private static final int MAX_WEIGHTED_MARKS = 14;   // Window weights stop growing at 4^14
+
+    // Hashed in when O is to move, so the same marks with different movers differ
+    private static final long O_TO_MOVE = 0x9E3779B97F4A7C15L;
+
+    private final int size;
+    private final int numToWin;
+    private final byte[] cells;
+    private final int[] moves;       // Cells played, in order
+    private final long[] zobrist;    // Keys indexed (cell * 2 + mark - 1)
+    private final int[][] symmetryMaps;
+    private final long[] hashes;     // Hash of the image under each transform
+    private int nMarks;
+    private byte toMove;
+
+    /**
+     * Constructor for an empty board.
+     *
+     * @param size of the square grid
+     * @param numToWin number of adjacent marks needed to win
+     * @param toMove X or O
+     */
+    public TicTacToeSearchBoard(int size, int numToWin, byte toMove) {
+        this.size = size;
+        this.numToWin = numToWin;
+        this.cells = new byte[size * size];
+        this.moves = new int[size * size];
+        this.zobrist = zobristKeys(size);
+        TicTacToeSymmetry symmetry = TicTacToeSymmetry.of(size);
+        this.symmetryMaps = new int[TicTacToeSymmetry.COUNT][];
+        for (int t = 0; t < TicTacToeSymmetry.COUNT; t++) {
+            this.symmetryMaps[t] = symmetry.getMap(t);
+        }
+        this.hashes = new long[TicTacToeSymmetry.COUNT];
+        clear(toMove);
+    }
+
+    /**
+     * Constructor for a copy of the position of a TicTacToeModel.
+     *
+     * @param model
+     */
+    public TicTacToeSearchBoard(TicTacToeModel model) {
+        this(model.getSize(), model.getNumToWin(), toByte(model.getTurn()));
+        load(model);
+    }
+
+    /**
+     * Returns the Zobrist keys of a grid size. The keys are derived from a
+     * fixed seed so hashes are stable between runs and can be stored on disk.
+     *
+     * @param size
+     * @return keys indexed (cell * 2 + mark - 1)
+     */
+    public static long[] zobristKeys(int size) {
+        SplittableRandom random = new SplittableRandom(0x5EEDL * 31 + size);
+        long[] keys = new long[2 * size * size];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+        return keys;
+    }
+
+    /**
+     * Converts a model mark to its board value.
+     *
+     * @param mark ' ', 'X' or 'O'
+     * @return EMPTY, X or O
+     */
+    public static byte toByte(char mark) {
+        if (mark == 'X') return X;
+        if (mark == 'O') return O;
+        return EMPTY;
+    }
+
+    /**
+     * Converts a board value to its model mark.
+     *
+     * @param mark EMPTY, X or O
+     * @return ' ', 'X' or 'O'
+     */
+    public static char toChar(byte mark) {
+        if (mark == X) return 'X';
+        if (mark == O) return 'O';
+        return ' ';
+    }
+
+    /**
+     * Replaces this position with the one of a TicTacToeModel of the same size.
+     * The order the marks were played in is unknown, so undo() can only take
+     * back moves played after loading.
+     *
+     * @param model
+     */
+    public void load(TicTacToeModel model) {
+        clear(toByte(model.getTurn()));
+        for (int row = 0; row < this.size; row++) {
+            for (int column = 0; column < this.size; column++) {
+                byte mark = toByte(model.getMark(row, column));
+                if (mark != EMPTY) {
+                    int cell = row * this.size + column;
+                    this.cells[cell] = mark;
+                    hashMark(cell, mark, 0L);
+                    this.moves[this.nMarks++] = cell;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces this position with a copy of another board of the same size.
+     *
+     * @param other
+     */
+    public void copyFrom(TicTacToeSearchBoard other) {
+        System.arraycopy(other.cells, 0, this.cells, 0, this.cells.length);
+        System.arraycopy(other.moves, 0, this.moves, 0, other.nMarks);
+        this.nMarks = other.nMarks;
+        this.toMove = other.toMove;
+        System.arraycopy(other.hashes, 0, this.hashes, 0, this.hashes.length);
+    }
+
+    /**
+     * Empties the board.
+     *
+     * @param toMove X or O to play first
+     */
+    public void clear(byte toMove) {
+        Arrays.fill(this.cells, EMPTY);
+        this.nMarks = 0;
+        this.toMove = toMove;
+        Arrays.fill(this.hashes, (toMove == O) ? O_TO_MOVE : 0L);
+    }
+
+    /**
+     * Places the mark of the player to move on an empty cell and passes the turn.
+     *
+     * @param cell
+     * @return true if the move completes a run of numToWin marks
+     */
+    public boolean play(int cell) {
+        byte mark = this.toMove;
+        this.cells[cell] = mark;
+        hashMark(cell, mark, O_TO_MOVE);
+        this.moves[this.nMarks++] = cell;
+        this.toMove = (mark == X) ? O : X;
+        return isWinningMark(cell);
+    }
+
+    /**
+     * Takes back the last move played.
+     */
+    public void undo() {
+        int cell = this.moves[--this.nMarks];
+        byte mark = this.cells[cell];
+        this.cells[cell] = EMPTY;
+        hashMark(cell, mark, O_TO_MOVE);
+        this.toMove = mark;
+    }
+
+    /**
+     * Toggles a mark on a cell in the hash of every symmetric image.
+     *
+     * @param cell
+     * @param mark X or O
+     * @param side O_TO_MOVE if the side to move changes too, otherwise 0
+     */
+    private void hashMark(int cell, byte mark, long side) {
+        for (int t = 0; t < this.hashes.length; t++) {
+            this.hashes[t] ^= this.zobrist[this.symmetryMaps[t][cell] * 2 + mark - 1] ^ side;
+        }
+    }
+
+    /**
+     * Returns true if the mark on a cell is part of numToWin adjacent marks.
+     *
+     * @param cell
+     * @return true if the cell is part of a winning run
+     */
+    public boolean isWinningMark(int cell) {
+        byte mark = this.cells[cell];
+        int row = cell / this.size;
+        int column = cell % this.size;
+        for (int[] d : DIRECTIONS) {
+            int count = 1;
+            for (int r = row + d[0], c = column + d[1];
+                 count < this.numToWin && r >= 0 && r < this.size && c >= 0 && c < this.size
+                         && this.cells[r * this.size + c] == mark;
+                 r += d[0], c += d[1]) {
+                count++;
+            }
+            for (int r = row - d[0], c = column - d[1];
+                 count < this.numToWin && r >= 0 && r < this.size && c >= 0 && c < this.size
+                         && this.cells[r * this.size + c] == mark;
+                 r -= d[0], c -= d[1]) {
+                count++;
+            }
+            if (count >= this.numToWin) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if placing a mark on an empty cell would complete a run of
+     * numToWin marks, whoever is to move. The board is left unchanged.
+     *
+     * @param cell empty cell
+     * @param mark X or O
+     * @return true if the mark would win on that cell
+     */
+    public boolean isWinningMove(int cell, byte mark) {
+        this.cells[cell] = mark;
+        boolean win = isWinningMark(cell);
+        this.cells[cell] = EMPTY;
+        return win;
+    }
+
+    /**
+     * Heuristic score of the position for the player to move: every window
+     * of numToWin cells holding marks of only one player counts for that
+     * player, weighted by how full it is. Windows of more than
+     * MAX_WEIGHTED_MARKS marks weigh the same, and the sum is accumulated in
+     * a long and saturated, so long runs (numToWin of 16 and up) cannot
+     * overflow.
+     *
+     * @return positive if the player to move is better placed
+     */
+    public int evaluate() {
+        long score = 0;
+        for (int[] d : DIRECTIONS) {
+            for (int row = 0; row < this.size; row++) {
+                for (int column = 0; column < this.size; column++) {
+                    int endRow = row + d[0] * (this.numToWin - 1);
+                    int endColumn = column + d[1] * (this.numToWin - 1);
+                    if (endRow >= this.size || endColumn < 0 || endColumn >= this.size) continue;
+                    int own = 0;
+                    int other = 0;
+                    for (int n = 0; n < this.numToWin; n++) {
+                        byte mark = this.cells[(row + d[0] * n) * this.size + column + d[1] * n];
+                        if (mark == this.toMove) {
+                            own++;
+                        } else if (mark != EMPTY) {
+                            other++;
+                        }
+                    }
+                    if (other == 0 && own > 0) {
+                        score += 1L << (2 * Math.min(own, MAX_WEIGHTED_MARKS));
+                    } else if (own == 0 && other > 0) {
+                        score -= 1L << (2 * Math.min(other, MAX_WEIGHTED_MARKS));
+                    }
+                }
+            }
+        }
+        return (int) Math.max(-Integer.MAX_VALUE, Math.min(Integer.MAX_VALUE, score));
+    }
+
+    /**
+     * Returns true if the cell is within distance of an occupied cell.
+     *
+     * @param cell
+     * @param distance
+     * @return true if a mark is within distance rows and columns of the cell
+     */
+    public boolean hasNeighbour(int cell, int distance) {
+        int row = cell / this.size;
+        int column = cell % this.size;
+        for (int r = Math.max(0, row - distance); r <= Math.min(this.size - 1, row + distance); r++) {
+            for (int c = Math.max(0, column - distance); c <= Math.min(this.size - 1, column + distance); c++) {
+                if (this.cells[r * this.size + c] != EMPTY) return true;
+            }
+        }
+        return false;
+    }
+
+    public int getSize() { return this.size; }
+
+    public int getNumToWin() { return this.numToWin; }
+
+    public int getCellCount() { return this.cells.length; }
+
+    public byte getMark(int cell) { return this.cells[cell]; }
+
+    public int getMarkCount() { return this.nMarks; }
+
+    public int getLastMove() { return this.moves[this.nMarks - 1]; }
+
+    /**
+     * Returns a cell played, in the order the marks were placed.
+     *
+     * @param index between 0 and getMarkCount() - 1
+     * @return cell of the index-th mark
+     */
+    public int getMove(int index) { return this.moves[index]; }
+
+    public byte getToMove() { return this.toMove; }
+
+    public long getHash() { return this.hashes[TicTacToeSymmetry.IDENTITY]; }
+
+    /**
+     * Returns the hash of the image of this position under a symmetry.
+     *
+     * @param transform see TicTacToeSymmetry
+     * @return Zobrist hash of the transformed position
+     */
+    public long getHash(int transform) { return this.hashes[transform]; }
+
+    public boolean isFull() { return this.nMarks == this.cells.length; }
+}
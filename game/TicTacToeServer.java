@@ -0,0 +1,485 @@
+package game;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Server hosting many TicTacToe games over TCP.
+ *
+ * Connections are spread over a few event loops, each a thread with its
+ * own NIO Selector. Clients speak a line protocol (one command per line,
+ * US-ASCII):
+ *
+ *   client: PLAY [size [numToWin]]   join the queue for a game (default 3 x 3)
+ *           MOVE row column          play a mark
+ *           QUIT                     close the connection
+ *   server: WAITING                  no opponent yet
+ *           START mark size numToWin game found, 'X' moves first
+ *           MOVED mark row column state   a move of either player, state is a TicTacToeEnum
+ *           LEFT                     the opponent disconnected, the game is over
+ *           ERROR message            the command was rejected
+ *
+ * Players waiting for the same kind of game are paired as they arrive. A
+ * move is applied under the lock of its game only, by the event loop of
+ * the player who made it, so games never wait for each other. Replies to
+ * the other player are queued on that player's connection and written by
+ * its own event loop, in the order the moves were made.
+ *
+ * A connection plays at most one game at a time, of at most maxSize x
+ * maxSize cells, which bounds the memory a client can make the server
+ * hold.
+ */
+public class TicTacToeServer implements Closeable {
+
+    public static final int DEFAULT_MAX_SIZE = 100;
+    private static final int MAX_LINE = 256;
+
+    private final int maxSize;        // Largest grid a client may ask for
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    // Player waiting for an opponent, by "size numToWin"
+    private final ConcurrentHashMap<String, Connection> waiting = new ConcurrentHashMap<>();
+
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder gamesStarted = new LongAdder();
+    private final LongAdder gamesFinished = new LongAdder();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * Constructor for a server listening on a port, started at once.
+     *
+     * @param address to listen on, e.g. new InetSocketAddress(9090), port 0 for any free port
+     * @param threads number of event loops
+     * @throws IOException
+     */
+    public TicTacToeServer(InetSocketAddress address, int threads) throws IOException {
+        this(address, threads, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructor for a server listening on a port, started at once.
+     *
+     * @param address to listen on, e.g. new InetSocketAddress(9090), port 0 for any free port
+     * @param threads number of event loops
+     * @param maxSize largest grid size a client may ask for
+     * @throws IOException
+     * @throws IllegalArgumentException
+     */
+    public TicTacToeServer(InetSocketAddress address, int threads, int maxSize)
+            throws IOException, IllegalArgumentException {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Largest grid size must be positive.");
+        this.maxSize = maxSize;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(address, 1024);
+        this.serverChannel.configureBlocking(false);
+        this.loops = new EventLoop[Math.max(1, threads)];
+        for (int i = 0; i < this.loops.length; i++) {
+            this.loops[i] = new EventLoop("TicTacToeServer loop " + i);
+        }
+        // The first loop also accepts connections
+        this.loops[0].execute(() -> {
+            try {
+                this.serverChannel.register(this.loops[0].selector, SelectionKey.OP_ACCEPT);
+            } catch (ClosedChannelException e) {
+                System.out.println("Server accept - ClosedChannelException caught.");
+            }
+        });
+        for (EventLoop loop : this.loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Returns the address the server listens on (with the actual port when started on port 0).
+     *
+     * @return address
+     * @throws IOException
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) this.serverChannel.getLocalAddress();
+    }
+
+    public long getMoveCount() { return this.moves.sum(); }
+
+    public long getGamesStarted() { return this.gamesStarted.sum(); }
+
+    public long getGamesFinished() { return this.gamesFinished.sum(); }
+
+    public int getConnectionCount() { return this.connections.get(); }
+
+    /**
+     * Stops the event loops and closes every connection.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.serverChannel.close();
+        for (EventLoop loop : this.loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * A thread running a Selector over its share of the connections. Other
+     * threads hand it work (registrations, writes) through execute().
+     */
+    private class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        EventLoop(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        void execute(Runnable task) {
+            this.tasks.add(task);
+            if (Thread.currentThread() != this.thread) this.selector.wakeup();
+        }
+
+        void shutdown() {
+            this.running = false;
+            this.selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (this.running) {
+                    // Tasks queued by this loop itself did not wake the selector
+                    if (this.tasks.isEmpty()) {
+                        this.selector.select();
+                    } else {
+                        this.selector.selectNow();
+                    }
+                    Runnable task;
+                    while ((task = this.tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) connection.read();
+                            if (key.isValid() && key.isWritable()) connection.flush();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Server loop - IOException caught.");
+            } finally {
+                for (SelectionKey key : this.selector.keys()) {
+                    if (key.attachment() instanceof Connection) ((Connection) key.attachment()).close();
+                }
+                try {
+                    this.selector.close();
+                } catch (IOException e) {
+                    System.out.println("Server selector - IOException caught.");
+                }
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                SocketChannel accepted = channel;
+                loop.execute(() -> loop.register(accepted));
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                Connection connection = new Connection(channel, this);
+                connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+                connections.incrementAndGet();
+            } catch (IOException e) {
+                System.out.println("Server register - IOException caught.");
+            }
+        }
+    }
+
+    /**
+     * A game between two connections. Moves are applied while holding the
+     * game's lock.
+     */
+    private class Game {
+
+        final TicTacToeModel model;
+        final Connection x;
+        final Connection o;
+        boolean over;
+
+        Game(int size, int numToWin, Connection x, Connection o) {
+            this.model = new TicTacToeModel(size, numToWin, 'X');
+            this.x = x;
+            this.o = o;
+        }
+
+        synchronized void move(Connection player, int row, int column) {
+            if (this.over) {
+                player.send("ERROR Game is over.");
+                return;
+            }
+            if (this.model.getTurn() != player.mark) {
+                player.send("ERROR Not your turn.");
+                return;
+            }
+            TicTacToeEnum state;
+            try {
+                state = this.model.takeTurn(row, column);
+            } catch (IllegalArgumentException e) {
+                player.send("ERROR " + e.getMessage());
+                return;
+            }
+            moves.increment();
+            String line = "MOVED " + player.mark + " " + row + " " + column + " " + state;
+            this.x.send(line);
+            this.o.send(line);
+            if (state != TicTacToeEnum.IN_PROGRESS) end();
+        }
+
+        synchronized void leave(Connection player) {
+            if (this.over) return;
+            end();
+            (player == this.x ? this.o : this.x).send("LEFT");
+        }
+
+        private void end() {
+            this.over = true;
+            gamesFinished.increment();
+            TicTacToeMetrics.ACTIVE_GAMES.add(-1);
+            TicTacToeMetrics.ACTIVE_CELLS.add(-(long) this.model.getSize() * this.model.getSize());
+            this.x.game = null;
+            this.o.game = null;
+        }
+    }
+
+    /**
+     * One client: its channel, partly read line and queued replies.
+     */
+    private class Connection {
+
+        final SocketChannel channel;
+        final EventLoop loop;
+        SelectionKey key;
+        private final ByteBuffer input = ByteBuffer.allocate(MAX_LINE);
+        private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+        volatile Game game;
+        volatile char mark;
+        private volatile String waitingFor;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        /**
+         * Queues a line to the client. May be called from any thread.
+         *
+         * @param line without the end of line
+         */
+        void send(String line) {
+            this.output.add(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII)));
+            if (Thread.currentThread() == this.loop.thread) {
+                flush();
+            } else if (this.flushScheduled.compareAndSet(false, true)) {
+                this.loop.execute(() -> {
+                    this.flushScheduled.set(false);
+                    flush();
+                });
+            }
+        }
+
+        /**
+         * Writes as much queued output as the socket takes, and asks to be
+         * told when it can take the rest. Runs on the connection's loop.
+         */
+        void flush() {
+            if (!this.channel.isOpen()) return;
+            try {
+                ByteBuffer buffer;
+                while ((buffer = this.output.peek()) != null) {
+                    this.channel.write(buffer);
+                    if (buffer.hasRemaining()) break;
+                    this.output.poll();
+                }
+                this.key.interestOps(this.output.isEmpty()
+                        ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+
+        /**
+         * Reads what the client sent and handles every complete line.
+         */
+        void read() {
+            try {
+                if (this.channel.read(this.input) < 0) {
+                    close();
+                    return;
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            this.input.flip();
+            int start = this.input.position();
+            for (int i = start; i < this.input.limit(); i++) {
+                if (this.input.get(i) == '\n') {
+                    byte[] bytes = new byte[i - start];
+                    this.input.get(start, bytes);
+                    handle(new String(bytes, StandardCharsets.US_ASCII).trim());
+                    start = i + 1;
+                    if (!this.channel.isOpen()) return;
+                }
+            }
+            this.input.position(start);
+            this.input.compact();
+            if (!this.input.hasRemaining()) {
+                send("ERROR Line too long.");
+                close();
+            }
+        }
+
+        private void handle(String line) {
+            String[] words = line.split("\\s+");
+            try {
+                switch (words[0].toUpperCase()) {
+                    case "PLAY":
+                        int size = (words.length > 1) ? Integer.parseInt(words[1]) : 3;
+                        int numToWin = (words.length > 2) ? Integer.parseInt(words[2]) : size;
+                        play(size, numToWin);
+                        break;
+                    case "MOVE":
+                        Game current = this.game;
+                        if (words.length < 3) {
+                            send("ERROR Usage: MOVE row column.");
+                        } else if (current == null) {
+                            send("ERROR Not in a game.");
+                        } else {
+                            current.move(this, Integer.parseInt(words[1]), Integer.parseInt(words[2]));
+                        }
+                        break;
+                    case "QUIT":
+                        close();
+                        break;
+                    default:
+                        send("ERROR Unknown command " + words[0] + ".");
+                }
+            } catch (NumberFormatException e) {
+                send("ERROR Bad number in " + line + ".");
+            }
+        }
+
+        /**
+         * Pairs the client with a waiting player of the same kind of game, or
+         * makes it wait for one.
+         *
+         * @param size
+         * @param numToWin
+         */
+        private void play(int size, int numToWin) {
+            // waitingFor is read first: a pairing sets game before clearing it
+            if (this.waitingFor != null || this.game != null) {
+                send("ERROR Already playing.");
+                return;
+            }
+            if (size < 1 || size > maxSize || numToWin < 1 || numToWin > size) {
+                send("ERROR Grid must be 1 to " + maxSize + " with 1 to size marks to win.");
+                return;
+            }
+            String kind = size + " " + numToWin;
+            Connection[] opponent = new Connection[1];
+            waiting.compute(kind, (k, waiter) -> {
+                if (waiter == null || !waiter.channel.isOpen()) {
+                    // Wait before other loops can see this connection, so that
+                    // a player pairing with it finds WAITING already queued
+                    this.waitingFor = kind;
+                    send("WAITING");
+                    return this;
+                }
+                opponent[0] = waiter;
+                return null;
+            });
+            if (opponent[0] == null) return;
+            Connection x = opponent[0];
+            Game newGame = new Game(size, numToWin, x, this);
+            x.mark = 'X';
+            this.mark = 'O';
+            x.game = newGame;
+            this.game = newGame;
+            // Only now, so that a PLAY handled meanwhile by x's loop still
+            // sees x as waiting or playing
+            x.waitingFor = null;
+            gamesStarted.increment();
+            TicTacToeMetrics.ACTIVE_GAMES.add(1);
+            TicTacToeMetrics.ACTIVE_CELLS.add((long) size * size);
+            x.send("START X " + size + " " + numToWin);
+            send("START O " + size + " " + numToWin);
+            // The opponent may have disconnected while being paired
+            if (!x.channel.isOpen()) newGame.leave(x);
+        }
+
+        void close() {
+            if (!this.channel.isOpen()) return;
+            connections.decrementAndGet();
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                System.out.println("Server close - IOException caught.");
+            }
+            if (this.waitingFor != null) waiting.remove(this.waitingFor, this);
+            Game current = this.game;
+            if (current != null) current.leave(this);
+        }
+    }
+
+    /** Runs a server until killed, printing its load every 10 seconds
+     *
+     * @param args port (default 9090), number of event loops (default: cores)
+     *             and largest grid size (default DEFAULT_MAX_SIZE)
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String args[]) throws IOException, InterruptedException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 9090;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int maxSize = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_MAX_SIZE;
+        TicTacToeMetrics.install();
+        TicTacToeServer server = new TicTacToeServer(new InetSocketAddress(port), threads, maxSize);
+        System.out.println("TicTacToe server listening on " + server.getAddress() + " with " + threads + " loops");
+        long lastMoves = 0;
+        while (true) {
+            Thread.sleep(10000);
+            long moves = server.getMoveCount();
+            System.out.printf("%d connections, %d games in progress, %.0f moves/s%n", server.getConnectionCount(),
+                    server.getGamesStarted() - server.getGamesFinished(), (moves - lastMoves) / 10.0);
+            lastMoves = moves;
+        }
+    }
+}
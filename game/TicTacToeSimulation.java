@@ -0,0 +1,186 @@
+package game;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Supplier;
+
+/**
+ * Headless self-play engine running many games between two computer
+ * players, with no views attached.
+ *
+ * Games are spread over a fixed pool of worker threads. Each worker owns
+ * its model (reused through reset() between games), its two players and
+ * its latency histogram, so workers share nothing but the count of games
+ * left to play. The starting player alternates between games.
+ */
+public class TicTacToeSimulation {
+
+    private final int size;
+    private final int numToWin;
+    private final Supplier<TicTacToePlayer> playerX;
+    private final Supplier<TicTacToePlayer> playerO;
+
+    /**
+     * Constructor for a simulation of games between two kinds of player.
+     *
+     * @param size
+     * @param numToWin
+     * @param playerX creates the player of 'X' for each worker thread
+     * @param playerO creates the player of 'O' for each worker thread
+     */
+    public TicTacToeSimulation(int size, int numToWin, Supplier<TicTacToePlayer> playerX,
+                               Supplier<TicTacToePlayer> playerO) {
+        this.size = size;
+        this.numToWin = numToWin;
+        this.playerX = playerX;
+        this.playerO = playerO;
+    }
+
+    /**
+     * Outcome counts and timings of a simulation run.
+     */
+    public static class Result {
+
+        private final long[] outcomes = new long[TicTacToeEnum.values().length];
+        private final TicTacToeLatencyHistogram moveLatency = new TicTacToeLatencyHistogram();
+        private long games;
+        private long moves;
+        private long elapsedNanos;
+
+        private void add(Result other) {
+            for (int i = 0; i < this.outcomes.length; i++) {
+                this.outcomes[i] += other.outcomes[i];
+            }
+            this.moveLatency.add(other.moveLatency);
+            this.games += other.games;
+            this.moves += other.moves;
+        }
+
+        public long getGames() { return this.games; }
+
+        public long getMoves() { return this.moves; }
+
+        public long getCount(TicTacToeEnum outcome) { return this.outcomes[outcome.ordinal()]; }
+
+        public TicTacToeLatencyHistogram getMoveLatency() { return this.moveLatency; }
+
+        public double getElapsedSeconds() { return this.elapsedNanos / 1e9; }
+
+        public double getGamesPerSecond() {
+            return (this.elapsedNanos == 0) ? 0.0 : this.games * 1e9 / this.elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d games, %d moves in %.2fs (%.0f games/s)%n"
+                            + "X won %.1f%%, O won %.1f%%, draw %.1f%%%n"
+                            + "Move latency: %s",
+                    this.games, this.moves, getElapsedSeconds(), getGamesPerSecond(),
+                    percent(getCount(TicTacToeEnum.X_WON)), percent(getCount(TicTacToeEnum.O_WON)),
+                    percent(getCount(TicTacToeEnum.DRAW)), this.moveLatency);
+        }
+
+        private double percent(long count) {
+            return (this.games == 0) ? 0.0 : 100.0 * count / this.games;
+        }
+    }
+
+    /**
+     * Plays a number of games on a pool of worker threads.
+     *
+     * @param games number of games to play
+     * @param threads number of worker threads
+     * @return combined result of all workers
+     * @throws InterruptedException
+     */
+    public Result run(long games, int threads) throws InterruptedException {
+        AtomicLong remaining = new AtomicLong(games);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> playGames(remaining)));
+        }
+        Result total = new Result();
+        try {
+            for (Future<Result> worker : workers) {
+                total.add(worker.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Simulation worker failed.", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        total.elapsedNanos = System.nanoTime() - start;
+        return total;
+    }
+
+    /**
+     * Worker loop: plays games until none are left.
+     *
+     * @param remaining shared count of games left to play
+     * @return result of this worker's games
+     */
+    private Result playGames(AtomicLong remaining) {
+        Result result = new Result();
+        TicTacToePlayer x = this.playerX.get();
+        TicTacToePlayer o = this.playerO.get();
+        TicTacToeModel model = new TicTacToeModel(this.size, this.numToWin, 'X');
+        long game;
+        while ((game = remaining.getAndDecrement()) > 0) {
+            model.reset((game % 2 == 0) ? 'X' : 'O');
+            while (model.getGameState() == TicTacToeEnum.IN_PROGRESS) {
+                long start = System.nanoTime();
+                int[] move = (model.getTurn() == 'X') ? x.chooseMove(model) : o.chooseMove(model);
+                model.takeTurn(move[0], move[1]);
+                result.moveLatency.record(System.nanoTime() - start);
+                result.moves++;
+            }
+            result.outcomes[model.getGameState().ordinal()]++;
+            result.games++;
+        }
+        return result;
+    }
+
+    /**
+     * Creates players from a command line name: random, greedy,
+     * search[:millis] for a TicTacToeAI with the given time budget, or
+     * mcts[:millis] for a TicTacToeMCTSPlayer.
+     *
+     * @param name
+     * @return player factory
+     * @throws IllegalArgumentException
+     */
+    public static Supplier<TicTacToePlayer> playerFactory(String name) throws IllegalArgumentException {
+        if (name.equals("random")) return TicTacToeRandomPlayer::new;
+        if (name.equals("greedy")) return TicTacToeGreedyPlayer::new;
+        if (name.startsWith("search")) {
+            long budget = name.contains(":") ? Long.parseLong(name.substring(name.indexOf(':') + 1)) : 10;
+            return () -> new TicTacToeAI(budget, 1 << 16);
+        }
+        if (name.startsWith("mcts")) {
+            long budget = name.contains(":") ? Long.parseLong(name.substring(name.indexOf(':') + 1)) : 10;
+            return () -> new TicTacToeMCTSPlayer(budget, 1 << 18);
+        }
+        throw new IllegalArgumentException("Unknown player " + name + ": use random, greedy, search[:millis] or mcts[:millis].");
+    }
+
+    /** Self-play simulation
+     *
+     * @param args size, numToWin, games, threads, X player and O player
+     *             (default 3 3 1000000 <cores> random random)
+     * @throws InterruptedException
+     */
+    public static void main(String args[]) throws InterruptedException {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        int numToWin = (args.length > 1) ? Integer.parseInt(args[1]) : size;
+        long games = (args.length > 2) ? Long.parseLong(args[2]) : 1000000;
+        int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        String x = (args.length > 4) ? args[4] : "random";
+        String o = (args.length > 5) ? args[5] : "random";
+        TicTacToeSimulation simulation = new TicTacToeSimulation(size, numToWin, playerFactory(x), playerFactory(o));
+        System.out.printf("%dx%d, %d to win: %s (X) vs %s (O), %d threads%n", size, size, numToWin, x, o, threads);
+        System.out.println(simulation.run(games, threads));
+    }
+}
@@ -0,0 +1,139 @@
+package game;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Client side of TicTacToeSpectatorHub: follows a remote game in a local
+ * TicTacToeModel.
+ *
+ * Every frame read is applied to the local model, then its views are
+ * notified as if the moves had been played locally, so any observer
+ * (e.g. a TicTacToeView on getModel()) can watch a remote game.
+ */
+public class TicTacToeSpectator implements Closeable {
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final String source;
+    private TicTacToeModel model;
+
+    /**
+     * Constructor connecting to a hub and reading the game from it.
+     *
+     * @param hub address of the hub
+     * @throws IOException if the hub cannot be reached or sent no game
+     */
+    public TicTacToeSpectator(InetSocketAddress hub) throws IOException {
+        this.channel = SocketChannel.open(hub);
+        this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel)));
+        this.source = hub.toString();
+        // The first frame is always a snapshot
+        if (!readFrame())
+            throw new IOException(this.source + " closed before sending the game.");
+    }
+
+    /**
+     * Returns the local copy of the game, which views can be added to.
+     *
+     * @return model
+     */
+    public TicTacToeModel getModel() { return this.model; }
+
+    /**
+     * Reads the next frame, applies it to the local game and notifies its
+     * views. Blocks until a frame arrives.
+     *
+     * @return false once the hub has closed the stream
+     * @throws IOException if the stream is not a valid spectator stream
+     */
+    public boolean readFrame() throws IOException {
+        int type = this.in.read();
+        if (type < 0) return false;
+        if (type == TicTacToeSpectatorHub.SNAPSHOT) {
+            byte[] bytes = new byte[this.in.readInt()];
+            this.in.readFully(bytes);
+            TicTacToeModel game = TicTacToeFile.decode(ByteBuffer.wrap(bytes), this.source);
+            if (this.model == null) {
+                this.model = game;
+            } else {
+                copyGame(game, this.model);
+            }
+        } else if (type == TicTacToeSpectatorHub.DELTA && this.model != null) {
+            int row = this.in.readInt();
+            int column = this.in.readInt();
+            char mark = (char) this.in.readUnsignedByte();
+            int state = this.in.readUnsignedByte();
+            if (state >= TicTacToeEnum.values().length)
+                throw new IOException(this.source + " sent an invalid game state.");
+            try {
+                TicTacToeSpectatorHub.applyDelta(this.model, row, column, mark, TicTacToeEnum.values()[state]);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(this.source + " sent an invalid change: " + e.getMessage());
+            }
+        } else {
+            throw new IOException(this.source + " is not a spectator hub.");
+        }
+        this.model.notifyViews();
+        return true;
+    }
+
+    /**
+     * Replaces the contents of a game with those of another game of the
+     * same size, keeping the views of the game replaced.
+     *
+     * @param from
+     * @param to
+     * @throws IOException if the games differ in size or length to win
+     */
+    private void copyGame(TicTacToeModel from, TicTacToeModel to) throws IOException {
+        if (from.getSize() != to.getSize() || from.getNumToWin() != to.getNumToWin())
+            throw new IOException(this.source + " changed the game being watched.");
+        to.reset(from.getTurn());
+        int size = from.getSize();
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                char mark = from.getMark(row, column);
+                if (mark != ' ') to.restoreMark(row, column, mark);
+            }
+        }
+        to.restoreState(from.getTurn(), from.getGameState());
+    }
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /** Watching example: prints the grid of a remote game after every change
+     *
+     * @param args hub host:port
+     * @throws IOException
+     */
+    public static void main(String args[]) throws IOException {
+        int colon = args[0].lastIndexOf(':');
+        InetSocketAddress hub = new InetSocketAddress(args[0].substring(0, colon),
+                Integer.parseInt(args[0].substring(colon + 1)));
+        try (TicTacToeSpectator spectator = new TicTacToeSpectator(hub)) {
+            TicTacToeModel game = spectator.getModel();
+            do {
+                String grid = game.toString();
+                if ((long) game.getSize() * game.getSize() > TicTacToeModel.TO_STRING_CELLS) {
+                    System.out.println(grid);
+                    continue;
+                }
+                for (int row = 0; row < game.getSize(); row++) {
+                    System.out.println(grid.substring(row * game.getSize(), (row + 1) * game.getSize()).replace(' ', '.'));
+                }
+                System.out.println(game.getGameState() + ", " + game.getTurn() + " to play");
+            } while (spectator.readFrame());
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package game;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Streams one game to remote spectators over TCP.
+ *
+ * The hub is an observer of a TicTacToeModel. Spectators connect to its
+ * port and only read: they receive a snapshot of the game, then a frame
+ * for every change (integers are big-endian):
+ *
+ *   snapshot: byte 'S', int length, the game in the TicTacToeFile format
+ *   delta:    byte 'D', int row, int column, byte mark (' ', 'X' or 'O'),
+ *             byte game state (TicTacToeEnum ordinal)
+ *
+ * A reset is sent as a snapshot. update() only queues the change and wakes
+ * the hub's thread, so the players never wait for spectators. That thread
+ * keeps its own copy of the game and encodes each batch of changes once,
+ * sharing the bytes between all spectators. The bytes are written with
+ * non-blocking gathering writes.
+ *
+ * Each spectator may have at most queueLimit batches waiting to be
+ * written. A spectator that falls further behind has its backlog dropped
+ * and replaced by a snapshot of the current game. A slow reader therefore
+ * catches up in one step and never holds up the others.
+ */
+public class TicTacToeSpectatorHub implements TicTacToeObserver, Closeable {
+
+    public static final byte SNAPSHOT = 'S';
+    public static final byte DELTA = 'D';
+    public static final int DELTA_BYTES = 11;
+    public static final int DEFAULT_QUEUE_LIMIT = 64;
+
+    // Most buffers handed to one gathering write
+    private static final int MAX_WRITE_BUFFERS = 64;
+
+    private final TicTacToeModel model;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Thread thread;
+    private final int queueLimit;
+    private volatile boolean running = true;
+
+    // Changes from the model thread: TicTacToeEvents, or snapshot frames after a refresh
+    private final Queue<Object> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    // Set by the hub thread when its copy of the game went wrong
+    private final AtomicBoolean snapshotWanted = new AtomicBoolean();
+
+    // Only used by the hub thread
+    private final List<Spectator> spectators = new ArrayList<>();
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[MAX_WRITE_BUFFERS];
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(256);
+    private TicTacToeModel mirror;
+    private ByteBuffer snapshot;   // Snapshot frame of mirror, null until needed after a change
+    private boolean outOfStep;     // Changes are skipped until the snapshot asked for arrives
+    private boolean spectatorsClosed;
+
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
+    private volatile int spectatorCount;
+
+    /**
+     * Constructor for a hub streaming a game, started at once and added to
+     * the model's views. Call it on the thread that changes the model.
+     *
+     * @param model game to stream
+     * @param address to listen on, port 0 for any free port
+     * @param queueLimit batches of changes a spectator may fall behind before it is resynchronized
+     * @throws IOException
+     * @throws IllegalArgumentException if queueLimit is less than 2
+     */
+    public TicTacToeSpectatorHub(TicTacToeModel model, InetSocketAddress address, int queueLimit)
+            throws IOException, IllegalArgumentException {
+        if (queueLimit < 2)
+            throw new IllegalArgumentException("Queue limit must be at least 2.");
+        this.model = model;
+        this.queueLimit = queueLimit;
+        this.mirror = TicTacToeFile.decode(TicTacToeFile.encode(model), "model");
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(address, 1024);
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::run, "TicTacToe spectators");
+        this.thread.setDaemon(true);
+        this.thread.start();
+        model.addView(this);
+    }
+
+    public TicTacToeSpectatorHub(TicTacToeModel model, InetSocketAddress address) throws IOException {
+        this(model, address, DEFAULT_QUEUE_LIMIT);
+    }
+
+    /**
+     * Returns the address the hub listens on (with the actual port when started on port 0).
+     *
+     * @return address
+     * @throws IOException
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) this.serverChannel.getLocalAddress();
+    }
+
+    public int getSpectatorCount() { return this.spectatorCount; }
+
+    public long getChangeCount() { return this.changes.sum(); }
+
+    public long getBytesSent() { return this.bytesSent.sum(); }
+
+    /**
+     * Returns how many times a spectator's backlog, or the hub's copy of the
+     * game, was replaced by a snapshot.
+     *
+     * @return number of resynchronizations
+     */
+    public long getResyncCount() { return this.resyncs.sum(); }
+
+    /**
+     * Queues a change for the spectators. Runs on the model thread and
+     * never blocks: a refresh, or a change after the hub thread asked for a
+     * snapshot, is encoded here, while the model cannot change, and
+     * everything else is left to the hub thread.
+     *
+     * @param event
+     */
+    @Override
+    public void update(TicTacToeEvent event) {
+        if (!this.running) return;
+        boolean encode = event.isRefresh() || this.snapshotWanted.getAndSet(false);
+        this.inbox.add(encode ? snapshotFrame(TicTacToeFile.encode(this.model)) : event);
+        this.changes.increment();
+        if (this.wakeupPending.compareAndSet(false, true)) this.selector.wakeup();
+    }
+
+    /**
+     * Stops streaming and closes every spectator connection. The hub should
+     * be removed from the model's views first, on the model thread.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Applies a delta frame to a game: the mark is played, or taken back if
+     * it is ' ', and the game state is set to the one sent.
+     *
+     * @param game
+     * @param row
+     * @param column
+     * @param mark ' ', 'X' or 'O'
+     * @param gameState
+     * @throws IllegalArgumentException if the change does not follow from the game
+     */
+    static void applyDelta(TicTacToeModel game, int row, int column, char mark, TicTacToeEnum gameState)
+            throws IllegalArgumentException {
+        if (mark == ' ') {
+            game.undoTurn(row, column);
+        } else if (mark == game.getTurn()) {
+            game.takeTurn(row, column);
+        } else {
+            throw new IllegalArgumentException("Mark " + mark + " played out of turn.");
+        }
+        game.restoreState(game.getTurn(), gameState);
+    }
+
+    private static ByteBuffer snapshotFrame(ByteBuffer game) {
+        ByteBuffer frame = ByteBuffer.allocate(5 + game.remaining());
+        frame.put(SNAPSHOT);
+        frame.putInt(game.remaining());
+        frame.put(game);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Returns the snapshot frame of the hub's copy of the game, encoded at
+     * most once between two changes.
+     */
+    private ByteBuffer currentSnapshot() {
+        if (this.snapshot == null) this.snapshot = snapshotFrame(TicTacToeFile.encode(this.mirror));
+        return this.snapshot;
+    }
+
+    private void run() {
+        try {
+            while (this.running) {
+                this.selector.select();
+                // Changes queued from now on wake the selector again
+                this.wakeupPending.set(false);
+                publish();
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Spectator spectator = (Spectator) key.attachment();
+                        if (key.isReadable()) spectator.read();
+                        if (key.isValid() && key.isWritable()) spectator.flush();
+                    }
+                }
+                if (this.spectatorsClosed) {
+                    this.spectators.removeIf(spectator -> !spectator.open);
+                    this.spectatorCount = this.spectators.size();
+                    this.spectatorsClosed = false;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Spectator hub - IOException caught.");
+        } finally {
+            for (Spectator spectator : this.spectators) {
+                spectator.close();
+            }
+            this.spectatorCount = 0;
+            try {
+                this.serverChannel.close();
+                this.selector.close();
+            } catch (IOException e) {
+                System.out.println("Spectator hub close - IOException caught.");
+            }
+        }
+    }
+
+    /**
+     * Applies the queued changes to the hub's copy of the game and sends
+     * them to every spectator as one batch: the last refresh, if any, then
+     * the delta frames that followed it.
+     *
+     * A change that does not follow from the hub's copy of the game is not
+     * sent. The hub then skips changes until the model thread encodes a
+     * snapshot of the game with the next change, which rebuilds the copy
+     * and is sent to every spectator as a refresh.
+     *
+     * @throws IOException
+     */
+    private void publish() throws IOException {
+        ByteBuffer refresh = null;
+        ByteBuffer deltas = null;
+        Object change;
+        while ((change = this.inbox.poll()) != null) {
+            if (change instanceof ByteBuffer) {
+                // A refresh replaces everything before it
+                refresh = (ByteBuffer) change;
+                this.mirror = TicTacToeFile.decode(refresh.duplicate().position(5), "model");
+                this.snapshot = refresh;
+                this.outOfStep = false;
+                if (deltas != null) deltas.clear();
+                continue;
+            }
+            if (this.outOfStep) continue;
+            TicTacToeEvent event = (TicTacToeEvent) change;
+            this.snapshot = null;
+            int last = event.getChangeCount() - 1;
+            try {
+                for (int i = 0; i <= last; i++) {
+                    // The moves of a batch before its last leave the game in progress
+                    TicTacToeEnum state = (i == last) ? event.getGameState() : TicTacToeEnum.IN_PROGRESS;
+                    applyDelta(this.mirror, event.getRow(i), event.getColumn(i), event.getMark(i), state);
+                    if (deltas == null) {
+                        deltas = ByteBuffer.allocate(DELTA_BYTES * Math.max(16, last + 1));
+                    } else if (deltas.remaining() < DELTA_BYTES) {
+                        deltas = ByteBuffer.allocate(Math.max(deltas.capacity() * 2, deltas.position() + DELTA_BYTES * (last + 1 - i)))
+                                .put(deltas.flip());
+                    }
+                    deltas.put(DELTA);
+                    deltas.putInt(event.getRow(i));
+                    deltas.putInt(event.getColumn(i));
+                    deltas.put((byte) event.getMark(i));
+                    deltas.put((byte) state.ordinal());
+                }
+            } catch (IllegalArgumentException e) {
+                this.outOfStep = true;
+                this.snapshotWanted.set(true);
+                this.resyncs.increment();
+            }
+        }
+        if (deltas != null) {
+            deltas.flip();
+            if (!deltas.hasRemaining()) deltas = null;
+        }
+        if (refresh == null && deltas == null) return;
+        for (Spectator spectator : this.spectators) {
+            spectator.send(refresh, deltas);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = this.serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Spectator spectator = new Spectator(channel);
+            spectator.key = channel.register(this.selector, SelectionKey.OP_READ, spectator);
+            this.spectators.add(spectator);
+            spectator.queue.add(currentSnapshot().duplicate());
+            spectator.flush();
+        }
+        this.spectatorCount = this.spectators.size();
+    }
+
+    /**
+     * One spectator connection and the frames waiting to be written to it.
+     * Frames are read-only views of buffers shared by all spectators.
+     */
+    private class Spectator {
+
+        final SocketChannel channel;
+        SelectionKey key;
+        final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+        boolean open = true;
+        // The socket was full and the key waits for OP_WRITE
+        private boolean blocked;
+
+        Spectator(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Queues a batch of changes and writes what the socket takes, or
+         * replaces the backlog with a snapshot when over the limit.
+         *
+         * @param refresh snapshot frame, or null
+         * @param deltas delta frames, or null
+         */
+        void send(ByteBuffer refresh, ByteBuffer deltas) {
+            if (!this.open) return;
+            int batch = ((refresh != null) ? 1 : 0) + ((deltas != null) ? 1 : 0);
+            if (this.queue.size() + batch > queueLimit) {
+                resync();
+            } else {
+                if (refresh != null) this.queue.add(refresh.duplicate());
+                if (deltas != null) this.queue.add(deltas.duplicate());
+            }
+            // A blocked socket is written when the selector reports it writable
+            if (!this.blocked) flush();
+        }
+
+        /**
+         * Drops the frames not yet started and queues a snapshot of the
+         * current game instead. A frame already partly written is finished
+         * first to keep the stream in step.
+         */
+        private void resync() {
+            ByteBuffer head = this.queue.peek();
+            this.queue.clear();
+            if (head != null && head.position() > 0) this.queue.add(head);
+            this.queue.add(currentSnapshot().duplicate());
+            resyncs.increment();
+        }
+
+        void flush() {
+            try {
+                while (!this.queue.isEmpty()) {
+                    int count = 0;
+                    for (ByteBuffer buffer : this.queue) {
+                        writeBuffers[count++] = buffer;
+                        if (count == MAX_WRITE_BUFFERS) break;
+                    }
+                    bytesSent.add(this.channel.write(writeBuffers, 0, count));
+                    boolean full = writeBuffers[count - 1].hasRemaining();
+                    Arrays.fill(writeBuffers, 0, count, null);
+                    while (!this.queue.isEmpty() && !this.queue.peek().hasRemaining()) {
+                        this.queue.poll();
+                    }
+                    if (full) break;
+                }
+                boolean blocked = !this.queue.isEmpty();
+                if (blocked != this.blocked) {
+                    this.blocked = blocked;
+                    this.key.interestOps(blocked ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Spectators send nothing; reading only notices that they left.
+         */
+        void read() {
+            try {
+                readBuffer.clear();
+                if (this.channel.read(readBuffer) < 0) close();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (!this.open) return;
+            this.open = false;
+            this.queue.clear();
+            spectatorsClosed = true;
+            if (this.key != null) this.key.cancel();
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                System.out.println("Spectator close - IOException caught.");
+            }
+        }
+    }
+
+    /** Streaming example: random games are played on this thread while many
+     * spectators connected over loopback read the stream on another thread,
+     * then the time taken by each move (takeTurn() and notifyViews()) is
+     * reported. A few spectators never read, to show they are resynchronized
+     * without slowing the others.
+     *
+     * @param args spectators (default 1000), seconds (default 10), moves per
+     *             second (default 1000), size (default 15) and numToWin (default 5)
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String args[]) throws IOException, InterruptedException {
+        int watchers = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int movesPerSecond = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        int size = (args.length > 3) ? Integer.parseInt(args[3]) : 15;
+        int numToWin = (args.length > 4) ? Integer.parseInt(args[4]) : Math.min(5, size);
+
+        TicTacToeModel model = new TicTacToeModel(size, numToWin, 'X');
+        TicTacToeSpectatorHub hub = new TicTacToeSpectatorHub(model,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        // Spectators: one in a hundred never reads
+        Selector selector = Selector.open();
+        List<SocketChannel> channels = new ArrayList<>();
+        for (int i = 0; i < watchers; i++) {
+            SocketChannel channel = SocketChannel.open();
+            if (i % 100 == 99) channel.setOption(StandardSocketOptions.SO_RCVBUF, 1024);
+            channel.connect(hub.getAddress());
+            channel.configureBlocking(false);
+            if (i % 100 != 99) channel.register(selector, SelectionKey.OP_READ);
+            channels.add(channel);
+        }
+        Thread reader = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            try {
+                while (selector.isOpen()) {
+                    selector.select();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        buffer.clear();
+                        ((SocketChannel) key.channel()).read(buffer);
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                // Closed at the end of the run
+            }
+        }, "Spectators");
+        reader.setDaemon(true);
+        reader.start();
+        while (hub.getSpectatorCount() < watchers) {
+            Thread.sleep(10);
+        }
+
+        System.out.printf("%d spectators, %dx%d games with %d to win, %d moves/s for %d s%n",
+                watchers, size, size, numToWin, movesPerSecond, seconds);
+        TicTacToeLatencyHistogram moveTime = new TicTacToeLatencyHistogram();
+        SplittableRandom random = new SplittableRandom(1);
+        long interval = 1000000000L / movesPerSecond;
+        long start = System.nanoTime();
+        long next = start;
+        long end = start + seconds * 1000000000L;
+        while (next - end < 0) {
+            while (System.nanoTime() - next < 0) {
+                Thread.onSpinWait();
+            }
+            next += interval;
+            int row, column;
+            do {
+                row = random.nextInt(size);
+                column = random.nextInt(size);
+            } while (model.getMark(row, column) != ' ');
+            long before = System.nanoTime();
+            model.takeTurn(row, column);
+            model.notifyViews();
+            moveTime.record(System.nanoTime() - before);
+            if (model.getGameState() != TicTacToeEnum.IN_PROGRESS) {
+                model.reset(random.nextBoolean() ? 'X' : 'O');
+                model.notifyViews();
+            }
+        }
+        Thread.sleep(500);
+        model.removeView(hub);
+        hub.close();
+        selector.close();
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+
+        System.out.printf("%d changes, %.1f MB sent, %d resyncs%nMove time: %s%n", hub.getChangeCount(),
+                hub.getBytesSent() / 1e6, hub.getResyncCount(), moveTime);
+    }
+}
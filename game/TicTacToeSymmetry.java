@@ -0,0 +1,127 @@
+package game;
+
+import java.util.concurrent.*;
+
+/**
+ * The 8 symmetries (rotations and reflections) of a square TicTacToe grid.
+ *
+ * Each transform maps a cell (row * size + column) to the cell it lands on.
+ * Two positions that are images of each other under a transform are the
+ * same game, so analysis keyed by the canonical hash (the smallest of the
+ * 8 transformed Zobrist hashes) only has to be done once per class.
+ */
+public class TicTacToeSymmetry {
+
+    public static final int COUNT = 8;
+
+    public static final int IDENTITY = 0;
+    public static final int ROTATE_90 = 1;
+    public static final int ROTATE_180 = 2;
+    public static final int ROTATE_270 = 3;
+    public static final int FLIP_ROWS = 4;          // Mirror top to bottom
+    public static final int FLIP_COLUMNS = 5;       // Mirror left to right
+    public static final int TRANSPOSE = 6;          // Mirror on the main diagonal
+    public static final int ANTI_TRANSPOSE = 7;     // Mirror on the anti-diagonal
+
+    // Transform undoing each transform
+    private static final int[] INVERSE = {IDENTITY, ROTATE_270, ROTATE_180, ROTATE_90,
+            FLIP_ROWS, FLIP_COLUMNS, TRANSPOSE, ANTI_TRANSPOSE};
+
+    private static final ConcurrentMap<Integer, TicTacToeSymmetry> INSTANCES = new ConcurrentHashMap<>();
+
+    private final int size;
+    private final int[][] maps;     // maps[transform][cell] = transformed cell
+
+    /**
+     * Constructor for the symmetries of a size x size grid.
+     *
+     * @param size
+     */
+    private TicTacToeSymmetry(int size) {
+        this.size = size;
+        this.maps = new int[COUNT][size * size];
+        int last = size - 1;
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int cell = row * size + column;
+                this.maps[IDENTITY][cell] = cell;
+                this.maps[ROTATE_90][cell] = column * size + (last - row);
+                this.maps[ROTATE_180][cell] = (last - row) * size + (last - column);
+                this.maps[ROTATE_270][cell] = (last - column) * size + row;
+                this.maps[FLIP_ROWS][cell] = (last - row) * size + column;
+                this.maps[FLIP_COLUMNS][cell] = row * size + (last - column);
+                this.maps[TRANSPOSE][cell] = column * size + row;
+                this.maps[ANTI_TRANSPOSE][cell] = (last - column) * size + (last - row);
+            }
+        }
+    }
+
+    /**
+     * Returns the shared symmetry tables of a grid size.
+     *
+     * @param size
+     * @return symmetries of a size x size grid
+     */
+    public static TicTacToeSymmetry of(int size) {
+        return INSTANCES.computeIfAbsent(size, TicTacToeSymmetry::new);
+    }
+
+    /**
+     * Returns the transform undoing the given transform.
+     *
+     * @param transform
+     * @return inverse transform
+     */
+    public static int inverse(int transform) {
+        return INVERSE[transform];
+    }
+
+    public int getSize() { return this.size; }
+
+    /**
+     * Returns the cell a cell lands on under a transform.
+     *
+     * @param transform
+     * @param cell
+     * @return transformed cell
+     */
+    public int transform(int transform, int cell) {
+        return this.maps[transform][cell];
+    }
+
+    /**
+     * Returns the cell table of a transform, for incremental hashing.
+     *
+     * @param transform
+     * @return cell map of the transform
+     */
+    int[] getMap(int transform) {
+        return this.maps[transform];
+    }
+
+    /**
+     * Returns the transform taking a board to its canonical form, i.e. the
+     * transform giving the smallest hash.
+     *
+     * @param board
+     * @return transform whose image of the board is canonical
+     */
+    public static int canonicalTransform(TicTacToeSearchBoard board) {
+        int best = IDENTITY;
+        for (int t = 1; t < COUNT; t++) {
+            if (Long.compareUnsigned(board.getHash(t), board.getHash(best)) < 0) best = t;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the hash of the canonical form of a board, which is the same
+     * for all 8 symmetric images of the position.
+     *
+     * @param board
+     * @return canonical Zobrist hash
+     */
+    public static long canonicalHash(TicTacToeSearchBoard board) {
+        return board.getHash(canonicalTransform(board));
+    }
+}
@@ -0,0 +1,307 @@
+package game;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.BitSet;
+
+/**
+ * Perfect-play tablebase of a small TicTacToe game (3 x 3, or 4 x 4 built offline).
+ *
+ * Every position reachable from the empty board is solved once by
+ * generate() and written to a binary file, one byte per position:
+ *
+ *   bits 0-1  game-theoretic value for the player to move (WIN, DRAW, LOSS; 0 if unreachable)
+ *   bits 2-7  best move + 1
+ *
+ * A position is indexed in base 3, cell (row * size + column) counting
+ * 0 for empty, 1 for the player to move and 2 for the opponent, so the
+ * same table serves whether 'X' or 'O' started. open() maps the file with
+ * a MappedByteBuffer, making a lookup a single read with nothing to solve
+ * or load at startup.
+ *
+ * File layout: int magic, int version, int size, int numToWin, int entry
+ * count, then the entries.
+ */
+public class TicTacToeTablebase implements TicTacToePlayer {
+
+    public static final int WIN = 1;
+    public static final int DRAW = 2;
+    public static final int LOSS = 3;
+
+    private static final int MAGIC = 0x54545442;    // "TTTB"
+    private static final int VERSION = 2;     // Version 1 files could miss positions
+    private static final int HEADER_BYTES = 20;
+    private static final int MAX_CELLS = 16;        // 3^16 entries for 4 x 4
+
+    private final int size;
+    private final int numToWin;
+    private final MappedByteBuffer entries;
+
+    private TicTacToeTablebase(int size, int numToWin, MappedByteBuffer entries) {
+        this.size = size;
+        this.numToWin = numToWin;
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the default file name of the tablebase of a game, in the
+     * directory given by the tictactoe.tablebase.dir system property
+     * (default: working directory).
+     *
+     * @param size
+     * @param numToWin
+     * @return tablebase path
+     */
+    public static Path defaultPath(int size, int numToWin) {
+        return Paths.get(System.getProperty("tictactoe.tablebase.dir", "."),
+                "tablebase-" + size + "x" + size + "-" + numToWin + ".bin");
+    }
+
+    /**
+     * Opens the tablebase of a game from its default path.
+     *
+     * @param size
+     * @param numToWin
+     * @return mapped tablebase, or null if the file does not exist or cannot be read
+     */
+    public static TicTacToeTablebase find(int size, int numToWin) {
+        Path file = defaultPath(size, numToWin);
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            return open(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Maps a tablebase file for lookups.
+     *
+     * @param file
+     * @return mapped tablebase
+     * @throws IOException if the file cannot be read or is not a tablebase
+     */
+    public static TicTacToeTablebase open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                throw new IOException(file + " is not a TicTacToe tablebase.");
+            int size = buffer.getInt(8);
+            int numToWin = buffer.getInt(12);
+            int count = buffer.getInt(16);
+            if (size * size > MAX_CELLS || count != pow3(size * size)
+                    || buffer.limit() != HEADER_BYTES + count)
+                throw new IOException(file + " is truncated or corrupt.");
+            return new TicTacToeTablebase(size, numToWin, buffer);
+        }
+    }
+
+    /**
+     * Solves every position of a game reachable from the empty board and
+     * writes the tablebase file.
+     *
+     * @param size
+     * @param numToWin
+     * @param file
+     * @throws IOException
+     * @throws IllegalArgumentException if the board is larger than 4 x 4
+     * @throws IllegalStateException if a reachable position was left unsolved
+     */
+    public static void generate(int size, int numToWin, Path file)
+            throws IOException, IllegalArgumentException, IllegalStateException {
+        if (size < 1 || size * size > MAX_CELLS)
+            throw new IllegalArgumentException("Tablebases are limited to 4 x 4 grids.");
+        if (numToWin < 1 || numToWin > size)
+            throw new IllegalArgumentException("Number to win must be between 1 and " + size + ".");
+        Solver solver = new Solver(size, numToWin);
+        solver.solve(0, 0);
+        int missing = solver.countMissing(0, 0, new BitSet(solver.table.length));
+        if (missing > 0)
+            throw new IllegalStateException(missing + " reachable positions were not solved.");
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(numToWin).putInt(solver.table.length);
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(header);
+            ByteBuffer body = ByteBuffer.wrap(solver.table);
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+        }
+    }
+
+    /**
+     * Depth-first solver filling the table of a game. Two base-3 indices are
+     * kept up to date as moves are played, one counting X as the player to
+     * move and one counting O, so the index of the player to move is always
+     * at hand.
+     */
+    private static class Solver {
+
+        private final TicTacToeSearchBoard board;
+        private final byte[] table;
+        private final int[] pow3;
+
+        Solver(int size, int numToWin) {
+            this.board = new TicTacToeSearchBoard(size, numToWin, TicTacToeSearchBoard.X);
+            this.table = new byte[pow3(size * size)];
+            this.pow3 = new int[size * size];
+            for (int cell = 0; cell < this.pow3.length; cell++) {
+                this.pow3[cell] = pow3(cell);
+            }
+        }
+
+        /**
+         * Solves the position for the player to move.
+         *
+         * @param moverIndex index with the player to move counted as 1
+         * @param otherIndex index with the opponent counted as 1
+         * @return WIN, DRAW or LOSS for the player to move
+         */
+        int solve(int moverIndex, int otherIndex) {
+            if (this.table[moverIndex] != 0) return this.table[moverIndex] & 0x3;
+
+            int best = 0;
+            int bestMove = -1;
+            // Every child is solved, even after a win is found, so that every
+            // position reachable from the empty grid has an entry
+            for (int cell = 0; cell < this.pow3.length; cell++) {
+                if (this.board.getMark(cell) != TicTacToeSearchBoard.EMPTY) continue;
+                int value;
+                if (this.board.play(cell)) {
+                    value = WIN;
+                } else if (this.board.isFull()) {
+                    value = DRAW;
+                } else {
+                    // The opponent moves next: swap the roles of the two indices
+                    int child = solve(otherIndex + 2 * this.pow3[cell], moverIndex + this.pow3[cell]);
+                    value = (child == WIN) ? LOSS : (child == LOSS) ? WIN : DRAW;
+                }
+                this.board.undo();
+                if (bestMove < 0 || rank(value) > rank(best)) {
+                    best = value;
+                    bestMove = cell;
+                }
+            }
+            this.table[moverIndex] = (byte) (best | ((bestMove + 1) << 2));
+            return best;
+        }
+
+        /**
+         * Counts the positions in progress below a position that have no entry.
+         *
+         * @param moverIndex index with the player to move counted as 1
+         * @param otherIndex index with the opponent counted as 1
+         * @param seen positions already counted, by mover index
+         * @return positions without an entry
+         */
+        int countMissing(int moverIndex, int otherIndex, BitSet seen) {
+            if (seen.get(moverIndex)) return 0;
+            seen.set(moverIndex);
+            int missing = (this.table[moverIndex] == 0) ? 1 : 0;
+            for (int cell = 0; cell < this.pow3.length; cell++) {
+                if (this.board.getMark(cell) != TicTacToeSearchBoard.EMPTY) continue;
+                if (!this.board.play(cell) && !this.board.isFull()) {
+                    missing += countMissing(otherIndex + 2 * this.pow3[cell], moverIndex + this.pow3[cell], seen);
+                }
+                this.board.undo();
+            }
+            return missing;
+        }
+
+        private static int rank(int value) {
+            return (value == WIN) ? 2 : (value == DRAW) ? 1 : 0;
+        }
+    }
+
+    private static int pow3(int n) {
+        int p = 1;
+        for (int i = 0; i < n; i++) p *= 3;
+        return p;
+    }
+
+    /**
+     * Indicates whether this tablebase solves the game of a model.
+     *
+     * @param model
+     * @return true if the size and number to win match
+     */
+    public boolean covers(TicTacToeModel model) {
+        return model.getSize() == this.size && model.getNumToWin() == this.numToWin;
+    }
+
+    /**
+     * Returns the table entry of the position of a model.
+     *
+     * @param model game in progress covered by this tablebase
+     * @return packed entry
+     * @throws IllegalArgumentException
+     */
+    private int probe(TicTacToeModel model) throws IllegalArgumentException {
+        if (!covers(model))
+            throw new IllegalArgumentException("Tablebase is for a " + this.size + " by " + this.size
+                    + " grid with " + this.numToWin + " to win.");
+        if (model.getGameState() != TicTacToeEnum.IN_PROGRESS)
+            throw new IllegalArgumentException("Game is over.");
+        char turn = model.getTurn();
+        int index = 0;
+        for (int cell = this.size * this.size - 1; cell >= 0; cell--) {
+            char mark = model.getMark(cell / this.size, cell % this.size);
+            index = index * 3 + ((mark == ' ') ? 0 : (mark == turn) ? 1 : 2);
+        }
+        int entry = this.entries.get(HEADER_BYTES + index) & 0xFF;
+        if (entry == 0)
+            throw new IllegalArgumentException("Position cannot be reached from an empty grid.");
+        return entry;
+    }
+
+    /**
+     * Returns the game-theoretic value of a position for the player to move.
+     *
+     * @param model game in progress covered by this tablebase
+     * @return WIN, DRAW or LOSS
+     * @throws IllegalArgumentException
+     */
+    public int getValue(TicTacToeModel model) throws IllegalArgumentException {
+        return probe(model) & 0x3;
+    }
+
+    /**
+     * Returns a perfect-play move for the player to move.
+     *
+     * @param model game in progress covered by this tablebase
+     * @return {row, column}
+     * @throws IllegalArgumentException
+     */
+    @Override
+    public int[] chooseMove(TicTacToeModel model) throws IllegalArgumentException {
+        int cell = (probe(model) >>> 2) - 1;
+        return new int[] {cell / this.size, cell % this.size};
+    }
+
+    public int getSize() { return this.size; }
+
+    public int getNumToWin() { return this.numToWin; }
+
+    /** Tablebase generator
+     *
+     * @param args size and numToWin (default 3 3), and optionally the output file
+     * @throws IOException
+     */
+    public static void main(String args[]) throws IOException {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        int numToWin = (args.length > 1) ? Integer.parseInt(args[1]) : size;
+        Path file = (args.length > 2) ? Paths.get(args[2]) : defaultPath(size, numToWin);
+        long start = System.nanoTime();
+        generate(size, numToWin, file);
+        TicTacToeTablebase tablebase = open(file);
+        String[] values = {"?", "first player wins", "draw", "first player loses"};
+        System.out.printf("%s: %dx%d, %d to win, %s with perfect play (%.1fs)%n", file, size, size, numToWin,
+                values[tablebase.getValue(new TicTacToeModel(size, numToWin, 'X'))],
+                (System.nanoTime() - start) / 1e9);
+    }
+}
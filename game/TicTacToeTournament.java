@@ -0,0 +1,577 @@
+package game;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Headless tournament between computer players, with Elo ratings.
+ *
+ * Players are named as for TicTacToeSimulation.playerFactory() (random,
+ * greedy, search:millis, mcts:millis). In a round robin every pair meets
+ * once per round, with colours swapped from one round to the next, and
+ * every game of the tournament is scheduled at once. In a Swiss
+ * tournament each round pairs players with similar scores who have not
+ * met yet, so a round is only scheduled once the one before it is over.
+ *
+ * Games run on a ForkJoinPool (work stealing). Each worker thread keeps
+ * its own model and its own instance of every player, so games share
+ * nothing but the results file. Each player also has a time control: its
+ * thinking time over a whole game, past which it loses the game.
+ *
+ * Results are appended to a CSV file as each game ends:
+ *
+ *   # header line describing the tournament
+ *   round,game,x,o,result,moves,x_millis,o_millis,termination
+ *
+ * Running the same tournament again with the same file skips the games
+ * already in it, so an interrupted tournament resumes where it stopped. A
+ * line torn by a crash at the end of the file is ignored.
+ */
+public class TicTacToeTournament {
+
+    public enum Format { ROUND_ROBIN, SWISS }
+
+    public static final long DEFAULT_TIME_CONTROL = 60000;
+
+    private static final String COLUMNS = "round,game,x,o,result,moves,x_millis,o_millis,termination";
+    private static final List<String> RESULTS = List.of("1-0", "0-1", "1/2");
+    private static final String NORMAL = "normal";
+    private static final String TIME = "time";
+    private static final double Z_95 = 1.96;     // 95% confidence interval
+
+    private final int size;
+    private final int numToWin;
+    private final Format format;
+    private final int rounds;
+    private final List<String> names;
+    private final List<Supplier<TicTacToePlayer>> factories = new ArrayList<>();
+    private long timeControlNanos = DEFAULT_TIME_CONTROL * 1000000L;
+
+    // Players and model of each worker thread, created on first use
+    private final ThreadLocal<TicTacToePlayer[]> players;
+    private final ThreadLocal<TicTacToeModel> models;
+
+    // Games played so far, by round then game index
+    private final Map<Long, Game> games = new ConcurrentHashMap<>();
+    private Writer results;
+    private int gamesPlayed;    // By the last run()
+
+    /**
+     * Constructor for a tournament.
+     *
+     * @param size
+     * @param numToWin
+     * @param format ROUND_ROBIN or SWISS
+     * @param rounds number of rounds
+     * @param names players, as accepted by TicTacToeSimulation.playerFactory()
+     * @throws IllegalArgumentException
+     */
+    public TicTacToeTournament(int size, int numToWin, Format format, int rounds, List<String> names)
+            throws IllegalArgumentException {
+        if (names.size() < 2)
+            throw new IllegalArgumentException("A tournament needs at least 2 players.");
+        if (new HashSet<>(names).size() != names.size())
+            throw new IllegalArgumentException("Player names must be unique.");
+        if (rounds < 1)
+            throw new IllegalArgumentException("A tournament needs at least 1 round.");
+        new TicTacToeModel(size, numToWin, 'X');    // Validates the game
+        for (String name : names) {
+            if (name.contains(",") || name.contains(";"))
+                throw new IllegalArgumentException("Player names cannot contain , or ;");
+            this.factories.add(TicTacToeSimulation.playerFactory(name));
+        }
+        this.size = size;
+        this.numToWin = numToWin;
+        this.format = format;
+        this.rounds = rounds;
+        this.names = new ArrayList<>(names);
+        this.players = ThreadLocal.withInitial(() -> new TicTacToePlayer[this.names.size()]);
+        this.models = ThreadLocal.withInitial(() -> new TicTacToeModel(this.size, this.numToWin, 'X'));
+    }
+
+    /**
+     * Sets the thinking time each player has for a whole game.
+     *
+     * @param millis
+     * @throws IllegalArgumentException
+     */
+    public void setTimeControl(long millis) throws IllegalArgumentException {
+        if (millis <= 0)
+            throw new IllegalArgumentException("Time control must be positive.");
+        this.timeControlNanos = millis * 1000000L;
+    }
+
+    /**
+     * Result of one game.
+     */
+    public static class Game {
+
+        final int round;
+        final int index;
+        final int x;            // Player indices
+        final int o;
+        final double xScore;    // 1, 0.5 or 0
+        final int moves;
+        final long xMillis;
+        final long oMillis;
+        final String termination;
+
+        Game(int round, int index, int x, int o, double xScore, int moves, long xMillis, long oMillis,
+             String termination) {
+            this.round = round;
+            this.index = index;
+            this.x = x;
+            this.o = o;
+            this.xScore = xScore;
+            this.moves = moves;
+            this.xMillis = xMillis;
+            this.oMillis = oMillis;
+            this.termination = termination;
+        }
+
+        public int getRound() { return this.round; }
+
+        public double getScore(int player) { return (player == this.x) ? this.xScore : 1 - this.xScore; }
+
+        public String getTermination() { return this.termination; }
+    }
+
+    private static long key(int round, int index) { return ((long) round << 32) | index; }
+
+    /**
+     * Plays every game of the tournament not yet in the results file.
+     *
+     * @param threads parallelism of the ForkJoinPool
+     * @param file results file, created or resumed
+     * @return final standings
+     * @throws IOException if the results file cannot be read or written
+     * @throws IllegalArgumentException if the file belongs to another tournament
+     */
+    public Standings run(int threads, Path file) throws IOException, IllegalArgumentException {
+        String header = header();
+        boolean resume = Files.isRegularFile(file) && Files.size(file) > 0;
+        boolean torn = resume && !endsWithNewline(file);
+        if (resume) load(file, header, torn);
+        if (torn) {
+            // Finish the line torn by a crash, so the next result starts on a line of its own
+            Files.write(file, new byte[] {'\n'}, StandardOpenOption.APPEND);
+        }
+        this.gamesPlayed = 0;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (Writer out = Files.newBufferedWriter(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            this.results = out;
+            if (!resume) {
+                out.write(header + "\n" + COLUMNS + "\n");
+                out.flush();
+            }
+            if (this.format == Format.ROUND_ROBIN) {
+                List<int[]> pairings = new ArrayList<>();
+                for (int round = 0; round < this.rounds; round++) {
+                    pairings.addAll(roundRobin(round));
+                }
+                play(pool, pairings);
+            } else {
+                for (int round = 0; round < this.rounds; round++) {
+                    play(pool, swiss(round));
+                }
+            }
+        } finally {
+            pool.shutdown();
+            this.results = null;
+        }
+        return standings();
+    }
+
+    /**
+     * Returns the line identifying this tournament in its results file.
+     */
+    private String header() {
+        return "# tournament size=" + this.size + " numToWin=" + this.numToWin + " format=" + this.format
+                + " rounds=" + this.rounds + " players=" + String.join(";", this.names);
+    }
+
+    /**
+     * Reads the games already played from a results file.
+     *
+     * @param file
+     * @param header expected first line
+     * @param torn true if the file does not end with a newline, its last line being incomplete
+     * @throws IOException
+     * @throws IllegalArgumentException if the file belongs to another tournament
+     */
+    private void load(Path file, String header, boolean torn) throws IOException, IllegalArgumentException {
+        try (BufferedReader in = Files.newBufferedReader(file)) {
+            String line = in.readLine();
+            if (!header.equals(line))
+                throw new IllegalArgumentException(file + " holds the results of another tournament.");
+            String next = in.readLine();
+            while ((line = next) != null) {
+                next = in.readLine();
+                if (next == null && torn) break;
+                String[] f = line.split(",");
+                // Lines torn by a crash may still split into 9 fields, the last one cut short
+                if (line.equals(COLUMNS) || f.length != 9 || !RESULTS.contains(f[4])
+                        || !(f[8].equals(NORMAL) || f[8].equals(TIME))) continue;
+                try {
+                    int x = this.names.indexOf(f[2]);
+                    int o = this.names.indexOf(f[3]);
+                    double xScore = f[4].equals("1-0") ? 1 : f[4].equals("0-1") ? 0 : 0.5;
+                    if (x < 0 || o < 0) continue;
+                    Game game = new Game(Integer.parseInt(f[0]), Integer.parseInt(f[1]), x, o, xScore,
+                            Integer.parseInt(f[5]), Long.parseLong(f[6]), Long.parseLong(f[7]), f[8]);
+                    this.games.put(key(game.round, game.index), game);
+                } catch (NumberFormatException e) {
+                    // Torn by a crash
+                }
+            }
+        }
+    }
+
+    private static boolean endsWithNewline(Path file) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1).read(last);
+            return last.get(0) == '\n';
+        }
+    }
+
+    /**
+     * Returns the pairings of a round robin round: {round, index, x, o}.
+     * Colours alternate from one round to the next.
+     *
+     * @param round
+     * @return pairings
+     */
+    private List<int[]> roundRobin(int round) {
+        List<int[]> pairings = new ArrayList<>();
+        int n = this.names.size();
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                int index = pairings.size();
+                boolean swap = (round + i + j) % 2 == 1;
+                pairings.add(new int[] {round, index, swap ? j : i, swap ? i : j});
+            }
+        }
+        return pairings;
+    }
+
+    /**
+     * Returns the pairings of a Swiss round from the games played before
+     * it: players sorted by score are paired with the next player below
+     * them they have not met, the one who has played 'X' less often
+     * taking 'X'. With an odd number of players the lowest ranked player
+     * who has not had a bye sits out. The pairings only depend on earlier
+     * results, so a resumed tournament finds the same ones.
+     *
+     * @param round
+     * @return pairings {round, index, x, o}
+     */
+    private List<int[]> swiss(int round) {
+        int n = this.names.size();
+        double[] scores = new double[n];
+        int[] xGames = new int[n];
+        int[] played = new int[n];
+        Set<Long> met = new HashSet<>();
+        for (Game game : this.games.values()) {
+            if (game.round >= round) continue;
+            scores[game.x] += game.xScore;
+            scores[game.o] += 1 - game.xScore;
+            xGames[game.x]++;
+            played[game.x]++;
+            played[game.o]++;
+            met.add(key(Math.min(game.x, game.o), Math.max(game.x, game.o)));
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> (scores[a] != scores[b]) ? Double.compare(scores[b], scores[a]) : a - b);
+
+        List<Integer> waiting = new ArrayList<>(Arrays.asList(order));
+        if (n % 2 == 1) {
+            // Everyone who has had a bye has played one game fewer
+            int bye = waiting.size() - 1;
+            for (int i = waiting.size() - 1; i >= 0; i--) {
+                if (played[waiting.get(i)] == round) {
+                    bye = i;
+                    break;
+                }
+            }
+            waiting.remove(bye);
+        }
+        List<int[]> pairings = new ArrayList<>();
+        while (!waiting.isEmpty()) {
+            int a = waiting.remove(0);
+            int partner = 0;
+            for (int i = 0; i < waiting.size(); i++) {
+                int b = waiting.get(i);
+                if (!met.contains(key(Math.min(a, b), Math.max(a, b)))) {
+                    partner = i;
+                    break;
+                }
+            }
+            int b = waiting.remove(partner);
+            boolean aIsX = (xGames[a] != xGames[b]) ? xGames[a] < xGames[b] : (round + a + b) % 2 == 0;
+            pairings.add(new int[] {round, pairings.size(), aIsX ? a : b, aIsX ? b : a});
+        }
+        return pairings;
+    }
+
+    /**
+     * Plays the pairings not yet in the results on the pool.
+     *
+     * @param pool
+     * @param pairings {round, index, x, o}
+     * @throws IOException if a result cannot be written
+     */
+    private void play(ForkJoinPool pool, List<int[]> pairings) throws IOException {
+        List<Callable<Game>> tasks = new ArrayList<>();
+        for (int[] p : pairings) {
+            Game done = this.games.get(key(p[0], p[1]));
+            if (done != null) {
+                if (done.x != p[2] || done.o != p[3])
+                    throw new IllegalArgumentException("Game " + p[0] + "." + p[1]
+                            + " in the results does not match the schedule.");
+                continue;
+            }
+            tasks.add(() -> playGame(p[0], p[1], p[2], p[3]));
+        }
+        for (Future<Game> task : pool.invokeAll(tasks)) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IllegalStateException("Tournament game failed.", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Plays one game on the calling worker thread and records its result.
+     *
+     * @return result
+     * @throws IOException if the result cannot be written
+     */
+    private Game playGame(int round, int index, int x, int o) throws IOException {
+        TicTacToePlayer[] players = this.players.get();
+        if (players[x] == null) players[x] = this.factories.get(x).get();
+        if (players[o] == null) players[o] = this.factories.get(o).get();
+        TicTacToeModel model = this.models.get();
+        model.reset('X');
+        long[] clocks = new long[2];
+        double xScore = -1;
+        String termination = NORMAL;
+        while (model.getGameState() == TicTacToeEnum.IN_PROGRESS) {
+            int side = (model.getTurn() == 'X') ? 0 : 1;
+            long start = System.nanoTime();
+            int[] move = players[(side == 0) ? x : o].chooseMove(model);
+            clocks[side] += System.nanoTime() - start;
+            if (clocks[side] > this.timeControlNanos) {
+                xScore = side;      // Lost on time
+                termination = TIME;
+                break;
+            }
+            model.takeTurn(move[0], move[1]);
+        }
+        if (xScore < 0) {
+            TicTacToeEnum state = model.getGameState();
+            xScore = (state == TicTacToeEnum.X_WON) ? 1 : (state == TicTacToeEnum.O_WON) ? 0 : 0.5;
+        }
+        Game game = new Game(round, index, x, o, xScore, model.getMarkCount(), clocks[0] / 1000000L,
+                clocks[1] / 1000000L, termination);
+        record(game);
+        return game;
+    }
+
+    private synchronized void record(Game game) throws IOException {
+        String result = (game.xScore == 1) ? "1-0" : (game.xScore == 0) ? "0-1" : "1/2";
+        this.results.write(game.round + "," + game.index + "," + this.names.get(game.x) + "," + this.names.get(game.o)
+                + "," + result + "," + game.moves + "," + game.xMillis + "," + game.oMillis + "," + game.termination + "\n");
+        this.results.flush();
+        this.games.put(key(game.round, game.index), game);
+        this.gamesPlayed++;
+    }
+
+    /**
+     * Returns the games played by the last run(), not counting those
+     * already in the results file.
+     *
+     * @return games played
+     */
+    public synchronized int getGamesPlayed() { return this.gamesPlayed; }
+
+    /**
+     * Returns the standings from the games played so far.
+     *
+     * @return standings with Elo ratings
+     */
+    public Standings standings() {
+        return new Standings(this.names, new ArrayList<>(this.games.values()));
+    }
+
+    /**
+     * Scores and Elo ratings of the players.
+     *
+     * A player's rating is the average rating of its opponents plus the Elo
+     * difference its score implies, recomputed until the ratings settle;
+     * the ratings average 0. The 95% interval comes from the standard
+     * error of the player's mean score over its games. Scores of 0% or
+     * 100% are counted as half a game short of it, so every rating is
+     * finite; the interval of such a player only extends towards 50%.
+     */
+    public static class Standings {
+
+        private final List<String> names;
+        private final int[] wins;
+        private final int[] draws;
+        private final int[] losses;
+        private final double[] ratings;
+        private final double[] lower;
+        private final double[] upper;
+        private final int gameCount;
+
+        Standings(List<String> names, List<Game> games) {
+            int n = names.size();
+            this.names = names;
+            this.wins = new int[n];
+            this.draws = new int[n];
+            this.losses = new int[n];
+            this.ratings = new double[n];
+            this.lower = new double[n];
+            this.upper = new double[n];
+            this.gameCount = games.size();
+            double[] opponents = new double[n];
+            for (Game game : games) {
+                for (int player : new int[] {game.x, game.o}) {
+                    double score = game.getScore(player);
+                    if (score == 1) this.wins[player]++;
+                    else if (score == 0) this.losses[player]++;
+                    else this.draws[player]++;
+                }
+            }
+            for (int iteration = 0; iteration < 200; iteration++) {
+                Arrays.fill(opponents, 0);
+                for (Game game : games) {
+                    opponents[game.x] += this.ratings[game.o];
+                    opponents[game.o] += this.ratings[game.x];
+                }
+                double mean = 0;
+                double[] next = new double[n];
+                for (int i = 0; i < n; i++) {
+                    int played = getGames(i);
+                    if (played == 0) continue;
+                    next[i] = 0.5 * (this.ratings[i] + opponents[i] / played + elo(clamp(getScore(i), played)));
+                    mean += next[i] / n;
+                }
+                for (int i = 0; i < n; i++) {
+                    this.ratings[i] = next[i] - mean;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                int played = getGames(i);
+                if (played == 0) continue;
+                double score = getScore(i);
+                double variance = Math.max(0, (this.wins[i] + 0.25 * this.draws[i]) / played - score * score);
+                if (variance == 0) {
+                    // Identical results: use the spread of the score counted half a game short
+                    double clamped = clamp(score, played);
+                    variance = clamped * (1 - clamped);
+                }
+                double error = Z_95 * Math.sqrt(variance / played);
+                double centre = elo(clamp(score, played));
+                this.lower[i] = this.ratings[i] + elo(clamp(score - error, played)) - centre;
+                this.upper[i] = this.ratings[i] + elo(clamp(score + error, played)) - centre;
+            }
+        }
+
+        private static double clamp(double score, int games) {
+            double margin = 0.5 / games;
+            return Math.min(1 - margin, Math.max(margin, score));
+        }
+
+        /**
+         * Returns the Elo difference implied by a score.
+         *
+         * @param score between 0 and 1, exclusive
+         * @return rating difference
+         */
+        public static double elo(double score) {
+            return -400 * Math.log10(1 / score - 1);
+        }
+
+        public int getGames(int player) { return this.wins[player] + this.draws[player] + this.losses[player]; }
+
+        /**
+         * Returns the mean score of a player.
+         *
+         * @param player index in the tournament's player list
+         * @return between 0 and 1
+         */
+        public double getScore(int player) {
+            int games = getGames(player);
+            return (games == 0) ? 0 : (this.wins[player] + 0.5 * this.draws[player]) / games;
+        }
+
+        public double getRating(int player) { return this.ratings[player]; }
+
+        public double getRatingLower(int player) { return this.lower[player]; }
+
+        public double getRatingUpper(int player) { return this.upper[player]; }
+
+        public int getGameCount() { return this.gameCount; }
+
+        /**
+         * Formats the standings as a table, best rated first.
+         *
+         * @return one line per player
+         */
+        @Override
+        public String toString() {
+            Integer[] order = new Integer[this.names.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Double.compare(this.ratings[b], this.ratings[a]));
+            StringBuilder s = new StringBuilder(String.format("%-4s %-16s %6s %7s %6s %15s %12s%n",
+                    "Rank", "Player", "Games", "Score", "Elo", "95% interval", "W/D/L"));
+            for (int rank = 0; rank < order.length; rank++) {
+                int i = order[rank];
+                s.append(String.format(Locale.ROOT, "%-4d %-16s %6d %6.1f%% %+6.0f %7.0f..%-6.0f %12s%n", rank + 1,
+                        this.names.get(i), getGames(i), 100 * getScore(i), this.ratings[i], this.lower[i],
+                        this.upper[i], this.wins[i] + "/" + this.draws[i] + "/" + this.losses[i]));
+            }
+            return s.toString();
+        }
+    }
+
+    /** Tournament example
+     *
+     * @param args size, numToWin, format (roundrobin or swiss), rounds,
+     *             threads, results file, then the players (default 15 5
+     *             roundrobin 4 <cores> tournament.csv random greedy mcts:20
+     *             search:20)
+     * @throws IOException
+     */
+    public static void main(String args[]) throws IOException {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 15;
+        int numToWin = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        Format format = (args.length > 2 && args[2].equals("swiss")) ? Format.SWISS : Format.ROUND_ROBIN;
+        int rounds = (args.length > 3) ? Integer.parseInt(args[3]) : 4;
+        int threads = (args.length > 4) ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        Path file = Paths.get((args.length > 5) ? args[5] : "tournament.csv");
+        List<String> players = (args.length > 6) ? Arrays.asList(args).subList(6, args.length)
+                : Arrays.asList("random", "greedy", "mcts:20", "search:20");
+        TicTacToeTournament tournament = new TicTacToeTournament(size, numToWin, format, rounds, players);
+        long start = System.nanoTime();
+        Standings standings = tournament.run(threads, file);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%dx%d, %d to win, %s, %d rounds: %d games (%d played now, %.1f games/s on %d threads)%n",
+                size, size, numToWin, format, rounds, standings.getGameCount(), tournament.getGamesPlayed(),
+                tournament.getGamesPlayed() / seconds, threads);
+        System.out.print(standings);
+    }
+}
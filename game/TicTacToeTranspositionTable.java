@@ -0,0 +1,129 @@
+package game;
+
+import java.util.*;
+
+/**
+ * Bounded transposition table of search results keyed by Zobrist hash.
+ *
+ * Entries live in buckets of two slots. The first slot keeps the deepest
+ * result seen for the bucket during the current search, the second is
+ * always replaced; results left over from older searches give way to new
+ * ones. Each entry is packed into one long:
+ *
+ *   bits  0-23  value (signed)
+ *   bits 24-31  search depth
+ *   bits 32-33  bound flag (EXACT, LOWER, UPPER)
+ *   bits 34-55  best move + 1 (0 for none)
+ *   bits 56-63  search generation
+ *
+ * The table may be shared by several search threads without locking: each
+ * slot stores its key XORed with its entry, so an entry torn by concurrent
+ * writers no longer matches its key and is simply treated as a miss.
+ */
+public class TicTacToeTranspositionTable {
+
+    public static final int EXACT = 1;
+    public static final int LOWER = 2;  // Value is at least the stored value
+    public static final int UPPER = 3;  // Value is at most the stored value
+
+    private final long[] keys;      // Key XOR entry of each slot
+    private final long[] data;
+    private final int bucketMask;
+    private volatile int generation;
+
+    /**
+     * Constructor for a table holding at most capacity entries.
+     *
+     * @param capacity maximum number of entries, rounded down to a power of two
+     * @throws IllegalArgumentException
+     */
+    public TicTacToeTranspositionTable(int capacity) throws IllegalArgumentException {
+        if (capacity < 2)
+            throw new IllegalArgumentException("Transposition table must hold at least 2 entries.");
+        int entries = Integer.highestOneBit(capacity);
+        this.keys = new long[entries];
+        this.data = new long[entries];
+        this.bucketMask = (entries >>> 1) - 1;
+    }
+
+    /**
+     * Looks up the entry of a position.
+     *
+     * @param key Zobrist hash of the position
+     * @return packed entry, or 0 if the position is not stored
+     */
+    public long probe(long key) {
+        int slot = ((int) key & this.bucketMask) << 1;
+        for (int i = slot; i < slot + 2; i++) {
+            long entry = this.data[i];
+            if (entry != 0L && (this.keys[i] ^ entry) == key) {
+                return entry;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Stores the result of searching a position.
+     *
+     * @param key Zobrist hash of the position
+     * @param value search value
+     * @param depth remaining search depth the value was computed with
+     * @param flag EXACT, LOWER or UPPER
+     * @param move best move found, or -1
+     */
+    public void store(long key, int value, int depth, int flag, int move) {
+        long entry = pack(value, depth, flag, move, this.generation);
+        int slot = ((int) key & this.bucketMask) << 1;
+        long deepest = this.data[slot];
+        long deepestKey = this.keys[slot] ^ deepest;
+        if (deepest == 0L || deepestKey == key
+                || generation(deepest) != this.generation || depth >= depth(deepest)) {
+            if (deepest != 0L && deepestKey != key) {
+                // Demote the previous entry to the always-replace slot
+                this.keys[slot + 1] = deepestKey ^ deepest;
+                this.data[slot + 1] = deepest;
+            }
+            this.keys[slot] = key ^ entry;
+            this.data[slot] = entry;
+        } else {
+            this.keys[slot + 1] = key ^ entry;
+            this.data[slot + 1] = entry;
+        }
+    }
+
+    /**
+     * Starts a new search: entries stored from now on take precedence over older ones.
+     */
+    public void nextGeneration() {
+        this.generation = (this.generation + 1) & 0xFF;
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        Arrays.fill(this.keys, 0L);
+        Arrays.fill(this.data, 0L);
+    }
+
+    public int getCapacity() { return this.keys.length; }
+
+    static long pack(int value, int depth, int flag, int move, int generation) {
+        return (value & 0xFFFFFFL)
+                | ((long) (depth & 0xFF) << 24)
+                | ((long) flag << 32)
+                | ((long) ((move + 1) & 0x3FFFFF) << 34)
+                | ((long) generation << 56);
+    }
+
+    public static int value(long entry) { return ((int) (entry << 8)) >> 8; }
+
+    public static int depth(long entry) { return (int) (entry >>> 24) & 0xFF; }
+
+    public static int flag(long entry) { return (int) (entry >>> 32) & 0x3; }
+
+    public static int move(long entry) { return ((int) (entry >>> 34) & 0x3FFFFF) - 1; }
+
+    static int generation(long entry) { return (int) (entry >>> 56) & 0xFF; }
+}
@@ -1,20 +1,35 @@
+package game;
 
 import java.awt.*;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
 import java.io.File;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
-public class TicTacToeView extends JFrame{
+public class TicTacToeView extends JFrame implements TicTacToeObserver {
+
+    private static final long serialVersionUID = 1L;
+
+    // Batches changing more cells than this repaint the visible grid once
+    private static final int REPAINT_CELLS = 256;
 
     // Model reference
     private TicTacToeModel model;
 
-    // Layout manager
-    private GridLayout gridLayout;
+    // Player to move, as of the last event shown; the model itself is only
+    // read by the constructor, other threads change it afterwards
+    private char turn;
+
+    // Game grid, painted by a single component in a scroll pane
+    private TicTacToeGridComponent grid;
+    private JScrollPane gridScrollPane;
 
     // JPanels
-    private JPanel buttonGrid;
     private JPanel messagePanel;
 
     // JLabel
@@ -26,10 +41,20 @@ public class TicTacToeView extends JFrame{
     private JMenuItem restartMenuItem;
     private JMenuItem quitMenuItem;
     private JMenuItem gridSizeMenuItem;
+    private JMenuItem numToWinMenuItem;
+    private JMenuItem hintMenuItem;
+    private JMenuItem zoomInMenuItem;
+    private JMenuItem zoomOutMenuItem;
+    private JRadioButtonMenuItem computerOffMenuItem;
+    private JRadioButtonMenuItem computerXMenuItem;
+    private JRadioButtonMenuItem computerOMenuItem;
 
-    // JButtons
-    private final static int BUTTON_SIZE = 100;
-    private JButton[][] buttons;
+    // Model changes waiting to be shown on the Event Dispatch Thread
+    private final Queue<TicTacToeEvent> pendingEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+    // Starts a new game when the player asks for one
+    private Runnable restartHandler;
 
     /**
      * Constructor for TicTacToeView objects.
@@ -39,8 +64,8 @@ public class TicTacToeView extends JFrame{
      */
     public TicTacToeView(TicTacToeModel model, int size) {
         this.model = model;
-        this.buttons = new JButton[size][size];
-        gridLayout = new GridLayout(size, size);
+        this.turn = model.getTurn();
+        this.grid = new TicTacToeGridComponent(model, TicTacToeGridComponent.defaultCellSize(size));
         initializeGUI();
     }
 
@@ -52,26 +77,22 @@ public class TicTacToeView extends JFrame{
         model.addView(this); // Subscribe to model
         setTitle("Tic Tac Toe");
 
-        // Initialize button grid layout for Tic Tac Toe game grid
-        buttonGrid = new JPanel();
-        buttonGrid.setLayout(gridLayout);
+        // Scroll pane showing the visible part of the Tic Tac Toe game grid
+        gridScrollPane = new JScrollPane(grid);
 
         //Initialize output message panel
         messagePanel = new JPanel();
-        message = new JLabel(model.getTurn() + ": Click where you would like to mark.");
+        message = new JLabel(turn + ": Click where you would like to mark.");
         messagePanel.add(message);
 
         // Add GUI components to JFrame
-        add(buttonGrid, BorderLayout.CENTER);
+        add(gridScrollPane, BorderLayout.CENTER);
         add(messagePanel, BorderLayout.SOUTH);
 
         initializeMenuBar();
-        initializeButtons();
 
-        setResizable(false);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         pack();
-        setSize(model.getSize() * BUTTON_SIZE, (model.getSize() * BUTTON_SIZE) + BUTTON_SIZE);
         setVisible(true);
         setLocationRelativeTo(null);
     }
@@ -99,24 +120,75 @@ public class TicTacToeView extends JFrame{
         menu.add(editMenu);
         this.gridSizeMenuItem = new JMenuItem("Change Grid Size");
         editMenu.add(gridSizeMenuItem);
+        this.numToWinMenuItem = new JMenuItem("Change Win Length");
+        editMenu.add(numToWinMenuItem);
+        this.hintMenuItem = new JMenuItem("Hint");
+        editMenu.add(hintMenuItem);
+
+        JMenu viewMenu = new JMenu("View");
+        menu.add(viewMenu);
+        this.zoomInMenuItem = new JMenuItem("Zoom In");
+        zoomInMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, InputEvent.CTRL_DOWN_MASK));
+        viewMenu.add(zoomInMenuItem);
+        this.zoomOutMenuItem = new JMenuItem("Zoom Out");
+        zoomOutMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, InputEvent.CTRL_DOWN_MASK));
+        viewMenu.add(zoomOutMenuItem);
+
+        JMenu computerMenu = new JMenu("Computer");
+        menu.add(computerMenu);
+        ButtonGroup computerGroup = new ButtonGroup();
+        this.computerOffMenuItem = new JRadioButtonMenuItem("Off", true);
+        this.computerXMenuItem = new JRadioButtonMenuItem("Plays X");
+        this.computerOMenuItem = new JRadioButtonMenuItem("Plays O");
+        for (JRadioButtonMenuItem item : new JRadioButtonMenuItem[] {computerOffMenuItem, computerXMenuItem, computerOMenuItem}) {
+            computerGroup.add(item);
+            computerMenu.add(item);
+        }
     }
 
-    private void initializeButtons() {
-        // Create each JButton in the array
-        for (int i = 0; i < this.model.getSize(); i++){
-            for (int j = 0; j < this.model.getSize(); j++){
-                JButton button = new JButton();
-                buttons[i][j] = button;
-                button.setSize(BUTTON_SIZE, BUTTON_SIZE);
-                button.setIcon(null);
-                buttonGrid.add(button);
-            }
+    /**
+     * Queues a change to the game to be shown on the Event Dispatch Thread.
+     * May be called from any thread; changes arriving before the queue is
+     * shown are shown together by a single invokeLater().
+     *
+     * @param event
+     */
+    @Override
+    public void update(TicTacToeEvent event) {
+        pendingEvents.add(event);
+        if (updateScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::showPendingEvents);
         }
-        updateButtons();
     }
 
-    public void update(TicTacToeEnum gameState) {
-        updateButtons();
+    /**
+     * Shows the queued changes: the marks they carry are copied to the
+     * grid and only the changed cells are repainted, or the visible grid
+     * after a refresh or a large batch, then the latest game state.
+     */
+    private void showPendingEvents() {
+        // Changes queued from now on schedule another call
+        updateScheduled.set(false);
+        long start = TicTacToeMetrics.start();
+        TicTacToeEvent event;
+        TicTacToeEvent last = null;
+        while ((event = pendingEvents.poll()) != null) {
+            if (event.isRefresh()) grid.clearMarks();
+            for (int i = 0; i < event.getChangeCount(); i++) {
+                grid.setMark(event.getRow(i), event.getColumn(i), event.getMark(i));
+            }
+            if (event.isRefresh() || event.getChangeCount() > REPAINT_CELLS) {
+                grid.repaint();
+            } else {
+                for (int i = 0; i < event.getChangeCount(); i++) {
+                    grid.repaintCell(event.getRow(i), event.getColumn(i));
+                }
+            }
+            last = event;
+        }
+        if (last == null) return;
+        turn = last.getTurn();
+        TicTacToeEnum gameState = last.getGameState();
         if(gameState.equals(TicTacToeEnum.O_WON)) {
             gameWinner("O");
         } else if(gameState.equals(TicTacToeEnum.X_WON)) {
@@ -126,35 +198,7 @@ public class TicTacToeView extends JFrame{
         } else { // Game in progress
             updateMessagePanel();
         }
-    }
-
-    public void updateButtons() {
-        // Get string representation of game grid
-        String  grid = model.toString();
-        // Debugging
-        System.out.println(grid);
-
-        // Update any buttons with the corresponding 'X' or 'O' marker
-        int offset = 0;
-        for (int i = 0; i < this.model.getSize(); i++) {
-            for (int j = 0; j < this.model.getSize(); j++) {
-                offset = j + (i * model.getSize());
-                // Select character
-                String character = String.valueOf(grid.charAt(offset));
-
-                // Set character text at JButton
-                switch (character) {
-                    case "X":
-                        buttons[i][j].setText("X");
-                        break;
-                    case "O":
-                        buttons[i][j].setText("O");
-                        break;
-                    case " ":
-                        buttons[i][j].setText(" ");
-                }
-            }
-        }
+        TicTacToeMetrics.VIEW_UPDATE.recordSince(start);
     }
 
     /**
@@ -162,16 +206,29 @@ public class TicTacToeView extends JFrame{
      *
      */
     public void updateMessagePanel() {
-        message.setText(model.getTurn() + ": Click where you would like to mark.");
+        message.setText(turn + ": Click where you would like to mark.");
+    }
+
+    /**
+     * Suggests a move to the current player in the message panel.
+     *
+     * @param row of the suggested move
+     * @param column of the suggested move
+     * @param outcome expected result with perfect play, or null if unknown
+     */
+    public void showHint(int row, int column, String outcome) {
+        String text = turn + ": Hint - try row " + row + ", column " + column;
+        if (outcome != null) text += " (" + outcome + ")";
+        message.setText(text + ".");
     }
 
     /**
-     * Returns the 2D array of JButton objects.
+     * Returns the component painting the game grid.
      *
-     * @return buttons
+     * @return grid
      */
-    public JButton[][] getButtons(){
-        return this.buttons;
+    public TicTacToeGridComponent getGrid(){
+        return this.grid;
     }
 
     /**
@@ -181,7 +238,7 @@ public class TicTacToeView extends JFrame{
      */
     public String getFileName() {
         String fileName = JOptionPane.showInputDialog("Save file as:");
-        return fileName + ".txt";
+        return fileName + ".ttt";
     }
 
     /**
@@ -191,15 +248,15 @@ public class TicTacToeView extends JFrame{
      */
     public String openFile() {
         JFileChooser fileChooser = new JFileChooser();
-        // Only allow .txt files
-        FileNameExtensionFilter filter = new FileNameExtensionFilter("TEXT FILES", "txt", "text");
+        // Only allow .ttt save files
+        FileNameExtensionFilter filter = new FileNameExtensionFilter("TIC TAC TOE GAMES", "ttt");
         fileChooser.setFileFilter(filter);
         // Start in home directory
         fileChooser.setCurrentDirectory(new File(System.getProperty("user.home")));
         int result = fileChooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
             // user selects a file
-            return fileChooser.getSelectedFile().getName();
+            return fileChooser.getSelectedFile().getPath();
         } else {
             // no file selected successfully
             return null;
@@ -216,6 +273,16 @@ public class TicTacToeView extends JFrame{
         return Integer.parseInt(size);
     }
 
+    /**
+     * Prompts user to enter an integer indicating how many adjacent marks win the game.
+     *
+     * @return New number of marks to win
+     */
+    public int changeNumToWin() {
+        String numToWin = JOptionPane.showInputDialog("Enter number of marks in a row to win (integer): ");
+        return Integer.parseInt(numToWin);
+    }
+
     /**
      * Displays winner and prompts user to start a new game.
      *
@@ -254,17 +321,21 @@ public class TicTacToeView extends JFrame{
     }
 
     /**
-     * Restarts the TicTacToe game by resetting the model and updating the buttons.
+     * Restarts the TicTacToe game through the restart handler.
      *
      */
     public void restartGame() {
-        // Randomize initial turn
-        if (((int) Math.random() % 2) == 0) {
-            model.reset('X');
-        } else {
-            model.reset('O');
-        }
-        updateButtons();
+        if (restartHandler != null) restartHandler.run();
+    }
+
+    /**
+     * Sets what restartGame() does, e.g. after the player chose to play
+     * again at the end of a game.
+     *
+     * @param restartHandler
+     */
+    public void setRestartHandler(Runnable restartHandler) {
+        this.restartHandler = restartHandler;
     }
 
     /**
@@ -321,4 +392,53 @@ public class TicTacToeView extends JFrame{
      */
     public JMenuItem getGridSizeMenuItem() { return this.gridSizeMenuItem; }
 
+    /**
+     * Returns "Change Win Length" JMenuItem.
+     *
+     * @return numToWinMenuItem
+     */
+    public JMenuItem getNumToWinMenuItem() { return this.numToWinMenuItem; }
+
+    /**
+     * Returns "Hint" JMenuItem.
+     *
+     * @return hintMenuItem
+     */
+    public JMenuItem getHintMenuItem() { return this.hintMenuItem; }
+
+    /**
+     * Returns "Zoom In" JMenuItem.
+     *
+     * @return zoomInMenuItem
+     */
+    public JMenuItem getZoomInMenuItem() { return this.zoomInMenuItem; }
+
+    /**
+     * Returns "Zoom Out" JMenuItem.
+     *
+     * @return zoomOutMenuItem
+     */
+    public JMenuItem getZoomOutMenuItem() { return this.zoomOutMenuItem; }
+
+    /**
+     * Returns "Computer > Off" JRadioButtonMenuItem.
+     *
+     * @return computerOffMenuItem
+     */
+    public JRadioButtonMenuItem getComputerOffMenuItem() { return this.computerOffMenuItem; }
+
+    /**
+     * Returns "Computer > Plays X" JRadioButtonMenuItem.
+     *
+     * @return computerXMenuItem
+     */
+    public JRadioButtonMenuItem getComputerXMenuItem() { return this.computerXMenuItem; }
+
+    /**
+     * Returns "Computer > Plays O" JRadioButtonMenuItem.
+     *
+     * @return computerOMenuItem
+     */
+    public JRadioButtonMenuItem getComputerOMenuItem() { return this.computerOMenuItem; }
+
 }